@@ -0,0 +1,204 @@
+package umm3601;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+
+import umm3601.todos.Todos;
+import umm3601.todos.TodosDatabase;
+import umm3601.user.User;
+
+/**
+ * Generates realistic looking todos and users for the benchmarks.
+ * <p>
+ * Real data is skewed: a few owners have lots of todos and most have only a
+ * few, and likewise for categories and companies. So owners, categories and
+ * companies are picked from a Zipf distribution, where the `n`th most common
+ * value turns up about `1/n` as often as the most common one. Bodies are
+ * random sentences from a fixed vocabulary, so `contains` searches for a word
+ * match about as often as they would on real text.
+ * <p>
+ * The same seed always gives the same data, so results can be compared from
+ * run to run.
+ */
+public class SyntheticData {
+
+  private static final long SEED = 3601;
+
+  private static final String[] CATEGORIES = {
+    "homework", "groceries", "software design", "video games", "chores", "errands", "reading", "exercise",
+    "meetings", "travel"
+  };
+
+  // The number of distinct words in the todo bodies
+  private static final int VOCABULARY_SIZE = 2000;
+
+  private static final String[] SYLLABLES = {
+    "ka", "lo", "mi", "ne", "su", "ta", "ri", "po", "ve", "da", "zu", "an", "el", "or", "ist", "ing", "er", "ment",
+    "qu", "xo"
+  };
+
+  // The most common owner, category and company, and a common and a rare
+  // word, for benchmarks to filter on. (The words with one syllable are too
+  // short for the trigram index, so skip them.)
+  public static final String COMMON_OWNER = owner(0);
+  public static final String COMMON_CATEGORY = CATEGORIES[0];
+  public static final String COMMON_COMPANY = company(0);
+  public static final String COMMON_WORD = word(SYLLABLES.length);
+  public static final String RARE_WORD = word(VOCABULARY_SIZE - 1);
+
+  // Generated databases are cached as snapshots in this directory, so each
+  // benchmark fork can open one instead of generating and indexing it again.
+  // Bump `DATA_VERSION` whenever the generated data or the snapshot format
+  // changes.
+  private static final Path CACHE_DIRECTORY = Paths.get(System.getProperty("jmh.dataDir", "build/jmh-data"));
+  private static final int DATA_VERSION = 4;
+
+  private SyntheticData() {
+  }
+
+  /**
+   * Get a database of generated todos, from the snapshot cache if possible.
+   *
+   * @param count the number of todos
+   * @return the database
+   * @throws IOException if the cached snapshot can't be read or written
+   */
+  public static TodosDatabase todosDatabase(int count) throws IOException {
+    Path snapshot = CACHE_DIRECTORY.resolve("todos-" + count + "-v" + DATA_VERSION + ".snapshot");
+    if (!Files.exists(snapshot)) {
+      Files.createDirectories(CACHE_DIRECTORY);
+      // Write under another name first, so an interrupted run doesn't leave
+      // half a snapshot behind
+      Path partial = CACHE_DIRECTORY.resolve(snapshot.getFileName() + ".partial");
+      TodosDatabase.of(todos(count)).writeSnapshot(partial);
+      Files.move(partial, snapshot, StandardCopyOption.REPLACE_EXISTING);
+    }
+    return TodosDatabase.openSnapshot(snapshot);
+  }
+
+  /**
+   * Generate todos on the fly, without keeping them all in memory.
+   *
+   * @param count the number of todos
+   * @return the generated todos, ready for `TodosDatabase.of`
+   */
+  public static Iterable<Todos> todos(int count) {
+    int ownerCount = Math.max(10, count / 50);
+    return () -> new Iterator<Todos>() {
+      private final SplittableRandom random = new SplittableRandom(SEED);
+      private final Zipf owners = new Zipf(ownerCount);
+      private final Zipf categories = new Zipf(CATEGORIES.length);
+      private final Zipf words = new Zipf(VOCABULARY_SIZE);
+      private int generated = 0;
+
+      @Override
+      public boolean hasNext() {
+        return generated < count;
+      }
+
+      @Override
+      public Todos next() {
+        Todos todo = new Todos();
+        todo._id = id(generated++);
+        todo.owner = owner(owners.next(random));
+        todo.status = random.nextInt(3) == 0;
+        todo.body = sentence(random, words, 4 + random.nextInt(12));
+        todo.category = CATEGORIES[categories.next(random)];
+        return todo;
+      }
+    };
+  }
+
+  /**
+   * Generate users.
+   *
+   * @param count the number of users
+   * @return the generated users, ready for `UserDatabase.of`
+   */
+  public static User[] users(int count) {
+    SplittableRandom random = new SplittableRandom(SEED);
+    Zipf companies = new Zipf(Math.max(10, count / 100));
+    User[] users = new User[count];
+    for (int i = 0; i < count; i++) {
+      User user = new User();
+      user._id = id(i);
+      user.name = "User " + i;
+      user.age = 18 + random.nextInt(60);
+      user.company = company(companies.next(random));
+      user.email = "user" + i + "@example.com";
+      users[i] = user;
+    }
+    return users;
+  }
+
+  /**
+   * Make a 24 digit hex ID, like a MongoDB object ID.
+   */
+  private static String id(int n) {
+    return String.format("%024x", 0x5889_5985_0000_0000L + n);
+  }
+
+  private static String owner(int n) {
+    return "Owner " + n;
+  }
+
+  private static String company(int n) {
+    return "COMPANY" + n;
+  }
+
+  /**
+   * Make the `n`th word in the vocabulary from syllables.
+   */
+  private static String word(int n) {
+    StringBuilder word = new StringBuilder();
+    int rest = n;
+    do {
+      word.append(SYLLABLES[rest % SYLLABLES.length]);
+      rest /= SYLLABLES.length;
+    } while (rest > 0);
+    return word.toString();
+  }
+
+  private static String sentence(SplittableRandom random, Zipf words, int length) {
+    StringBuilder sentence = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      if (i > 0) {
+        sentence.append(' ');
+      }
+      sentence.append(word(words.next(random)));
+    }
+    sentence.append('.');
+    return sentence.toString();
+  }
+
+  /**
+   * Picks numbers from `0` to `n - 1`, where `k` is picked in proportion to
+   * `1 / (k + 1)`.
+   */
+  private static class Zipf {
+    private final double[] cumulative;
+
+    Zipf(int n) {
+      cumulative = new double[n];
+      double total = 0;
+      for (int k = 0; k < n; k++) {
+        total += 1.0 / (k + 1);
+        cumulative[k] = total;
+      }
+      for (int k = 0; k < n; k++) {
+        cumulative[k] /= total;
+      }
+    }
+
+    int next(SplittableRandom random) {
+      int k = Arrays.binarySearch(cumulative, random.nextDouble());
+      return Math.min((k >= 0) ? k : -k - 1, cumulative.length - 1);
+    }
+  }
+}
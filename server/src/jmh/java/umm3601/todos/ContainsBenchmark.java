@@ -0,0 +1,67 @@
+package umm3601.todos;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.SyntheticData;
+
+/**
+ * Compares a `contains` query through `listTodos`, which narrows the rows
+ * down with the trigram index before checking them, against
+ * `filterTodosByBody`, which checks the body of every todo.
+ * <p>
+ * The index should help most with the rare word, where it leaves only a few
+ * candidates; with the common word most rows are candidates anyway.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class ContainsBenchmark {
+
+  @Param({ "10000", "1000000" })
+  int size;
+
+  @Param({ "common", "rare" })
+  String word;
+
+  private TodosDatabase database;
+  private String target;
+  private Map<String, List<String>> queryParams;
+  private Todos[] allTodos;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    database = SyntheticData.todosDatabase(size);
+    target = word.equals("rare") ? SyntheticData.RARE_WORD : SyntheticData.COMMON_WORD;
+    queryParams = Map.of("contains", List.of(target));
+    allTodos = database.listTodos(Map.of());
+  }
+
+  @Benchmark
+  public Todos[] indexed() {
+    return database.listTodos(queryParams);
+  }
+
+  @Benchmark
+  public Todos[] scan() {
+    return database.filterTodosByBody(allTodos, target);
+  }
+}
@@ -0,0 +1,72 @@
+package umm3601.todos;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.SyntheticData;
+
+/**
+ * Compares how much a four-filter query allocates when `listTodos` checks
+ * every filter on each row in one pass, against applying the
+ * `filterTodosBy*` methods one after another to an array of all the todos.
+ * <p>
+ * Look at `gc.alloc.rate.norm` from the gc profiler (which `build.gradle`
+ * turns on): it is the bytes allocated per query. Once the pooled row
+ * buffers have grown, `fused` should only allocate the selected rows and the
+ * `Todos` made from them, while `filterInTurn` also allocates an array for
+ * each filter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class FilterPipelineBenchmark {
+
+  @Param({ "10000", "1000000" })
+  int size;
+
+  private TodosDatabase database;
+  private Map<String, List<String>> queryParams;
+  private Todos[] allTodos;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    database = SyntheticData.todosDatabase(size);
+    queryParams = Map.of(
+      "owner", List.of(SyntheticData.COMMON_OWNER),
+      "category", List.of(SyntheticData.COMMON_CATEGORY),
+      "status", List.of("complete"),
+      "contains", List.of(SyntheticData.COMMON_WORD));
+    allTodos = database.listTodos(Map.of());
+  }
+
+  @Benchmark
+  public Todos[] fused() {
+    return database.listTodos(queryParams);
+  }
+
+  @Benchmark
+  public Todos[] filterInTurn() {
+    Todos[] todos = database.filterTodosByStatus(allTodos, true);
+    todos = database.filterTodosByBody(todos, SyntheticData.COMMON_WORD);
+    todos = database.filterTodosByOwner(todos, SyntheticData.COMMON_OWNER);
+    return database.filterTodosByCategory(todos, SyntheticData.COMMON_CATEGORY);
+  }
+}
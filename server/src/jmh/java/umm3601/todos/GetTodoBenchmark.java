@@ -0,0 +1,65 @@
+package umm3601.todos;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.SyntheticData;
+
+/**
+ * Measures `TodosDatabase.getTodo` for IDs that exist and IDs that don't.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class GetTodoBenchmark {
+
+  @Param({ "10000", "1000000", "10000000" })
+  int size;
+
+  private TodosDatabase database;
+
+  // IDs spread across the whole database, so lookups don't all hit the same
+  // part of the index
+  private String[] ids;
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    database = SyntheticData.todosDatabase(size);
+    Todos[] todos = database.listTodos(Map.of());
+    SplittableRandom random = new SplittableRandom(size);
+    ids = new String[1024];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = todos[random.nextInt(todos.length)]._id;
+    }
+  }
+
+  @Benchmark
+  public Todos getTodo() {
+    next = (next + 1) & (ids.length - 1);
+    return database.getTodo(ids[next]);
+  }
+
+  @Benchmark
+  public Todos getMissingTodo() {
+    return database.getTodo("not a real ID");
+  }
+}
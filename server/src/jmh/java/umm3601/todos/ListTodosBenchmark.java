@@ -0,0 +1,92 @@
+package umm3601.todos;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.SyntheticData;
+
+/**
+ * Measures `TodosDatabase.listTodos` for every combination of the query
+ * parameters, on generated data of different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class ListTodosBenchmark {
+
+  @Param({ "10000", "1000000", "10000000" })
+  int size;
+
+  // The filters to use, separated by commas
+  @Param({
+    "none", "owner", "category", "status", "contains",
+    "owner,category", "owner,status", "owner,contains", "category,status", "category,contains", "status,contains",
+    "owner,category,status", "owner,category,contains", "owner,status,contains", "category,status,contains",
+    "owner,category,status,contains"
+  })
+  String filters;
+
+  @Param({ "none", "owner", "category", "body", "status" })
+  String orderBy;
+
+  @Param({ "none", "20" })
+  String limit;
+
+  private TodosDatabase database;
+  private Map<String, List<String>> queryParams;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    database = SyntheticData.todosDatabase(size);
+
+    queryParams = new HashMap<>();
+    for (String filter : filters.split(",")) {
+      switch (filter) {
+        case "owner":
+          queryParams.put("owner", List.of(SyntheticData.COMMON_OWNER));
+          break;
+        case "category":
+          queryParams.put("category", List.of(SyntheticData.COMMON_CATEGORY));
+          break;
+        case "status":
+          queryParams.put("status", List.of("complete"));
+          break;
+        case "contains":
+          queryParams.put("contains", List.of(SyntheticData.COMMON_WORD));
+          break;
+        default:
+          break;
+      }
+    }
+    if (!"none".equals(orderBy)) {
+      queryParams.put("orderBy", List.of(orderBy));
+    }
+    if (!"none".equals(limit)) {
+      queryParams.put("limit", List.of(limit));
+    }
+  }
+
+  @Benchmark
+  public Todos[] listTodos() {
+    return database.listTodos(queryParams);
+  }
+}
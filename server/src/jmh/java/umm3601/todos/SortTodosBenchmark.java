@@ -0,0 +1,53 @@
+package umm3601.todos;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.SyntheticData;
+
+/**
+ * Measures `TodosDatabase.sortTodos` on all of the todos, for each attribute
+ * it can sort by.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class SortTodosBenchmark {
+
+  @Param({ "10000", "1000000", "10000000" })
+  int size;
+
+  @Param({ "owner", "category", "body", "status" })
+  String attribute;
+
+  private TodosDatabase database;
+  private Todos[] todos;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    database = SyntheticData.todosDatabase(size);
+    todos = database.listTodos(Map.of());
+  }
+
+  @Benchmark
+  public Todos[] sortTodos() {
+    return database.sortTodos(todos, attribute);
+  }
+}
@@ -0,0 +1,74 @@
+package umm3601.user;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.SyntheticData;
+
+/**
+ * Measures `UserDatabase.listUsers` for every combination of the query
+ * parameters, on generated data of different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class ListUsersBenchmark {
+
+  @Param({ "10000", "1000000", "10000000" })
+  int size;
+
+  // The filters to use, separated by commas
+  @Param({ "none", "age", "company", "age,company" })
+  String filters;
+
+  @Param({ "none", "20" })
+  String limit;
+
+  private UserDatabase database;
+  private Map<String, List<String>> queryParams;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    database = UserDatabase.of(SyntheticData.users(size));
+
+    queryParams = new HashMap<>();
+    for (String filter : filters.split(",")) {
+      switch (filter) {
+        case "age":
+          queryParams.put("age", List.of("25"));
+          break;
+        case "company":
+          queryParams.put("company", List.of(SyntheticData.COMMON_COMPANY));
+          break;
+        default:
+          break;
+      }
+    }
+    if (!"none".equals(limit)) {
+      queryParams.put("limit", List.of(limit));
+    }
+  }
+
+  @Benchmark
+  public User[] listUsers() {
+    return database.listUsers(queryParams);
+  }
+}
@@ -0,0 +1,155 @@
+package umm3601.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * The results of a load test: throughput and latency percentiles for each kind
+ * of request, and how they compare with an earlier run.
+ * <p>
+ * The report is written as JSON, so it can be kept as a baseline and compared
+ * against by later runs (in CI, say). A result is a regression if its p50 or
+ * p99 latency is more than `tolerance` higher than the baseline's, or its
+ * throughput is more than `tolerance` lower. Throughput is only compared
+ * between closed workloads, since an open workload's throughput is just the
+ * rate it was asked for.
+ */
+public class LoadReport {
+
+  // The latency percentiles to report, and the names they are reported under
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+  private static final String[] PERCENTILE_NAMES = { "p50Ms", "p90Ms", "p99Ms", "p999Ms" };
+
+  // The results that are compared against the baseline, and whether higher
+  // values are worse
+  private static final String[] COMPARED = { "p50Ms", "p99Ms", "requestsPerSecond" };
+  private static final boolean[] HIGHER_IS_WORSE = { true, true, false };
+
+  private final Map<String, Object> workload;
+  private final Map<String, Object> report = new LinkedHashMap<>();
+  private final Map<String, Map<String, Object>> routes = new LinkedHashMap<>();
+  private final List<String> regressions = new ArrayList<>();
+  private long totalErrors = 0;
+
+  /**
+   * @param workload        describes the load the server was put under
+   * @param durationSeconds the total time spent measuring
+   */
+  public LoadReport(Map<String, Object> workload, double durationSeconds) {
+    this.workload = workload;
+    report.put("workload", workload);
+    report.put("durationSeconds", durationSeconds);
+    report.put("routes", routes);
+    report.put("regressions", regressions);
+  }
+
+  /**
+   * Add the results for one kind of request.
+   *
+   * @param kind           the kind of request
+   * @param latencies      the latencies of the successful requests, in
+   *                       microseconds
+   * @param elapsedSeconds how long the requests were sent for
+   * @param errors         the number of requests that failed
+   * @param rejected       the number of requests turned away with a 503
+   */
+  public void addRoute(String kind, Histogram latencies, double elapsedSeconds, long errors, long rejected) {
+    Map<String, Object> route = new LinkedHashMap<>();
+    route.put("requests", latencies.getTotalCount());
+    route.put("errors", errors);
+    route.put("rejected", rejected);
+    route.put("requestsPerSecond", round(latencies.getTotalCount() / elapsedSeconds));
+    route.put("meanMs", round(latencies.getMean() / 1000));
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      route.put(PERCENTILE_NAMES[i], round(latencies.getValueAtPercentile(PERCENTILES[i]) / 1000.0));
+    }
+    route.put("maxMs", round(latencies.getMaxValue() / 1000.0));
+    routes.put(kind, route);
+    totalErrors += errors;
+  }
+
+  /**
+   * Compare the results with a report from an earlier run, and note any that
+   * are worse by more than the tolerance.
+   *
+   * @param baselineFile the earlier report
+   * @param tolerance    how much worse is still OK, as a fraction
+   * @throws IOException if the baseline can't be read
+   */
+  public void compareTo(Path baselineFile, double tolerance) throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode baseline = mapper.readTree(baselineFile.toFile());
+    JsonNode baselineRoutes = baseline.get("routes");
+    report.put("baseline", baselineFile.toString());
+    report.put("tolerance", tolerance);
+    // Comparing different workloads is allowed (a longer run against a
+    // shorter baseline, say), but flag it in the report
+    report.put("sameWorkloadAsBaseline", mapper.valueToTree(workload).equals(baseline.get("workload")));
+    boolean compareThroughput = "closed".equals(workload.get("model"))
+      && "closed".equals(baseline.path("workload").path("model").asText());
+    for (Map.Entry<String, Map<String, Object>> route : routes.entrySet()) {
+      JsonNode baselineRoute = (baselineRoutes == null) ? null : baselineRoutes.get(route.getKey());
+      if (baselineRoute == null) {
+        continue;
+      }
+      for (int i = 0; i < COMPARED.length; i++) {
+        if (COMPARED[i].equals("requestsPerSecond") && !compareThroughput) {
+          continue;
+        }
+        double before = baselineRoute.path(COMPARED[i]).asDouble();
+        double after = ((Number) route.getValue().get(COMPARED[i])).doubleValue();
+        boolean worse = HIGHER_IS_WORSE[i] ? after > before * (1 + tolerance) : after < before * (1 - tolerance);
+        if (worse) {
+          regressions.add(route.getKey() + " " + COMPARED[i] + " went from " + before + " to " + after);
+        }
+      }
+    }
+  }
+
+  /**
+   * Check that no requests failed and nothing got worse than the baseline.
+   */
+  public boolean passed() {
+    return totalErrors == 0 && regressions.isEmpty();
+  }
+
+  public void write(Path file) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), report);
+  }
+
+  public void print(PrintStream out) {
+    out.printf("%-16s %10s %8s %9s %10s %9s %9s %9s %9s %9s%n",
+      "route", "requests", "errors", "rejected", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+    for (Map.Entry<String, Map<String, Object>> route : routes.entrySet()) {
+      Map<String, Object> results = route.getValue();
+      out.printf("%-16s %10s %8s %9s %10s %9s %9s %9s %9s %9s%n", route.getKey(),
+        results.get("requests"), results.get("errors"), results.get("rejected"), results.get("requestsPerSecond"),
+        results.get("p50Ms"), results.get("p90Ms"), results.get("p99Ms"), results.get("p999Ms"),
+        results.get("maxMs"));
+    }
+    for (String regression : regressions) {
+      out.println("REGRESSION: " + regression);
+    }
+    if (totalErrors > 0) {
+      out.println("FAILED: " + totalErrors + " requests failed");
+    }
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 1000) / 1000.0;
+  }
+}
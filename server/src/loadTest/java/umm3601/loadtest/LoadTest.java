@@ -0,0 +1,370 @@
+package umm3601.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.HdrHistogram.Recorder;
+
+import io.javalin.Javalin;
+import umm3601.PageCursor;
+import umm3601.RequestThreads;
+import umm3601.Server;
+
+/**
+ * Starts the server on a free port and sends it a mix of API requests,
+ * recording how long each kind of request takes.
+ * <p>
+ * There are two ways to generate the load:
+ * <ul>
+ * <li>Closed (the default): a fixed number of clients each send a request,
+ * wait for the response, and send the next one. This finds the most the server
+ * can handle.
+ * <li>Open (when a `rate` is given): requests are sent at a fixed rate however
+ * long the responses take, like independent users would. Latency is measured
+ * from when each request was due to be sent, so a server that falls behind
+ * isn't hidden by the load generator slowing down with it.
+ * </ul>
+ * <p>
+ * The options are system properties (see `build.gradle` for how to set them
+ * with `./gradlew loadTest`):
+ * <ul>
+ * <li>`loadTest.duration`: seconds to measure for (default 30)
+ * <li>`loadTest.warmup`: seconds to run first without measuring (default 10)
+ * <li>`loadTest.connections`: number of clients for a closed workload
+ * (default 16)
+ * <li>`loadTest.rate`: requests per second, for an open workload
+ * <li>`loadTest.mix`: how often to send each kind of request (default
+ * `todos=50,todo=25,users=25`)
+ * <li>`loadTest.report`: where to write the JSON report
+ * <li>`loadTest.baseline`: an earlier report to compare against
+ * <li>`loadTest.tolerance`: how much worse than the baseline is still OK, as
+ * a fraction (default 0.1)
+ * <li>`loadTest.modes`: the ways of running requests to test, separated by
+ * commas, like `default,bounded,virtual` (see `RequestThreads`). Each one
+ * gets its own server and its own run, and the results for each kind of
+ * request are reported as `mode/kind`. By default, only the mode set by
+ * `server.threads` is tested, and the results are reported as just `kind`.
+ * <li>`loadTest.todoIds`: how many todo IDs to fetch before the run, for the
+ * `todo` requests to pick from (default 10000)
+ * </ul>
+ * Requests turned away with a 503 by an overloaded server are counted
+ * separately from errors, since shedding load is what the bounded modes are
+ * meant to do. The process exits with status 1 if there were errors or the
+ * results are worse than the baseline.
+ */
+public class LoadTest {
+
+  // The queries used for the `todos` and `users` kinds of request. They only
+  // use values that are in the bundled data files.
+  private static final String[] TODOS_QUERIES = {
+    "",
+    "?owner=Blanche",
+    "?category=groceries",
+    "?status=complete",
+    "?contains=dolor",
+    "?owner=Fry&status=incomplete",
+    "?category=homework&contains=sit",
+    "?orderBy=owner",
+    "?orderBy=body&limit=20",
+    "?owner=Workman&orderBy=category&limit=10",
+    "?limit=50"
+  };
+
+  private static final String[] USERS_QUERIES = {
+    "",
+    "?age=25",
+    "?company=OHMNET",
+    "?age=27&company=OHMNET",
+    "?limit=20"
+  };
+
+  // The most todo IDs to ask for in one request while fetching them
+  private static final int ID_PAGE_SIZE = 1000;
+
+  private final HttpClient client = HttpClient.newBuilder()
+    .version(HttpClient.Version.HTTP_1_1)
+    .connectTimeout(Duration.ofSeconds(10))
+    .build();
+
+  private final String baseUrl;
+  private final String[] todoIds;
+  private final List<String> kinds = new ArrayList<>();
+  private final int[] cumulativeWeights;
+
+  // One recorder for each kind of request. Recorders can be written by many
+  // threads at once, and read without stopping the writers.
+  private final Map<String, Recorder> recorders = new LinkedHashMap<>();
+  private final Map<String, AtomicLong> errors = new LinkedHashMap<>();
+  private final Map<String, AtomicLong> rejected = new LinkedHashMap<>();
+
+  private LoadTest(String baseUrl, String[] todoIds, Map<String, Integer> mix) {
+    this.baseUrl = baseUrl;
+    this.todoIds = todoIds;
+    this.cumulativeWeights = new int[mix.size()];
+    int total = 0;
+    for (Map.Entry<String, Integer> kind : mix.entrySet()) {
+      total += kind.getValue();
+      cumulativeWeights[kinds.size()] = total;
+      kinds.add(kind.getKey());
+      recorders.put(kind.getKey(), new Recorder(3));
+      errors.put(kind.getKey(), new AtomicLong());
+      rejected.put(kind.getKey(), new AtomicLong());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int duration = Integer.getInteger("loadTest.duration", 30);
+    int warmup = Integer.getInteger("loadTest.warmup", 10);
+    int connections = Integer.getInteger("loadTest.connections", 16);
+    Integer rate = Integer.getInteger("loadTest.rate");
+    Map<String, Integer> mix = parseMix(System.getProperty("loadTest.mix", "todos=50,todo=25,users=25"));
+    Path reportFile = Paths.get(System.getProperty("loadTest.report", "build/reports/loadTest/report.json"));
+    String baselineFile = System.getProperty("loadTest.baseline");
+    double tolerance = Double.parseDouble(System.getProperty("loadTest.tolerance", "0.1"));
+    int todoIdCount = Integer.getInteger("loadTest.todoIds", 10_000);
+
+    String modesProperty = System.getProperty("loadTest.modes");
+    String[] modes = (modesProperty == null)
+      ? new String[] { System.getProperty(RequestThreads.MODE_PROPERTY, "default") }
+      : modesProperty.trim().split("\\s*,\\s*");
+
+    Map<String, Object> workload = new LinkedHashMap<>();
+    workload.put("model", (rate == null) ? "closed" : "open");
+    if (rate == null) {
+      workload.put("connections", connections);
+    } else {
+      workload.put("rate", rate);
+    }
+    workload.put("mix", mix);
+    workload.put("modes", Arrays.asList(modes));
+    workload.put("warmupSeconds", warmup);
+    workload.put("durationSeconds", duration);
+
+    LoadReport report = new LoadReport(workload, modes.length * duration);
+    for (String mode : modes) {
+      String prefix = (modesProperty == null) ? "" : mode + "/";
+      System.setProperty(RequestThreads.MODE_PROPERTY, mode);
+      Javalin server = Server.startServer(0);
+      try {
+        String baseUrl = "http://localhost:" + server.port();
+        LoadTest loadTest = new LoadTest(baseUrl, fetchTodoIds(baseUrl, todoIdCount), mix);
+
+        System.out.println("Warming up the " + mode + " server for " + warmup + " s");
+        loadTest.run(warmup, connections, rate);
+        loadTest.reset();
+        System.out.println("Measuring the " + mode + " server for " + duration + " s with " + workload);
+        long startTime = System.nanoTime();
+        loadTest.run(duration, connections, rate);
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        for (String kind : loadTest.kinds) {
+          report.addRoute(prefix + kind, loadTest.recorders.get(kind).getIntervalHistogram(),
+            elapsedSeconds, loadTest.errors.get(kind).get(), loadTest.rejected.get(kind).get());
+        }
+      } finally {
+        server.stop();
+      }
+    }
+
+    if (baselineFile != null) {
+      report.compareTo(Paths.get(baselineFile), tolerance);
+    }
+    report.write(reportFile);
+    report.print(System.out);
+    System.out.println("Report written to " + reportFile.toAbsolutePath());
+    boolean passed = report.passed();
+    System.exit(passed ? 0 : 1);
+  }
+
+  /**
+   * Parse a mix like `todos=50,todo=25,users=25` into the weight of each kind
+   * of request.
+   */
+  private static Map<String, Integer> parseMix(String mix) {
+    Map<String, Integer> weights = new LinkedHashMap<>();
+    for (String part : mix.split(",")) {
+      String[] kindAndWeight = part.trim().split("=");
+      String kind = kindAndWeight[0];
+      if (!kind.equals("todos") && !kind.equals("todo") && !kind.equals("users")) {
+        throw new IllegalArgumentException("Unknown kind of request '" + kind + "' in mix " + mix);
+      }
+      int weight = Integer.parseInt(kindAndWeight[1]);
+      if (weight > 0) {
+        weights.put(kind, weight);
+      }
+    }
+    if (weights.isEmpty()) {
+      throw new IllegalArgumentException("The mix " + mix + " has no requests in it");
+    }
+    return weights;
+  }
+
+  /**
+   * Get the IDs of up to `count` todos, so `todo` requests ask for ones that
+   * exist. They're fetched a page at a time with just the `_id` field,
+   * following the next page cursor, rather than reading every whole todo.
+   */
+  private static String[] fetchTodoIds(String baseUrl, int count) throws IOException, InterruptedException {
+    HttpClient client = HttpClient.newHttpClient();
+    ObjectMapper mapper = new ObjectMapper();
+    List<String> ids = new ArrayList<>();
+    String cursor = null;
+    while (ids.size() < count) {
+      String url = baseUrl + "/api/todos?fields=_id&limit=" + Math.min(ID_PAGE_SIZE, count - ids.size())
+        + ((cursor == null) ? "" : "&after=" + cursor);
+      HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url)).build(),
+        HttpResponse.BodyHandlers.ofString());
+      if (response.statusCode() != 200) {
+        throw new IOException("Fetching todo IDs from " + url + " failed with status " + response.statusCode());
+      }
+      for (JsonNode todo : mapper.readTree(response.body())) {
+        // A todo without an ID can't be asked for by one
+        JsonNode id = todo.get("_id");
+        if (id != null && id.isTextual()) {
+          ids.add(id.asText());
+        }
+      }
+      cursor = response.headers().firstValue(PageCursor.NEXT_CURSOR_HEADER).orElse(null);
+      if (cursor == null) {
+        break;
+      }
+    }
+    return ids.toArray(new String[0]);
+  }
+
+  /**
+   * Send requests for the given number of seconds, with a closed workload of
+   * `connections` clients, or an open one at `rate` requests per second if
+   * that isn't null.
+   */
+  private void run(int seconds, int connections, Integer rate) throws InterruptedException {
+    long endTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    if (rate == null) {
+      runClosed(endTime, connections);
+    } else {
+      runOpen(endTime, rate);
+    }
+  }
+
+  private void runClosed(long endTime, int connections) throws InterruptedException {
+    Thread[] clients = new Thread[connections];
+    for (int i = 0; i < connections; i++) {
+      SplittableRandom random = new SplittableRandom(i);
+      clients[i] = new Thread(() -> {
+        while (System.nanoTime() < endTime) {
+          String kind = pickKind(random);
+          HttpRequest request = buildRequest(kind, random);
+          long startTime = System.nanoTime();
+          try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            record(kind, startTime, response, null);
+          } catch (IOException e) {
+            record(kind, startTime, null, e);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }, "load-client-" + i);
+      clients[i].start();
+    }
+    for (Thread client : clients) {
+      client.join();
+    }
+  }
+
+  private void runOpen(long endTime, int rate) throws InterruptedException {
+    SplittableRandom random = new SplittableRandom(0);
+    long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+    AtomicLong outstanding = new AtomicLong();
+    long startTime = System.nanoTime();
+    for (long i = 0;; i++) {
+      long dueTime = startTime + i * interval;
+      if (dueTime >= endTime) {
+        break;
+      }
+      long wait = dueTime - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      String kind = pickKind(random);
+      outstanding.incrementAndGet();
+      client.sendAsync(buildRequest(kind, random), HttpResponse.BodyHandlers.discarding())
+        .whenComplete((response, error) -> {
+          record(kind, dueTime, response, error);
+          outstanding.decrementAndGet();
+        });
+    }
+    // Let the last requests finish, so they aren't counted in the next run
+    while (outstanding.get() > 0) {
+      Thread.sleep(10);
+    }
+  }
+
+  private String pickKind(SplittableRandom random) {
+    int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+    int kind = 0;
+    while (pick >= cumulativeWeights[kind]) {
+      kind++;
+    }
+    return kinds.get(kind);
+  }
+
+  private HttpRequest buildRequest(String kind, SplittableRandom random) {
+    String path;
+    switch (kind) {
+      case "todos":
+        path = "/api/todos" + TODOS_QUERIES[random.nextInt(TODOS_QUERIES.length)];
+        break;
+      case "todo":
+        path = "/api/todos/" + todoIds[random.nextInt(todoIds.length)];
+        break;
+      default:
+        path = "/api/users" + USERS_QUERIES[random.nextInt(USERS_QUERIES.length)];
+        break;
+    }
+    return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(30)).build();
+  }
+
+  /**
+   * Record the latency of a request in microseconds, or count it as rejected
+   * or an error if it wasn't answered.
+   */
+  private void record(String kind, long startTime, HttpResponse<?> response, Throwable error) {
+    if (error == null && response.statusCode() == 503) {
+      rejected.get(kind).incrementAndGet();
+    } else if (error != null || response.statusCode() >= 400) {
+      errors.get(kind).incrementAndGet();
+    } else {
+      recorders.get(kind).recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+    }
+  }
+
+  /**
+   * Throw away everything recorded so far.
+   */
+  private void reset() {
+    for (String kind : kinds) {
+      recorders.get(kind).reset();
+      errors.get(kind).set(0);
+      rejected.get(kind).set(0);
+    }
+  }
+}
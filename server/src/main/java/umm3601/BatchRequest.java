@@ -0,0 +1,46 @@
+package umm3601;
+
+import java.io.IOException;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.plugin.json.JavalinJackson;
+
+/**
+ * Reads the body of a batch lookup request: a JSON array of the ids to look
+ * up, like `["588935f5...", "58895985..."]`.
+ */
+public class BatchRequest {
+
+  /**
+   * The most ids one request can look up.
+   */
+  public static final int MAX_IDS = 1000;
+
+  private BatchRequest() {
+  }
+
+  /**
+   * Get the ids to look up.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the ids, in the order they were given (any of them may be null)
+   * @throws BadRequestResponse if the body isn't an array of ids, or has too
+   *                            many of them
+   */
+  public static String[] ids(Context ctx) {
+    String[] ids;
+    try {
+      ids = JavalinJackson.getObjectMapper().readValue(ctx.body(), String[].class);
+    } catch (IOException e) {
+      throw new BadRequestResponse("The request body must be a JSON array of ids");
+    }
+    if (ids == null) {
+      throw new BadRequestResponse("The request body must be a JSON array of ids");
+    }
+    if (ids.length > MAX_IDS) {
+      throw new BadRequestResponse("At most " + MAX_IDS + " ids can be looked up at once, not " + ids.length);
+    }
+    return ids;
+  }
+}
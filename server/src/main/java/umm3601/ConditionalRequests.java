@@ -0,0 +1,107 @@
+package umm3601;
+
+import io.javalin.http.Context;
+
+/**
+ * Support for clients that poll the same query over and over: each successful
+ * response gets an ETag, and a client that sends it back in `If-None-Match`
+ * gets an empty `304 Not Modified` instead of the same body again.
+ * <p>
+ * An ETag is made from the fingerprint of the data and the query's cache key,
+ * so it only changes when the data does, and it can be checked before running
+ * the query at all (once the query has been checked for mistakes, so a bad
+ * request never gets an ETag or a 304). The same result may be sent gzipped
+ * or not, so ETags are weak, and responses have `Vary: Accept-Encoding`.
+ */
+public class ConditionalRequests {
+
+  private ConditionalRequests() {
+  }
+
+  /**
+   * Make the ETag for a query.
+   *
+   * @param dataFingerprint the fingerprint of the data the query runs on
+   * @param queryKey        the query's key, from `ResultCache.key`
+   * @return the weak ETag, quoted as it goes in the header
+   */
+  public static String etag(long dataFingerprint, String queryKey) {
+    return "W/\"" + Long.toHexString(dataFingerprint) + "-" + Long.toHexString(Fingerprint.of(queryKey)) + "\"";
+  }
+
+  /**
+   * If the client already has this version of the response, answer with
+   * `304 Not Modified`. Only call this once the request is known to be valid.
+   *
+   * @param ctx  a Javalin HTTP context
+   * @param etag the response's ETag, from `etag`
+   * @return true if the response is a 304 and nothing more should be sent
+   */
+  public static boolean notModified(Context ctx, String etag) {
+    String ifNoneMatch = ctx.header("If-None-Match");
+    if (ifNoneMatch == null || !matches(ifNoneMatch, etag)) {
+      return false;
+    }
+    tag(ctx, etag);
+    ctx.status(304);
+    return true;
+  }
+
+  /**
+   * Give a successful response its ETag. Call this just before sending the
+   * body, so a request that fails along the way doesn't get one.
+   *
+   * @param ctx  a Javalin HTTP context
+   * @param etag the response's ETag, from `etag`
+   */
+  public static void tag(Context ctx, String etag) {
+    ctx.header("ETag", etag);
+    ctx.header("Vary", "Accept-Encoding");
+  }
+
+  /**
+   * Check whether an `If-None-Match` header lists the ETag. `If-None-Match`
+   * uses weak comparison, so a `W/` prefix is ignored on both.
+   */
+  static boolean matches(String ifNoneMatch, String etag) {
+    String opaqueTag = withoutWeakPrefix(etag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = withoutWeakPrefix(candidate.trim());
+      if (candidate.equals("*") || candidate.equals(opaqueTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String withoutWeakPrefix(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+
+  /**
+   * Check whether the client accepts gzipped responses.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return true if `Accept-Encoding` allows gzip
+   */
+  public static boolean acceptsGzip(Context ctx) {
+    String acceptEncoding = ctx.header("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase("gzip")) {
+        // `gzip;q=0` means anything but gzip
+        for (int i = 1; i < parts.length; i++) {
+          String parameter = parts[i].trim();
+          if (parameter.matches("[qQ]=0(\\.0{0,3})?")) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+}
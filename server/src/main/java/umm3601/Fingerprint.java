@@ -0,0 +1,51 @@
+package umm3601;
+
+/**
+ * A 64-bit hash of a sequence of values (FNV-1a), used to tell versions of
+ * the data apart.
+ * <p>
+ * Unlike `hashCode()`, the result is the same in every run of the server, so
+ * it can go in ETags that clients keep between restarts.
+ */
+public class Fingerprint {
+
+  private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long PRIME = 0x100000001b3L;
+
+  private long hash = OFFSET_BASIS;
+
+  public Fingerprint add(String value) {
+    if (value == null) {
+      return add(-1L);
+    }
+    add(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      hash = (hash ^ (c & 0xff)) * PRIME;
+      hash = (hash ^ (c >>> 8)) * PRIME;
+    }
+    return this;
+  }
+
+  public Fingerprint add(long value) {
+    for (int shift = 0; shift < 64; shift += 8) {
+      hash = (hash ^ ((value >>> shift) & 0xff)) * PRIME;
+    }
+    return this;
+  }
+
+  public Fingerprint add(boolean value) {
+    return add(value ? 1L : 0L);
+  }
+
+  public long value() {
+    return hash;
+  }
+
+  /**
+   * Get the fingerprint of a single string.
+   */
+  public static long of(String value) {
+    return new Fingerprint().add(value).value();
+  }
+}
@@ -0,0 +1,101 @@
+package umm3601;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Turns requests away with `503 Service Unavailable` when the server is
+ * already as busy as it should get, so that under a burst the requests it
+ * does take are answered promptly instead of all of them waiting longer and
+ * longer.
+ * <p>
+ * A request is turned away if too many are already being handled, or if too
+ * many are waiting for a thread (those are counted by the thread pool, since
+ * they haven't reached any handler yet). Rejecting a request is cheap, so
+ * while the server is overloaded it works through its backlog quickly.
+ * <p>
+ * `start` needs to be registered as a before handler, and `finish` needs to
+ * run from the request logger, which Javalin calls for every request,
+ * including ones a before handler threw an exception for.
+ */
+public class LoadShedder {
+
+  private static final String ADMITTED_ATTRIBUTE = "loadShedder.admitted";
+
+  // How long clients should wait before trying again, in seconds
+  private static final String RETRY_AFTER_SECONDS = "1";
+
+  private final int maxConcurrentRequests;
+  private final IntSupplier waitingRequests;
+  private final int maxWaitingRequests;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+
+  /**
+   * @param maxConcurrentRequests the most requests to handle at once
+   * @param waitingRequests       gets the number of requests waiting for a
+   *                              thread
+   * @param maxWaitingRequests    the most requests that can be waiting before
+   *                              new ones are turned away
+   */
+  public LoadShedder(int maxConcurrentRequests, IntSupplier waitingRequests, int maxWaitingRequests) {
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    this.waitingRequests = waitingRequests;
+    this.maxWaitingRequests = maxWaitingRequests;
+  }
+
+  /**
+   * Let a request through, or turn it away if the server is too busy.
+   * Register this as a before handler.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws ServiceUnavailableResponse if the request is turned away
+   */
+  public void start(Context ctx) {
+    int requests = inFlight.incrementAndGet();
+    ctx.attribute(ADMITTED_ATTRIBUTE, true);
+    if (requests > maxConcurrentRequests || waitingRequests.getAsInt() > maxWaitingRequests) {
+      rejected.increment();
+      ctx.header("Retry-After", RETRY_AFTER_SECONDS);
+      throw new ServiceUnavailableResponse("The server is too busy; try again shortly");
+    }
+  }
+
+  /**
+   * Note that a request is done. Call this from the request logger.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void finish(Context ctx) {
+    if (ctx.attribute(ADMITTED_ATTRIBUTE) != null) {
+      ctx.attribute(ADMITTED_ATTRIBUTE, null);
+      inFlight.decrementAndGet();
+    }
+  }
+
+  /**
+   * Get the most requests that are handled at once.
+   */
+  public int maxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  /**
+   * Get the number of requests being handled right now.
+   */
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Get the number of requests turned away so far.
+   */
+  public long rejected() {
+    return rejected.sum();
+  }
+}
@@ -0,0 +1,146 @@
+package umm3601;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * A position in a list of results, used for keyset ("cursor") pagination.
+ * <p>
+ * A cursor records the last item of a page: the attribute the results were
+ * ordered by, that item's row, and its `_id`. The next page is everything
+ * that comes after that item, so getting it doesn't require re-reading the
+ * earlier pages. The row says where the item is; the ID checks that the row
+ * still holds the same item (the data may have been reloaded since), and
+ * finds it again if it has moved. The item's other attributes aren't in the
+ * cursor, so it stays small enough for a header or URL however long they are.
+ * <p>
+ * Clients only ever see the cursor as an opaque token, from `encode()`, that
+ * they send back as the `after` query parameter.
+ */
+public class PageCursor {
+
+  /**
+   * The response header used to send the cursor for the next page.
+   */
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  // Marks a token whose fields are encoded as UTF-16 rather than UTF-8; a
+  // token in UTF-8 always starts with the length of its first field instead
+  private static final byte UTF_16_MARKER = (byte) 0xFE;
+
+  private final String orderBy;
+  private final int row;
+  private final String id;
+
+  /**
+   * Make a cursor for the item in the given row.
+   *
+   * @param orderBy the attribute the results are ordered by, or "" if they're
+   *                in the database's own order
+   * @param row     the row of the item, or -1 if it isn't known
+   * @param id      the `_id` of the item, or null if it has none
+   */
+  public PageCursor(String orderBy, int row, String id) {
+    this.orderBy = orderBy;
+    this.row = row;
+    this.id = id;
+  }
+
+  public String getOrderBy() {
+    return orderBy;
+  }
+
+  public int getRow() {
+    return row;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Turn this cursor into an opaque, URL-safe token.
+   *
+   * @return the token for this cursor
+   */
+  public String encode() {
+    // Length-prefix every field so that any characters can appear in any of
+    // them, with a length of -1 for null
+    String fields = field(orderBy) + field(Integer.toString(row)) + field(id);
+    byte[] bytes = fields.getBytes(StandardCharsets.UTF_8);
+    if (!new String(bytes, StandardCharsets.UTF_8).equals(fields)) {
+      // An ID with an unpaired surrogate has no UTF-8 encoding, so fall back
+      // to its UTF-16 `char`s, high byte first. (Java's UTF-16 charset would
+      // replace the surrogate too, so they're packed by hand.)
+      bytes = new byte[1 + 2 * fields.length()];
+      bytes[0] = UTF_16_MARKER;
+      for (int i = 0; i < fields.length(); i++) {
+        bytes[1 + 2 * i] = (byte) (fields.charAt(i) >>> 8);
+        bytes[2 + 2 * i] = (byte) fields.charAt(i);
+      }
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  /**
+   * Turn a token made by `encode()` back into a cursor.
+   *
+   * @param token the token sent by the client
+   * @return the cursor the token represents
+   * @throws BadRequestResponse if the token isn't a valid cursor
+   */
+  public static PageCursor decode(String token) {
+    try {
+      byte[] bytes = Base64.getUrlDecoder().decode(token);
+      String fields = (bytes.length > 0 && bytes[0] == UTF_16_MARKER)
+        ? utf16(bytes)
+        : new String(bytes, StandardCharsets.UTF_8);
+      int[] position = { 0 };
+      String orderBy = readField(fields, position);
+      String row = readField(fields, position);
+      String id = readField(fields, position);
+      if (orderBy == null || row == null || position[0] != fields.length()) {
+        throw new IllegalArgumentException("Extra characters after the cursor's fields");
+      }
+      return new PageCursor(orderBy, Integer.parseInt(row), id);
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      throw new BadRequestResponse("Specified cursor '" + token + "' is not valid");
+    }
+  }
+
+  /**
+   * Unpack the `char`s of a token written in UTF-16, after its marker.
+   */
+  private static String utf16(byte[] bytes) {
+    if (bytes.length % 2 != 1) {
+      throw new IllegalArgumentException("Odd number of bytes of UTF-16");
+    }
+    char[] chars = new char[bytes.length / 2];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char) (((bytes[1 + 2 * i] & 0xFF) << 8) | (bytes[2 + 2 * i] & 0xFF));
+    }
+    return new String(chars);
+  }
+
+  private static String field(String value) {
+    return (value == null) ? "-1:" : value.length() + ":" + value;
+  }
+
+  /**
+   * Read one length-prefixed field starting at `position[0]`, and move the
+   * position past it.
+   */
+  private static String readField(String fields, int[] position) {
+    int colon = fields.indexOf(':', position[0]);
+    int length = Integer.parseInt(fields.substring(position[0], colon));
+    int start = colon + 1;
+    if (length == -1) {
+      position[0] = start;
+      return null;
+    }
+    position[0] = start + length;
+    return fields.substring(start, start + length);
+  }
+}
@@ -0,0 +1,156 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.plugin.json.JavalinJackson;
+
+/**
+ * Writes just some of the fields of records as JSON, for requests with a
+ * `fields` query parameter like `fields=_id,owner,status`.
+ * <p>
+ * Records are written by row, straight from wherever a database keeps them
+ * (its "source"), rather than from objects made for the response. A
+ * projection is a list of writers, one per requested field, that each read
+ * their field from the source and write it to a Jackson generator, so there's
+ * no reflection when it's used and the fields that weren't requested are
+ * never read. Each distinct set of fields is only compiled into a projection
+ * once, by a `Schema`.
+ *
+ * @param <S> the type of source the records are read from
+ */
+public final class Projection<S> {
+
+  /**
+   * Writes one field of a record, name and value.
+   */
+  @FunctionalInterface
+  public interface FieldWriter<S> {
+    void write(JsonGenerator generator, S source, int row) throws IOException;
+  }
+
+  private final List<FieldWriter<S>> writers;
+
+  private Projection(List<FieldWriter<S>> writers) {
+    this.writers = writers;
+  }
+
+  /**
+   * Write a record's projected fields as a JSON object, or `null` for a row
+   * of -1.
+   *
+   * @param generator where to write the JSON
+   * @param source    where the records are kept
+   * @param row       the row of the record to write
+   * @throws IOException if writing fails
+   */
+  public void write(JsonGenerator generator, S source, int row) throws IOException {
+    if (row < 0) {
+      generator.writeNull();
+      return;
+    }
+    generator.writeStartObject();
+    for (FieldWriter<S> writer : writers) {
+      writer.write(generator, source, row);
+    }
+    generator.writeEndObject();
+  }
+
+  /**
+   * Write the records in some rows as a JSON array, one at a time. The stream
+   * is flushed but not closed.
+   *
+   * @param out    where to write the JSON
+   * @param source where the records are kept
+   * @param rows   the rows of the records to write, with -1 for `null`
+   * @throws IOException if writing to the stream fails
+   */
+  public void writeArray(OutputStream out, S source, int[] rows) throws IOException {
+    try (JsonGenerator generator = JavalinJackson.getObjectMapper().getFactory().createGenerator(out)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.writeStartArray();
+      for (int row : rows) {
+        write(generator, source, row);
+      }
+      generator.writeEndArray();
+    }
+    out.flush();
+  }
+
+  /**
+   * The fields that records from a type of source can be projected onto,
+   * and the projections compiled from them so far.
+   *
+   * @param <S> the type of source the records are read from
+   */
+  public static final class Schema<S> {
+
+    // In the order they're written, which is the order Jackson writes them
+    private final Map<String, FieldWriter<S>> fields = new LinkedHashMap<>();
+
+    // There are only so many subsets of the fields, so this stays small
+    private final Map<String, Projection<S>> compiled = new ConcurrentHashMap<>();
+
+    /**
+     * Add a field. Fields are written in the order they're added.
+     *
+     * @param name   the field's name
+     * @param writer writes the field
+     * @return this schema
+     */
+    public Schema<S> field(String name, FieldWriter<S> writer) {
+      fields.put(name, writer);
+      return this;
+    }
+
+    /**
+     * Get the projection for the `fields` query parameter of a request.
+     *
+     * @param queryParams map of key-value pairs for the query
+     * @return the projection, or null if the request wants every field
+     * @throws BadRequestResponse if a requested field doesn't exist
+     */
+    public Projection<S> fromQuery(Map<String, List<String>> queryParams) {
+      if (!queryParams.containsKey("fields")) {
+        return null;
+      }
+      List<String> requested = List.of(queryParams.get("fields").get(0).split(","));
+      for (String field : requested) {
+        if (!fields.containsKey(field)) {
+          throw new BadRequestResponse("Specified field '" + field + "' must be one of " + fields.keySet());
+        }
+      }
+      return compile(requested);
+    }
+
+    /**
+     * Get the projection onto every field, which writes whole records.
+     */
+    public Projection<S> all() {
+      return compile(fields.keySet());
+    }
+
+    private Projection<S> compile(Collection<String> requested) {
+      // Key the projection by the fields in schema order, so asking for the
+      // same fields in a different order uses the same projection
+      StringBuilder key = new StringBuilder();
+      List<FieldWriter<S>> writers = new ArrayList<>();
+      for (Map.Entry<String, FieldWriter<S>> field : fields.entrySet()) {
+        if (requested.contains(field.getKey())) {
+          key.append(field.getKey()).append(',');
+          writers.add(field.getValue());
+        }
+      }
+      return compiled.computeIfAbsent(key.toString(), k -> new Projection<>(List.copyOf(writers)));
+    }
+  }
+}
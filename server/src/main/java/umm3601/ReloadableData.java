@@ -0,0 +1,181 @@
+package umm3601;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Data loaded from a file that can be reloaded, without a restart, when the
+ * file changes.
+ * <p>
+ * The data is never changed in place: a reload builds a whole new copy in the
+ * background and then swaps it in with a single atomic update. So readers
+ * never wait, and a request that calls `get` once and uses what it got sees
+ * one consistent version, even if a reload happens partway through. If a
+ * reload fails (say the file is only half written), the old data stays in
+ * place.
+ *
+ * @param <T> the type of the loaded data, such as `TodosDatabase`
+ */
+public class ReloadableData<T> implements Supplier<T> {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReloadableData.class);
+
+  // How long to wait for a burst of changes to the file to finish before
+  // reloading it, so that one save doesn't cause several reloads.
+  private static final long QUIET_PERIOD_MILLIS = 200;
+
+  /**
+   * Loads the data from a file.
+   */
+  public interface Loader<T> {
+    T load(Path file) throws IOException;
+  }
+
+  // The data and its version, kept together so they always agree
+  private static class Version<T> {
+    final T data;
+    final long number;
+
+    Version(T data, long number) {
+      this.data = data;
+      this.number = number;
+    }
+  }
+
+  private final Path file;
+  private final Loader<T> loader;
+  private final AtomicReference<Version<T>> current;
+
+  /**
+   * Load the data from a file. Call `watch` to keep it up to date when the
+   * file changes.
+   *
+   * @param file   the file to load
+   * @param loader how to load the file
+   * @throws IOException if the file can't be loaded
+   */
+  public ReloadableData(Path file, Loader<T> loader) throws IOException {
+    this.file = file.toAbsolutePath();
+    this.loader = loader;
+    this.current = new AtomicReference<>(new Version<>(loader.load(this.file), 1));
+  }
+
+  /**
+   * Get the current version of the data. Callers should call this once per
+   * request and keep using the result, so everything in the request comes from
+   * the same version.
+   */
+  @Override
+  public T get() {
+    return current.get().data;
+  }
+
+  /**
+   * Get the current version number, which goes up by one each time the data is
+   * reloaded.
+   */
+  public long version() {
+    return current.get().number;
+  }
+
+  /**
+   * Load the file again and swap in the new data.
+   *
+   * @return true if the data was reloaded, false if loading it failed and the
+   *         old data was kept
+   */
+  public boolean reload() {
+    long startTime = System.nanoTime();
+    T data;
+    try {
+      data = loader.load(file);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("Failed to reload {}; keeping the data from version {}", file, version(), e);
+      return false;
+    }
+    // Only this class's watcher thread (or a test) reloads, but use
+    // `updateAndGet` anyway so concurrent reloads can't lose a version number.
+    Version<T> published = current.updateAndGet(old -> new Version<>(data, old.number + 1));
+    LOGGER.info("Reloaded {} as version {} in {} ms",
+      file, published.number, (System.nanoTime() - startTime) / 1_000_000);
+    return true;
+  }
+
+  /**
+   * Start a background thread that reloads the data whenever the file is
+   * created or modified. The thread is a daemon, so it doesn't keep the server
+   * running, but it (and the watch service it waits on) lives until it's
+   * closed, so close it once the data is no longer needed.
+   *
+   * @return closes the watch service and waits for the thread to stop
+   * @throws IOException if the file's directory can't be watched
+   */
+  public Closeable watch() throws IOException {
+    WatchService watcher = FileSystems.getDefault().newWatchService();
+    file.getParent().register(watcher,
+      StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+    Thread thread = new Thread(() -> watchLoop(watcher), "reload-" + file.getFileName());
+    thread.setDaemon(true);
+    thread.start();
+    LOGGER.info("Watching {} for changes", file);
+
+    return () -> {
+      // Closing the watch service wakes the thread up, and it stops
+      watcher.close();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      LOGGER.info("Stopped watching {}", file);
+    };
+  }
+
+  private void watchLoop(WatchService watcher) {
+    try {
+      while (true) {
+        if (!isForFile(watcher.take())) {
+          continue;
+        }
+        // Wait for the changes to settle down before reloading
+        WatchKey more;
+        while ((more = watcher.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          isForFile(more);
+        }
+        reload();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Stop watching
+    }
+  }
+
+  /**
+   * Check whether a watch key has any events for our file, and reset it so it
+   * will get more events.
+   */
+  private boolean isForFile(WatchKey key) {
+    boolean forFile = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      // An overflow means events were lost, so the file might have changed
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+        forFile = true;
+      }
+    }
+    key.reset();
+    return forFile;
+  }
+}
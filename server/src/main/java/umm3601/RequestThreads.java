@@ -0,0 +1,223 @@
+package umm3601;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The threads Jetty runs requests on, chosen with the `server.threads` system
+ * property:
+ * <ul>
+ * <li>`default`: the server Javalin makes itself, with its own thread pool,
+ * which queues as many requests as arrive. Javalin's server is left as it is.
+ * <li>`bounded`: a pool of at most `server.maxThreads` threads (default 200)
+ * with room for `server.queueCapacity` waiting jobs (default 1024). Once
+ * `server.maxConcurrentRequests` are being handled (by default, as many as
+ * the pool has threads besides the ones Jetty keeps for itself), or more than
+ * `server.maxWaitingRequests` (default 256) are waiting, new requests get a
+ * 503.
+ * <li>`virtual`: a new virtual thread for every job, on a JDK that has them
+ * (falling back to `bounded` on one that doesn't). Once
+ * `server.maxConcurrentRequests` (default 1000) are being handled, new
+ * requests get a 503.
+ * </ul>
+ */
+public class RequestThreads {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RequestThreads.class);
+
+  public static final String MODE_PROPERTY = "server.threads";
+  public static final String MAX_THREADS_PROPERTY = "server.maxThreads";
+  public static final String MIN_THREADS_PROPERTY = "server.minThreads";
+  public static final String QUEUE_CAPACITY_PROPERTY = "server.queueCapacity";
+  public static final String MAX_WAITING_PROPERTY = "server.maxWaitingRequests";
+  public static final String MAX_CONCURRENT_PROPERTY = "server.maxConcurrentRequests";
+
+  /**
+   * The ways of running requests.
+   */
+  public enum Mode {
+    DEFAULT, BOUNDED, VIRTUAL
+  }
+
+  private final Mode mode;
+  private final ThreadPool threadPool;
+  private final LoadShedder loadShedder;
+
+  private RequestThreads(Mode mode, ThreadPool threadPool, LoadShedder loadShedder) {
+    this.mode = mode;
+    this.threadPool = threadPool;
+    this.loadShedder = loadShedder;
+  }
+
+  /**
+   * Set up the threads as the system properties say.
+   *
+   * @return the request threads
+   * @throws IllegalArgumentException if `server.threads` isn't a mode
+   */
+  public static RequestThreads fromProperties() {
+    Mode mode = Mode.valueOf(System.getProperty(MODE_PROPERTY, "default").toUpperCase(Locale.ROOT));
+    int maxThreads = Integer.getInteger(MAX_THREADS_PROPERTY, 200);
+    int minThreads = Math.min(maxThreads, Integer.getInteger(MIN_THREADS_PROPERTY, 8));
+    int queueCapacity = Integer.getInteger(QUEUE_CAPACITY_PROPERTY, 1024);
+    int maxWaiting = Integer.getInteger(MAX_WAITING_PROPERTY, 256);
+    // The default depends on the mode
+    Integer maxConcurrent = Integer.getInteger(MAX_CONCURRENT_PROPERTY);
+
+    if (mode == Mode.VIRTUAL) {
+      ExecutorService virtualThreads = newVirtualThreadExecutor();
+      if (virtualThreads != null) {
+        return new RequestThreads(mode, new VirtualThreadPool(virtualThreads),
+          new LoadShedder((maxConcurrent == null) ? 1000 : maxConcurrent, () -> 0, Integer.MAX_VALUE));
+      }
+      LOGGER.warn("This JDK ({}) has no virtual threads; using a bounded thread pool instead",
+        System.getProperty("java.version"));
+      mode = Mode.BOUNDED;
+    }
+    if (mode == Mode.BOUNDED) {
+      // The queue starts small and grows up to its capacity; once it's full,
+      // Jetty closes new connections rather than queueing them
+      QueuedThreadPool pool = new QueuedThreadPool(maxThreads, minThreads, 60_000,
+        new BlockingArrayQueue<>(minThreads, minThreads, queueCapacity));
+      pool.setName("request");
+      int reservedThreads = reservedThreads(maxThreads);
+      pool.setReservedThreads(reservedThreads);
+      if (maxConcurrent == null) {
+        maxConcurrent = Math.max(1, maxThreads - jettyThreads(maxThreads, reservedThreads));
+      }
+      LOGGER.info("Handling at most {} requests at once on {} threads", maxConcurrent, maxThreads);
+      return new RequestThreads(mode, pool, new LoadShedder(maxConcurrent, pool::getQueueSize, maxWaiting));
+    }
+    return new RequestThreads(mode, null, null);
+  }
+
+  /**
+   * Get the number of threads a bounded pool keeps in reserve, to hand jobs
+   * to without waking a new thread. This is the number Jetty would pick, but
+   * setting it means it's known up front.
+   */
+  private static int reservedThreads(int maxThreads) {
+    return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), maxThreads / 8));
+  }
+
+  /**
+   * Estimate how many of a bounded pool's threads never run requests: the
+   * acceptor and selector threads of the connector Javalin adds (sized from
+   * the number of cores and threads the way Jetty sizes them by default), and
+   * the reserved threads. Requests queue in the pool once the rest are busy,
+   * so the concurrency limit has to leave these out.
+   *
+   * @param maxThreads      the size of the pool
+   * @param reservedThreads the number of threads the pool keeps in reserve
+   * @return the number of threads that don't run requests
+   */
+  static int jettyThreads(int maxThreads, int reservedThreads) {
+    int cores = Runtime.getRuntime().availableProcessors();
+    int acceptors = Math.max(1, Math.min(4, cores / 8));
+    int selectors = Math.max(1, Math.min(cores / 2, maxThreads / 16));
+    return acceptors + selectors + reservedThreads;
+  }
+
+  /**
+   * Make an executor that starts a virtual thread per task, or return null if
+   * this JDK doesn't have virtual threads. It's looked up by reflection so
+   * the server still builds and runs on older JDKs.
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  public Mode mode() {
+    return mode;
+  }
+
+  /**
+   * Check whether requests run on threads of our own, so Javalin needs to be
+   * given the server from `newServer`; in `DEFAULT` mode they don't, and
+   * Javalin should make its own server as usual.
+   */
+  public boolean hasOwnServer() {
+    return threadPool != null;
+  }
+
+  /**
+   * Make a Jetty server that runs requests on these threads.
+   *
+   * @throws IllegalStateException in `DEFAULT` mode, where Javalin's own
+   *                               server should be used instead
+   */
+  public Server newServer() {
+    if (threadPool == null) {
+      throw new IllegalStateException("In " + mode + " mode, Javalin makes its own server");
+    }
+    return new Server(threadPool);
+  }
+
+  /**
+   * Get the load shedder that goes with these threads, or null if requests
+   * are never turned away.
+   */
+  public LoadShedder loadShedder() {
+    return loadShedder;
+  }
+
+  /**
+   * Runs each of Jetty's jobs on a new virtual thread. There's no limit on
+   * the number of threads, so the load shedder is what keeps the number of
+   * requests in check.
+   */
+  private static class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+    private final ExecutorService executor;
+
+    VirtualThreadPool(ExecutorService executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable job) {
+      executor.execute(job);
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    // Virtual threads aren't pooled, so there are never any idle ones, and
+    // the pool never runs low
+    @Override
+    public int getThreads() {
+      return 0;
+    }
+
+    @Override
+    public int getIdleThreads() {
+      return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+      return false;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+      executor.shutdown();
+      super.doStop();
+    }
+  }
+}
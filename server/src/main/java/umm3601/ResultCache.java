@@ -0,0 +1,223 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache of encoded JSON query results, so a repeated query can be answered
+ * without querying the database or serializing anything.
+ * <p>
+ * The cache is limited by the total size of the JSON it holds, and throws out
+ * the least recently used results first when it's full. Results are only good
+ * for the database they came from: as soon as a lookup or store mentions a
+ * different database (because the data was reloaded), everything in the cache
+ * is thrown out.
+ * <p>
+ * Results big enough to be worth compressing are also kept gzipped, so clients
+ * that accept gzip can be sent them without compressing them again each time.
+ */
+public class ResultCache {
+
+  /**
+   * Results smaller than this aren't gzipped. (It's the size Javalin starts
+   * compressing responses at.)
+   */
+  public static final int MIN_GZIP_BYTES = 1500;
+
+  /**
+   * A cached result.
+   */
+  public static class Entry {
+    private final byte[] json;
+    private final byte[] gzip;
+    private final String nextCursor;
+    private final int resultSize;
+
+    /**
+     * Make an entry, gzipping the JSON if it's at least `MIN_GZIP_BYTES`.
+     *
+     * @param json       the encoded JSON response
+     * @param nextCursor the cursor for the next page, or null if there isn't one
+     * @param resultSize the number of results in the response
+     */
+    public Entry(byte[] json, String nextCursor, int resultSize) {
+      this.json = json;
+      this.gzip = (json.length >= MIN_GZIP_BYTES) ? gzip(json) : null;
+      this.nextCursor = nextCursor;
+      this.resultSize = resultSize;
+    }
+
+    private static byte[] gzip(byte[] json) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4);
+      try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+        out.write(json);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to gzip a result", e);
+      }
+      return compressed.toByteArray();
+    }
+
+    public byte[] getJson() {
+      return json;
+    }
+
+    /**
+     * Get the gzipped JSON, or null if the JSON is too small to be worth
+     * compressing.
+     */
+    public byte[] getGzip() {
+      return gzip;
+    }
+
+    public String getNextCursor() {
+      return nextCursor;
+    }
+
+    public int getResultSize() {
+      return resultSize;
+    }
+
+    // Roughly how much memory the entry and its key take up
+    long weight(String key) {
+      return json.length + ((gzip == null) ? 0 : gzip.length) + 2L * key.length() + 2L * ((nextCursor == null) ? 0 : nextCursor.length()) + 96;
+    }
+  }
+
+  private final long maxBytes;
+
+  // The entries, from least to most recently used
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0;
+
+  // The database the entries came from
+  private Object database = null;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Make an empty cache.
+   *
+   * @param maxBytes the most JSON (in bytes) to keep
+   */
+  public ResultCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Make a cache key from a query. Queries with the same parameters in a
+   * different order get the same key, and since only the first value of each
+   * parameter is used, so do queries that differ only in later values.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the key
+   */
+  public static String key(Map<String, List<String>> queryParams) {
+    StringBuilder key = new StringBuilder();
+    for (Map.Entry<String, List<String>> param : new TreeMap<>(queryParams).entrySet()) {
+      String value = param.getValue().isEmpty() ? "" : param.getValue().get(0);
+      // Length prefixes keep keys unambiguous whatever the parameters contain
+      key.append(param.getKey().length()).append(':').append(param.getKey())
+        .append(value.length()).append(':').append(value);
+    }
+    return key.toString();
+  }
+
+  /**
+   * Get the largest result worth caching. Anything bigger than this would push
+   * too much else out of the cache.
+   */
+  public int maxEntryBytes() {
+    return (int) Math.min(Integer.MAX_VALUE, maxBytes / 8);
+  }
+
+  /**
+   * Look up a result.
+   *
+   * @param database the database the result has to come from
+   * @param key      the result's key, from `key`
+   * @return the cached result, or null if there isn't one
+   */
+  public synchronized Entry get(Object database, String key) {
+    useDatabase(database);
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return entry;
+  }
+
+  /**
+   * Store a result, throwing out the least recently used ones if there's no
+   * room for it.
+   *
+   * @param database the database the result came from
+   * @param key      the result's key, from `key`
+   * @param entry    the result
+   */
+  public synchronized void put(Object database, String key, Entry entry) {
+    if (entry.weight(key) > maxBytes) {
+      return;
+    }
+    useDatabase(database);
+    Entry old = entries.put(key, entry);
+    if (old != null) {
+      bytes -= old.weight(key);
+    }
+    bytes += entry.weight(key);
+
+    Iterator<Map.Entry<String, Entry>> oldest = entries.entrySet().iterator();
+    while (bytes > maxBytes) {
+      Map.Entry<String, Entry> evicted = oldest.next();
+      bytes -= evicted.getValue().weight(evicted.getKey());
+      oldest.remove();
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Throw everything out if the entries are from a different database.
+   */
+  private void useDatabase(Object newDatabase) {
+    if (newDatabase != database) {
+      entries.clear();
+      bytes = 0;
+      database = newDatabase;
+    }
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * Get the total size of the cached entries (including their gzipped
+   * copies), in bytes.
+   */
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,147 @@
+package umm3601;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * A growable list of row numbers that is reused from one query to the next,
+ * so that selecting rows doesn't allocate anything once the buffer is big
+ * enough; only the final array of results is new.
+ * <p>
+ * Buffers are kept in a small pool rather than one per thread: with virtual
+ * request threads (see `RequestThreads`) every request runs on a new thread,
+ * so a thread-local buffer would never be used twice. A query takes a buffer
+ * with `acquire` and gives it back with `close`, normally in a
+ * try-with-resources block; a buffer must not be used after it's closed.
+ */
+public final class RowBuffer implements AutoCloseable {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // A buffer that grew past this (for a query selecting millions of rows)
+  // goes back to the pool at its initial size, so the pool doesn't hold on to
+  // a few huge arrays between such queries
+  private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+  // Only about as many queries as there are cores can be selecting rows at
+  // once; buffers given back when the pool is full are left for the garbage
+  // collector
+  private static final BlockingQueue<RowBuffer> POOL =
+    new ArrayBlockingQueue<>(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+  private int[] rows = new int[INITIAL_CAPACITY];
+  private int size = 0;
+  private boolean inUse = false;
+
+  private RowBuffer() {
+  }
+
+  /**
+   * Get an empty buffer from the pool, or a new one if the pool is empty.
+   */
+  public static RowBuffer acquire() {
+    RowBuffer buffer = POOL.poll();
+    if (buffer == null) {
+      buffer = new RowBuffer();
+    }
+    buffer.size = 0;
+    buffer.inUse = true;
+    return buffer;
+  }
+
+  /**
+   * Give the buffer back to the pool.
+   */
+  @Override
+  public void close() {
+    if (!inUse) {
+      return;
+    }
+    inUse = false;
+    if (rows.length > MAX_RETAINED_CAPACITY) {
+      rows = new int[INITIAL_CAPACITY];
+    }
+    POOL.offer(this);
+  }
+
+  public void add(int row) {
+    if (size == rows.length) {
+      rows = Arrays.copyOf(rows, rows.length * 2);
+    }
+    rows[size++] = row;
+  }
+
+  public int get(int index) {
+    return rows[index];
+  }
+
+  /**
+   * Replace a row that has already been added. Along with `truncate`, this
+   * lets a caller filter the buffer in place.
+   */
+  public void set(int index, int row) {
+    rows[index] = row;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Drop all but the first `newSize` rows.
+   */
+  public void truncate(int newSize) {
+    size = Math.min(size, newSize);
+  }
+
+  public void sort() {
+    Arrays.sort(rows, 0, size);
+  }
+
+  /**
+   * Copy the rows into an array of their own.
+   *
+   * @return the rows, in order
+   */
+  public int[] toRows() {
+    return Arrays.copyOf(rows, size);
+  }
+
+  /**
+   * Turn the rows into an array of results.
+   *
+   * @param newArray makes the array of results, given its length
+   * @param result   gets the result for a row
+   * @return the results, in the order of the rows
+   */
+  public <T> T[] toArray(IntFunction<T[]> newArray, IntFunction<T> result) {
+    T[] results = newArray.apply(size);
+    for (int i = 0; i < size; i++) {
+      results[i] = result.apply(rows[i]);
+    }
+    return results;
+  }
+
+  /**
+   * Get the elements of an array that pass a test, allocating only the
+   * returned array.
+   *
+   * @param items    the array to filter
+   * @param keep     tests whether to keep an element
+   * @param newArray makes the returned array, given its length
+   * @return a new array of the elements that passed, in their original order
+   */
+  public static <T> T[] select(T[] items, Predicate<? super T> keep, IntFunction<T[]> newArray) {
+    try (RowBuffer kept = acquire()) {
+      for (int i = 0; i < items.length; i++) {
+        if (keep.test(items[i])) {
+          kept.add(i);
+        }
+      }
+      return kept.toArray(newArray, i -> items[i]);
+    }
+  }
+}
@@ -1,35 +1,133 @@
 package umm3601;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 
 import io.javalin.Javalin;
 import io.javalin.http.staticfiles.Location;
+import umm3601.metrics.RequestMetrics;
 import umm3601.user.UserDatabase;
 import umm3601.user.UserController;
+import umm3601.todos.ParallelScan;
 import umm3601.todos.TodosController;
 import umm3601.todos.TodosDatabase;
 
 
 public class Server {
 
+  public static final int PORT = 4567;
   public static final String CLIENT_DIRECTORY = "../client";
   public static final String USER_DATA_FILE = "/users.json";
   public static final String TODOS_DATA_FILE = "/todos.json";
+  // If this system property is set, the todos are opened from the snapshot
+  // file it names (see `TodosSnapshot`) instead of from `TODOS_DATA_FILE`.
+  public static final String TODOS_SNAPSHOT_PROPERTY = "todos.snapshot";
+  // If these system properties are set, the users (or todos) are loaded from
+  // the JSON file they name instead of from the classpath, and reloaded
+  // whenever that file changes. Only one of `todos.data` and `todos.snapshot`
+  // can be set.
+  public static final String USER_DATA_PROPERTY = "users.data";
+  public static final String TODOS_DATA_PROPERTY = "todos.data";
+  // The most JSON (in bytes) to cache for each of the users and todos query
+  // results, unless this system property gives another size. Zero turns the
+  // caches off.
+  public static final String RESULT_CACHE_PROPERTY = "resultCache.maxBytes";
+  public static final long DEFAULT_RESULT_CACHE_BYTES = 32L << 20;
+  // Todo queries that have to scan at least this many rows are split across
+  // a pool of this many threads (by default, half of the cores, so the scans
+  // leave some for the request threads). A parallelism of 0 or 1 keeps every
+  // scan on its request thread.
+  public static final String PARALLELISM_PROPERTY = "todos.parallelism";
+  public static final String PARALLEL_THRESHOLD_PROPERTY = "todos.parallelThreshold";
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 100_000;
+  public static final String METRICS_PATH = "/api/metrics";
   private static UserDatabase userDatabase;
   private static TodosDatabase todosDatabase;
 
   public static void main(String[] args) {
+    startServer(PORT);
+  }
+
+  /**
+   * Load the data, start the server and register all of the routes.
+   *
+   * @param port the port to listen on, or 0 to use any free port (which
+   *             `port()` on the returned server will then give)
+   * @return the running server
+   */
+  public static Javalin startServer(int port) {
 
     // Initialize dependencies
-    UserController userController = buildUserController();
-    TodosController todosController = buildTodosController();
+    long cacheBytes = Long.getLong(RESULT_CACHE_PROPERTY, DEFAULT_RESULT_CACHE_BYTES);
+    ResultCache userCache = (cacheBytes > 0) ? new ResultCache(cacheBytes) : null;
+    ResultCache todosCache = (cacheBytes > 0) ? new ResultCache(cacheBytes) : null;
+    // Watchers of the data files, which are closed when the server stops
+    List<Closeable> watchers = new ArrayList<>();
+    UserController userController = buildUserController(userCache, watchers);
+    TodosController todosController = buildTodosController(todosCache, watchers);
+    RequestMetrics metrics = new RequestMetrics();
+    int parallelism = Integer.getInteger(PARALLELISM_PROPERTY,
+      Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    ParallelScan parallelScan = (parallelism > 1)
+      ? new ParallelScan(parallelism, Integer.getInteger(PARALLEL_THRESHOLD_PROPERTY, DEFAULT_PARALLEL_THRESHOLD))
+      : ParallelScan.SEQUENTIAL;
+    TodosDatabase.setParallelScan(parallelScan);
+    // The threads requests run on, and what turns requests away when there
+    // are too many (see `RequestThreads` for the options)
+    RequestThreads requestThreads = RequestThreads.fromProperties();
+    LoadShedder loadShedder = requestThreads.loadShedder();
+    if (cacheBytes > 0) {
+      metrics.addCache("users", userCache);
+      metrics.addCache("todos", todosCache);
+    }
+    if (loadShedder != null) {
+      metrics.setLoadShedder(loadShedder);
+    }
 
     Javalin server = Javalin.create(config -> {
       // This tells the server where to look for static files,
       // like HTML and JavaScript.
       config.addStaticFiles(CLIENT_DIRECTORY, Location.EXTERNAL);
-      // The next line starts the server listening on port 4567.
-    }).start(4567);
+      if (requestThreads.hasOwnServer()) {
+        config.server(requestThreads::newServer);
+      }
+      // Record metrics for each request once its response has been sent
+      config.requestLogger((ctx, executionTimeMs) -> {
+        if (loadShedder != null) {
+          loadShedder.finish(ctx);
+        }
+        metrics.finish(ctx, executionTimeMs);
+      });
+      // The next line starts the server listening on the port.
+    }).events(events -> events.serverStopped(() -> {
+      TodosDatabase.setParallelScan(ParallelScan.SEQUENTIAL);
+      parallelScan.shutdown();
+      for (Closeable watcher : watchers) {
+        try {
+          watcher.close();
+        } catch (IOException e) {
+          System.err.println("The server failed to stop watching a data file.");
+          e.printStackTrace(System.err);
+        }
+      }
+    })).start(port);
+
+    // Note when each request starts, for the metrics
+    server.before(metrics::start);
+
+    // Turn requests away if the server is overloaded, except for the
+    // metrics, which are most useful exactly then
+    if (loadShedder != null) {
+      server.before(ctx -> {
+        if (!ctx.path().equals(METRICS_PATH)) {
+          loadShedder.start(ctx);
+        }
+      });
+    }
 
     // Simple example route
     server.get("/hello", ctx -> ctx.result("Hello World"));
@@ -40,33 +138,60 @@ public class Server {
 
     // API endpoints
 
+    // Request metrics, in the Prometheus text format
+    server.get(METRICS_PATH, metrics::getMetrics);
+
     // Get specific user
     server.get("/api/users/:id", ctx -> userController.getUser(ctx));
 
     // List users, filtered using query parameters
     server.get("/api/users", ctx -> userController.getUsers(ctx));
 
+    // Get many users at once, by the ids in the request body
+    server.post("/api/users/_batch", ctx -> userController.getUsersBatch(ctx));
+
+    // Count todos by owner, category and/or status (this has to come before
+    // `/api/todos/:id`, which would otherwise take `_facets` as an id)
+    server.get("/api/todos/_facets", ctx -> todosController.getTodoFacets(ctx));
+
     // Get specific todo
     server.get("/api/todos/:id", ctx -> todosController.getTodo(ctx));
 
     // List todos, filtered using query parameters
     server.get("/api/todos", ctx -> todosController.getTodos(ctx));
+
+    // Get many todos at once, by the ids in the request body
+    server.post("/api/todos/_batch", ctx -> todosController.getTodosBatch(ctx));
+
+    return server;
   }
 
   /***
-   * Create a database using the json file, use it as data source for a new
-   * UserController
+   * Create a database using the json file (or the external file named by the
+   * `users.data` system property, which is reloaded when it changes), use it
+   * as data source for a new UserController that caches results in `cache`.
+   * The file's watcher, if any, is added to `watchers`.
    *
    * Constructing the controller might throw an IOException if there are problems
    * reading from the JSON "database" file. If that happens we'll print out an
    * error message exit the program.
    */
-  private static UserController buildUserController() {
+  private static UserController buildUserController(ResultCache cache, List<Closeable> watchers) {
     UserController userController = null;
 
     try {
-      userDatabase = new UserDatabase(USER_DATA_FILE);
-      userController = new UserController(userDatabase);
+      String dataFile = System.getProperty(USER_DATA_PROPERTY);
+      Supplier<UserDatabase> database;
+      if (dataFile != null) {
+        ReloadableData<UserDatabase> reloadableDatabase =
+          new ReloadableData<>(Paths.get(dataFile), UserDatabase::loadFile);
+        watchers.add(reloadableDatabase.watch());
+        database = reloadableDatabase;
+      } else {
+        userDatabase = new UserDatabase(USER_DATA_FILE);
+        database = () -> userDatabase;
+      }
+      userController = new UserController(database, cache);
     } catch (IOException e) {
       System.err.println("The server failed to load the user data; shutting down.");
       e.printStackTrace(System.err);
@@ -80,19 +205,46 @@ public class Server {
 
 
   /***
-   * Create a database using the json file, use it as data source for a new
-   * TodosController
+   * Create a database using the json file (or the external file named by the
+   * `todos.data` system property, which is reloaded when it changes, or a
+   * snapshot if the `todos.snapshot` property is set), use it as data source
+   * for a new TodosController that caches results in `cache`. The file's
+   * watcher, if any, is added to `watchers`.
+   *
+   * If both of those properties are set, it's not clear which data is wanted,
+   * so we print out an error message and exit the program.
    *
    * Constructing the controller might throw an IOException if there are problems
    * reading from the JSON "database" file. If that happens we'll print out an
    * error message exit the program.
    */
-  private static TodosController buildTodosController() {
+  private static TodosController buildTodosController(ResultCache cache, List<Closeable> watchers) {
     TodosController todosController = null;
 
     try {
-      todosDatabase = new TodosDatabase(TODOS_DATA_FILE);
-      todosController = new TodosController(todosDatabase);
+      String dataFile = System.getProperty(TODOS_DATA_PROPERTY);
+      String snapshotFile = System.getProperty(TODOS_SNAPSHOT_PROPERTY);
+      if (dataFile != null && snapshotFile != null) {
+        // Rather than quietly serving the data from just one of them
+        System.err.println("Both " + TODOS_DATA_PROPERTY + " and " + TODOS_SNAPSHOT_PROPERTY
+          + " are set, but the todos can only come from one of them; shutting down.");
+        System.exit(1);
+      }
+      Supplier<TodosDatabase> database;
+      if (dataFile != null) {
+        ReloadableData<TodosDatabase> reloadableDatabase =
+          new ReloadableData<>(Paths.get(dataFile), TodosDatabase::loadFile);
+        watchers.add(reloadableDatabase.watch());
+        database = reloadableDatabase;
+      } else {
+        if (snapshotFile != null) {
+          todosDatabase = TodosDatabase.openSnapshot(Paths.get(snapshotFile));
+        } else {
+          todosDatabase = new TodosDatabase(TODOS_DATA_FILE);
+        }
+        database = () -> todosDatabase;
+      }
+      todosController = new TodosController(database, cache);
     } catch (IOException e) {
       System.err.println("The server failed to load the todos data; shutting down.");
       e.printStackTrace(System.err);
@@ -0,0 +1,260 @@
+package umm3601;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A binary file of named sections of primitive data, read through memory
+ * mapping.
+ * <p>
+ * Opening a snapshot only reads its table of contents and maps each section
+ * into memory; the operating system reads in the pages of a section the first
+ * time they're used. So opening a snapshot takes about the same time however
+ * big the data is, unlike parsing JSON.
+ * <p>
+ * The layout is: the magic bytes `SNAPSHOT`, a format version, the number of
+ * sections, then a table of contents with each section's name, offset and
+ * length, followed by the sections themselves. Everything is little-endian,
+ * and each section starts on an 8-byte boundary.
+ * <p>
+ * Each section is mapped as a single buffer, so it can hold at most
+ * `MAX_SECTION_BYTES`. The builder refuses to add a bigger section, rather
+ * than writing a snapshot that can't be opened.
+ */
+public class SnapshotFile {
+
+  private static final byte[] MAGIC = "SNAPSHOT".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 4;
+
+  /**
+   * The most bytes a section can have, since a `ByteBuffer` is indexed by
+   * an `int`.
+   */
+  public static final long MAX_SECTION_BYTES = Integer.MAX_VALUE;
+
+  private final Map<String, ByteBuffer> sections;
+
+  private SnapshotFile(Map<String, ByteBuffer> sections) {
+    this.sections = sections;
+  }
+
+  /**
+   * Open a snapshot file, mapping all of its sections into memory.
+   *
+   * @param file the snapshot to open
+   * @return the opened snapshot
+   * @throws IOException if the file can't be read or isn't a snapshot
+   */
+  public static SnapshotFile open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 1 << 16))
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+      byte[] magic = new byte[MAGIC.length];
+      header.get(magic);
+      if (!Arrays.equals(magic, MAGIC) || header.getInt() != VERSION) {
+        throw new IOException(file + " is not a version " + VERSION + " snapshot file");
+      }
+
+      int sectionCount = header.getInt();
+      Map<String, ByteBuffer> sections = new LinkedHashMap<>();
+      for (int i = 0; i < sectionCount; i++) {
+        byte[] name = new byte[header.getShort()];
+        header.get(name);
+        long offset = header.getLong();
+        long length = header.getLong();
+        if (length > MAX_SECTION_BYTES) {
+          throw new IOException(file + " has a section of " + length + " bytes, more than the "
+            + MAX_SECTION_BYTES + " that can be mapped at once");
+        }
+        // The mapping stays valid after the channel is closed
+        ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, offset, length)
+          .order(ByteOrder.LITTLE_ENDIAN);
+        sections.put(new String(name, StandardCharsets.UTF_8), section);
+      }
+      return new SnapshotFile(sections);
+    }
+  }
+
+  private ByteBuffer section(String name) throws IOException {
+    ByteBuffer section = sections.get(name);
+    if (section == null) {
+      throw new IOException("Snapshot has no section '" + name + "'");
+    }
+    return section.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public ByteBuffer bytes(String name) throws IOException {
+    return section(name);
+  }
+
+  public IntBuffer ints(String name) throws IOException {
+    return section(name).asIntBuffer();
+  }
+
+  public LongBuffer longs(String name) throws IOException {
+    return section(name).asLongBuffer();
+  }
+
+  /**
+   * Read a section written with `Builder.putStrings`. Unlike the other
+   * sections, this is decoded right away, so it should only be used for
+   * small things like dictionaries. Any of the strings may be null.
+   */
+  public String[] strings(String name) throws IOException {
+    ByteBuffer section = section(name);
+    String[] strings = new String[section.getInt()];
+    for (int i = 0; i < strings.length; i++) {
+      int length = section.getInt();
+      if (length < 0) {
+        continue;
+      }
+      byte[] bytes = new byte[length];
+      section.get(bytes);
+      strings[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return strings;
+  }
+
+  /**
+   * Collects sections and writes them out as a snapshot file.
+   */
+  public static class Builder {
+    private final Map<String, ByteBuffer> sections = new LinkedHashMap<>();
+
+    /**
+     * Get the number of bytes a section of `count` values of `valueBytes`
+     * bytes each takes up.
+     *
+     * @throws IllegalArgumentException if that's more than a section can hold
+     */
+    static int sectionBytes(String name, long count, int valueBytes) {
+      long bytes = count * valueBytes;
+      if (bytes > MAX_SECTION_BYTES) {
+        throw new IllegalArgumentException("Snapshot section '" + name + "' would be " + bytes
+          + " bytes, more than the " + MAX_SECTION_BYTES + " a section can hold");
+      }
+      return (int) bytes;
+    }
+
+    public Builder putBytes(String name, ByteBuffer bytes) {
+      sections.put(name, bytes.duplicate());
+      return this;
+    }
+
+    public Builder putInts(String name, IntBuffer ints) {
+      IntBuffer source = ints.duplicate();
+      source.rewind();
+      ByteBuffer bytes = ByteBuffer.allocate(sectionBytes(name, source.remaining(), Integer.BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+      bytes.asIntBuffer().put(source);
+      return putBytes(name, bytes);
+    }
+
+    public Builder putLongs(String name, LongBuffer longs) {
+      LongBuffer source = longs.duplicate();
+      source.rewind();
+      ByteBuffer bytes = ByteBuffer.allocate(sectionBytes(name, source.remaining(), Long.BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+      bytes.asLongBuffer().put(source);
+      return putBytes(name, bytes);
+    }
+
+    public Builder putStrings(String name, String[] strings) {
+      byte[][] encoded = new byte[strings.length][];
+      long length = Integer.BYTES;
+      for (int i = 0; i < strings.length; i++) {
+        encoded[i] = (strings[i] == null) ? null : strings[i].getBytes(StandardCharsets.UTF_8);
+        length += Integer.BYTES + ((encoded[i] == null) ? 0 : encoded[i].length);
+      }
+      ByteBuffer bytes = ByteBuffer.allocate(sectionBytes(name, length, 1)).order(ByteOrder.LITTLE_ENDIAN);
+      bytes.putInt(strings.length);
+      for (byte[] string : encoded) {
+        // A null string is written as a length of -1
+        if (string == null) {
+          bytes.putInt(-1);
+        } else {
+          bytes.putInt(string.length);
+          bytes.put(string);
+        }
+      }
+      bytes.flip();
+      return putBytes(name, bytes);
+    }
+
+    /**
+     * Write all of the sections to a snapshot file, replacing it if it exists.
+     * <p>
+     * The snapshot is written to a temporary file next to it and then moved
+     * into place, so a server that has the old snapshot memory mapped keeps
+     * reading the old file rather than having it truncated underneath it, and
+     * an interrupted write never leaves half a snapshot behind.
+     *
+     * @param file where to write the snapshot
+     * @throws IOException if the file can't be written
+     */
+    public void write(Path file) throws IOException {
+      // Work out the size of the table of contents so we know where the first
+      // section starts
+      int tocLength = MAGIC.length + 2 * Integer.BYTES;
+      for (String name : sections.keySet()) {
+        tocLength += Short.BYTES + name.getBytes(StandardCharsets.UTF_8).length + 2 * Long.BYTES;
+      }
+
+      ByteBuffer toc = ByteBuffer.allocate(tocLength).order(ByteOrder.LITTLE_ENDIAN);
+      toc.put(MAGIC);
+      toc.putInt(VERSION);
+      toc.putInt(sections.size());
+      long offset = align(tocLength);
+      for (Map.Entry<String, ByteBuffer> section : sections.entrySet()) {
+        byte[] name = section.getKey().getBytes(StandardCharsets.UTF_8);
+        toc.putShort((short) name.length);
+        toc.put(name);
+        toc.putLong(offset);
+        toc.putLong(section.getValue().limit());
+        offset = align(offset + section.getValue().limit());
+      }
+      toc.flip();
+
+      Path directory = file.toAbsolutePath().getParent();
+      Path partial = Files.createTempFile(directory, file.getFileName() + ".", ".partial");
+      try {
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+          writeFully(channel, toc, 0);
+          long position = align(tocLength);
+          for (ByteBuffer section : sections.values()) {
+            ByteBuffer data = section.duplicate();
+            data.rewind();
+            writeFully(channel, data, position);
+            position = align(position + section.limit());
+          }
+          channel.force(true);
+        }
+        Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(partial);
+      }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+      while (data.hasRemaining()) {
+        position += channel.write(data, position);
+      }
+    }
+
+    private static long align(long offset) {
+      return (offset + 7) & ~7L;
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package umm3601;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+import io.javalin.http.Context;
+import umm3601.metrics.RequestMetrics;
+
+/**
+ * Writes JSON array responses.
+ * <p>
+ * Handing Javalin a whole result means the whole response is held in memory
+ * before any of it is sent, which is fine for small results but not for huge
+ * ones. Large results are instead written one element at a time straight to
+ * the response's output stream, so the memory used doesn't grow with the size
+ * of the response.
+ */
+public class StreamingJson {
+
+  /**
+   * Results with at least this many elements are streamed; smaller ones are
+   * handed to Javalin as a whole, as usual.
+   */
+  public static final int STREAMING_THRESHOLD = 1000;
+
+  private static final int GZIP_BUFFER_BYTES = 8192;
+
+  /**
+   * Writes a whole JSON array to an output stream.
+   */
+  @FunctionalInterface
+  public interface ArrayWriter {
+    void write(OutputStream out) throws IOException;
+  }
+
+  private StreamingJson() {
+  }
+
+  /**
+   * Send a JSON array written by the given writer (such as one that writes
+   * records straight from a database) as the response for this request, and
+   * keep a copy of it if it's small enough.
+   * <p>
+   * A small array is written into a buffer that's handed to Javalin as the
+   * result, so it gets compressed like any other; a large one is streamed.
+   *
+   * @param ctx          a Javalin HTTP context
+   * @param resultSize   the number of elements in the array
+   * @param writer       writes the array
+   * @param captureLimit the most bytes of JSON to keep a copy of
+   * @return the JSON that was sent, or null if it was more than
+   *         `captureLimit` bytes
+   */
+  public static byte[] json(Context ctx, int resultSize, ArrayWriter writer, int captureLimit) {
+    if (resultSize < STREAMING_THRESHOLD) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try {
+        writer.write(out);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to encode the JSON response", e);
+      }
+      byte[] json = out.toByteArray();
+      send(ctx, json, resultSize);
+      return (json.length <= captureLimit) ? json : null;
+    }
+
+    ctx.attribute(RequestMetrics.RESULT_SIZE_ATTRIBUTE, resultSize);
+    return stream(ctx, writer, captureLimit);
+  }
+
+  /**
+   * Write a large array straight to the response's output stream, gzipping it
+   * on the way if the client accepts that. (Javalin only compresses results
+   * it's handed, not what's written to the output stream, so this has to do
+   * it itself.)
+   *
+   * @return the uncompressed JSON that was sent, or null if it was more than
+   *         `captureLimit` bytes
+   */
+  private static byte[] stream(Context ctx, ArrayWriter writer, int captureLimit) {
+    ctx.contentType("application/json");
+    ctx.header("Vary", "Accept-Encoding");
+    ResponseGzipStream gzip = null;
+    try {
+      OutputStream response = ctx.res.getOutputStream();
+      if (ConditionalRequests.acceptsGzip(ctx)) {
+        ctx.header("Content-Encoding", "gzip");
+        gzip = new ResponseGzipStream(response);
+      }
+      OutputStream body = (gzip == null) ? response : gzip;
+      CapturingOutputStream capture = (captureLimit > 0) ? new CapturingOutputStream(body, captureLimit) : null;
+      writer.write((capture == null) ? body : capture);
+      if (gzip != null) {
+        gzip.finish();
+        response.flush();
+      }
+      return (capture == null) ? null : capture.captured();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to write the JSON response", e);
+    } finally {
+      if (gzip != null) {
+        gzip.end();
+      }
+    }
+  }
+
+  /**
+   * Send JSON that has already been encoded, such as a cached result.
+   *
+   * @param ctx        a Javalin HTTP context
+   * @param json       the encoded JSON
+   * @param resultSize the number of elements in the JSON array
+   */
+  public static void send(Context ctx, byte[] json, int resultSize) {
+    ctx.attribute(RequestMetrics.RESULT_SIZE_ATTRIBUTE, resultSize);
+    ctx.contentType("application/json");
+    ctx.result(new ByteArrayInputStream(json));
+  }
+
+  /**
+   * Send a cached result, gzipped if it has been compressed and the client
+   * accepts gzip. (Javalin leaves responses that already have a
+   * `Content-Encoding` alone, so it isn't compressed twice.)
+   *
+   * @param ctx    a Javalin HTTP context
+   * @param cached the result to send
+   */
+  public static void send(Context ctx, ResultCache.Entry cached) {
+    if (cached.getGzip() != null) {
+      ctx.header("Vary", "Accept-Encoding");
+      if (ConditionalRequests.acceptsGzip(ctx)) {
+        ctx.header("Content-Encoding", "gzip");
+        send(ctx, cached.getGzip(), cached.getResultSize());
+        return;
+      }
+    }
+    send(ctx, cached.getJson(), cached.getResultSize());
+  }
+
+  /**
+   * Gzips a response body. It isn't closed, since that would close the
+   * response too (which is Jetty's to close), so `end` has to be called
+   * instead to free the deflater's native memory; otherwise that memory is
+   * only freed whenever the garbage collector gets to the deflater.
+   */
+  private static class ResponseGzipStream extends GZIPOutputStream {
+    ResponseGzipStream(OutputStream response) throws IOException {
+      super(response, GZIP_BUFFER_BYTES);
+    }
+
+    void end() {
+      def.end();
+    }
+  }
+
+  /**
+   * Passes everything through to another stream, and keeps a copy of it as
+   * long as there isn't too much.
+   */
+  private static class CapturingOutputStream extends FilterOutputStream {
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    private final int limit;
+
+    CapturingOutputStream(OutputStream out, int limit) {
+      super(out);
+      this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      keep(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      keep(b, off, len);
+    }
+
+    private void keep(byte[] b, int off, int len) {
+      if (copy != null && copy.size() + len <= limit) {
+        copy.write(b, off, len);
+      } else {
+        copy = null;
+      }
+    }
+
+    byte[] captured() {
+      return (copy == null) ? null : copy.toByteArray();
+    }
+  }
+}
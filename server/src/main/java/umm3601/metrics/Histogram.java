@@ -0,0 +1,77 @@
+package umm3601.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Prometheus style histogram: counts of the observed values that are at most
+ * each of a fixed list of bucket bounds, along with the count and sum of all of
+ * the values.
+ * <p>
+ * Recording only touches adders, so many request threads can record at once
+ * without waiting on each other.
+ */
+public class Histogram {
+
+  private final double[] bounds;
+  private final LongAdder[] counts;
+  private final LongAdder count = new LongAdder();
+  private final DoubleAdder sum = new DoubleAdder();
+
+  /**
+   * Make an empty histogram.
+   *
+   * @param bounds the upper bounds of the buckets, in increasing order (the
+   *               `+Inf` bucket is added automatically)
+   */
+  public Histogram(double... bounds) {
+    this.bounds = bounds.clone();
+    this.counts = new LongAdder[bounds.length];
+    for (int i = 0; i < bounds.length; i++) {
+      counts[i] = new LongAdder();
+    }
+  }
+
+  public void record(double value) {
+    // Only the first bucket the value fits in is counted here; the buckets
+    // are made cumulative when they're written out
+    for (int i = 0; i < bounds.length; i++) {
+      if (value <= bounds[i]) {
+        counts[i].increment();
+        break;
+      }
+    }
+    count.increment();
+    sum.add(value);
+  }
+
+  /**
+   * Write this histogram's samples in the Prometheus text format.
+   *
+   * @param out    where to write the samples
+   * @param name   the metric name
+   * @param labels the labels for the samples, already formatted (like
+   *               `route="/api/todos"`), or "" for none
+   */
+  public void writeTo(StringBuilder out, String name, String labels) {
+    String separator = labels.isEmpty() ? "" : ",";
+    long cumulative = 0;
+    for (int i = 0; i < bounds.length; i++) {
+      cumulative += counts[i].sum();
+      out.append(name).append("_bucket{").append(labels).append(separator)
+        .append("le=\"").append(formatBound(bounds[i])).append("\"} ").append(cumulative).append('\n');
+    }
+    // A value can be counted in its bucket before it's added to the total, so
+    // make sure the total is never less than the last bucket
+    long total = Math.max(cumulative, count.sum());
+    out.append(name).append("_bucket{").append(labels).append(separator)
+      .append("le=\"+Inf\"} ").append(total).append('\n');
+    String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+    out.append(name).append("_sum").append(braces).append(' ').append(sum.sum()).append('\n');
+    out.append(name).append("_count").append(braces).append(' ').append(total).append('\n');
+  }
+
+  private static String formatBound(double bound) {
+    return (bound == Math.rint(bound)) ? Long.toString((long) bound) : Double.toString(bound);
+  }
+}
@@ -0,0 +1,264 @@
+package umm3601.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.eclipse.jetty.server.Response;
+
+import io.javalin.http.Context;
+import umm3601.LoadShedder;
+import umm3601.ResultCache;
+
+/**
+ * Records metrics about every request, and serves them in the Prometheus text
+ * format.
+ * <p>
+ * Requests are grouped by method, route, the names (not the values) of their
+ * query parameters, and status, so that, say, `/api/todos?owner=...&status=...`
+ * requests are counted separately from `/api/todos?contains=...` ones. For each
+ * group this keeps the number of requests and histograms of their latency,
+ * result-set size, response body size and the memory allocated while handling
+ * them.
+ * <p>
+ * `start` needs to be registered as a before handler, and `finish` as the
+ * request logger. (The request logger runs after the response body has been
+ * written, unlike after handlers, so the timings include serialization.)
+ */
+public class RequestMetrics {
+
+  /**
+   * The context attribute holding the number of results in a response, which
+   * the code that sends results should set.
+   */
+  public static final String RESULT_SIZE_ATTRIBUTE = "metrics.resultSize";
+
+  private static final String START_TIME_ATTRIBUTE = "metrics.startTime";
+  private static final String START_THREAD_ATTRIBUTE = "metrics.startThread";
+  private static final String START_ALLOCATED_ATTRIBUTE = "metrics.startAllocated";
+
+  // Query parameter names come from clients, so cap the number of groups in
+  // case someone sends lots of made up ones; after that, new parameter shapes
+  // are all counted together.
+  private static final int MAX_GROUPS = 1000;
+  private static final String OTHER_PARAMS = "other";
+
+  private static final double[] LATENCY_BUCKETS_SECONDS = {
+    0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+  };
+  private static final double[] RESULT_SIZE_BUCKETS = { 0, 1, 10, 100, 1e3, 1e4, 1e5, 1e6, 1e7 };
+  private static final double[] BYTES_BUCKETS = { 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9 };
+
+  // The metrics for one group of requests
+  private static class Group {
+    final LongAdder requests = new LongAdder();
+    final Histogram latency = new Histogram(LATENCY_BUCKETS_SECONDS);
+    final Histogram resultSize = new Histogram(RESULT_SIZE_BUCKETS);
+    final Histogram responseBytes = new Histogram(BYTES_BUCKETS);
+    final Histogram allocatedBytes = new Histogram(BYTES_BUCKETS);
+  }
+
+  // Groups by their formatted labels
+  private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<>();
+
+  // Result caches to report on, by name
+  private final Map<String, ResultCache> caches = new ConcurrentHashMap<>();
+
+  // What turns requests away when the server is overloaded, if anything
+  private volatile LoadShedder loadShedder;
+
+  // Used to measure how much each request thread allocates, if the JVM can
+  private final com.sun.management.ThreadMXBean threads;
+
+  public RequestMetrics() {
+    java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    if (threadBean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+      threads = (com.sun.management.ThreadMXBean) threadBean;
+      threads.setThreadAllocatedMemoryEnabled(true);
+    } else {
+      threads = null;
+    }
+  }
+
+  /**
+   * Include a result cache's hits, misses, evictions and size in the metrics.
+   *
+   * @param name  the name to report the cache under
+   * @param cache the cache
+   */
+  public void addCache(String name, ResultCache cache) {
+    caches.put(name, cache);
+  }
+
+  /**
+   * Include the number of requests being handled and the number turned away
+   * by a load shedder in the metrics.
+   *
+   * @param loadShedder the load shedder
+   */
+  public void setLoadShedder(LoadShedder loadShedder) {
+    this.loadShedder = loadShedder;
+  }
+
+  /**
+   * Note when a request started. Register this as a before handler.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void start(Context ctx) {
+    ctx.attribute(START_TIME_ATTRIBUTE, System.nanoTime());
+    if (threads != null) {
+      long thread = Thread.currentThread().getId();
+      ctx.attribute(START_THREAD_ATTRIBUTE, thread);
+      ctx.attribute(START_ALLOCATED_ATTRIBUTE, threads.getThreadAllocatedBytes(thread));
+    }
+  }
+
+  /**
+   * Record the metrics for a finished request. Register this as the request
+   * logger.
+   *
+   * @param ctx             a Javalin HTTP context
+   * @param executionTimeMs Javalin's measure of the request time, which isn't
+   *                        used since `start` keeps a more precise one
+   */
+  public void finish(Context ctx, Float executionTimeMs) {
+    Long startTime = ctx.attribute(START_TIME_ATTRIBUTE);
+    if (startTime == null) {
+      return;
+    }
+    Group group = group(ctx);
+    group.requests.increment();
+    group.latency.record((System.nanoTime() - startTime) / 1e9);
+
+    Integer resultSize = ctx.attribute(RESULT_SIZE_ATTRIBUTE);
+    if (resultSize != null) {
+      group.resultSize.record(resultSize);
+    }
+    if (ctx.res instanceof Response) {
+      group.responseBytes.record(((Response) ctx.res).getHttpOutput().getWritten());
+    }
+    // Async requests can finish on another thread, whose allocations would
+    // mean nothing, so only count requests that stay on one thread
+    Long startThread = ctx.attribute(START_THREAD_ATTRIBUTE);
+    long thread = Thread.currentThread().getId();
+    if (startThread != null && startThread == thread) {
+      long startAllocated = ctx.attribute(START_ALLOCATED_ATTRIBUTE);
+      group.allocatedBytes.record(threads.getThreadAllocatedBytes(thread) - startAllocated);
+    }
+  }
+
+  private Group group(Context ctx) {
+    String route = ctx.matchedPath();
+    if (route == null || route.isEmpty()) {
+      route = "unmatched";
+    }
+    String params = String.join(",", new TreeSet<>(ctx.queryParamMap().keySet()));
+    String labels = labels(ctx.method(), route, params, ctx.status());
+    Group group = groups.get(labels);
+    if (group == null) {
+      if (groups.size() >= MAX_GROUPS) {
+        labels = labels(ctx.method(), route, OTHER_PARAMS, ctx.status());
+      }
+      group = groups.computeIfAbsent(labels, key -> new Group());
+    }
+    return group;
+  }
+
+  private static String labels(String method, String route, String params, int status) {
+    return "method=\"" + escape(method) + "\",route=\"" + escape(route)
+      + "\",params=\"" + escape(params) + "\",status=\"" + status + "\"";
+  }
+
+  /**
+   * Escape a label value for the Prometheus text format.
+   */
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * Get all of the metrics in the Prometheus text format.
+   *
+   * @return the metrics
+   */
+  public String scrape() {
+    StringBuilder out = new StringBuilder();
+
+    out.append("# HELP http_requests_total Requests handled.\n");
+    out.append("# TYPE http_requests_total counter\n");
+    for (Map.Entry<String, Group> group : groups.entrySet()) {
+      out.append("http_requests_total{").append(group.getKey()).append("} ")
+        .append(group.getValue().requests.sum()).append('\n');
+    }
+
+    writeHistograms(out, "http_request_duration_seconds",
+      "Time from the start of a request until its response was written.", group -> group.latency);
+    writeHistograms(out, "http_response_results",
+      "Number of results in a response, for requests that return a list.", group -> group.resultSize);
+    writeHistograms(out, "http_response_bytes",
+      "Size of a response body as sent, after any compression.", group -> group.responseBytes);
+    writeHistograms(out, "http_request_allocated_bytes",
+      "Memory allocated by the thread handling a request.", group -> group.allocatedBytes);
+
+    writeCacheMetrics(out, "result_cache_hits_total", "counter", "Queries answered from the cache.",
+      ResultCache::hits);
+    writeCacheMetrics(out, "result_cache_misses_total", "counter", "Queries not found in the cache.",
+      ResultCache::misses);
+    writeCacheMetrics(out, "result_cache_evictions_total", "counter", "Results thrown out to make room.",
+      ResultCache::evictions);
+    writeCacheMetrics(out, "result_cache_bytes", "gauge", "Size of the cached results.", ResultCache::bytes);
+    writeCacheMetrics(out, "result_cache_entries", "gauge", "Number of cached results.", ResultCache::size);
+
+    LoadShedder shedder = loadShedder;
+    if (shedder != null) {
+      writeMetric(out, "http_requests_in_flight", "gauge", "Requests being handled right now.", shedder.inFlight());
+      writeMetric(out, "http_requests_shed_total", "counter", "Requests turned away with a 503 because the"
+        + " server was overloaded.", shedder.rejected());
+    }
+    return out.toString();
+  }
+
+  private static void writeMetric(StringBuilder out, String name, String type, String help, long value) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    out.append(name).append(' ').append(value).append('\n');
+  }
+
+  private void writeHistograms(StringBuilder out, String name, String help, Function<Group, Histogram> histogram) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(" histogram\n");
+    for (Map.Entry<String, Group> group : groups.entrySet()) {
+      histogram.apply(group.getValue()).writeTo(out, name, group.getKey());
+    }
+  }
+
+  private void writeCacheMetrics(StringBuilder out, String name, String type, String help,
+      ToLongFunction<ResultCache> value) {
+    if (caches.isEmpty()) {
+      return;
+    }
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    for (Map.Entry<String, ResultCache> cache : caches.entrySet()) {
+      out.append(name).append("{cache=\"").append(escape(cache.getKey())).append("\"} ")
+        .append(value.applyAsLong(cache.getValue())).append('\n');
+    }
+  }
+
+  /**
+   * Serve the metrics in the Prometheus text format.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getMetrics(Context ctx) {
+    ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+    ctx.result(scrape());
+  }
+}
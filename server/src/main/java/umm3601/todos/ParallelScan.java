@@ -0,0 +1,147 @@
+package umm3601.todos;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Splits a scan over a large range of rows into fork-join tasks.
+ * <p>
+ * Each task scans its own part of the range, and the parts' matches are
+ * joined back together in order, so a parallel scan returns exactly what a
+ * sequential one would. Scans smaller than the threshold aren't worth
+ * splitting and stay on the request thread, as do scans with a small limit.
+ * <p>
+ * The tasks run in a pool of their own, rather than the common pool, so its
+ * size can be kept below the number of cores and leave room for the server's
+ * request threads.
+ */
+public class ParallelScan {
+
+  /**
+   * Never split scans.
+   */
+  public static final ParallelScan SEQUENTIAL = new ParallelScan();
+
+  private final ForkJoinPool pool;
+  private final int threshold;
+  private final int chunkSize;
+
+  private ParallelScan() {
+    this.pool = null;
+    this.threshold = Integer.MAX_VALUE;
+    this.chunkSize = Integer.MAX_VALUE;
+  }
+
+  /**
+   * Make a pool for scanning in parallel.
+   *
+   * @param parallelism the number of threads to scan with
+   * @param threshold   the smallest number of rows worth splitting up
+   */
+  public ParallelScan(int parallelism, int threshold) {
+    if (parallelism < 1 || threshold < 1) {
+      throw new IllegalArgumentException("The parallelism and threshold have to be positive");
+    }
+    this.pool = new ForkJoinPool(parallelism, pool -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("todos-scan-" + thread.getPoolIndex());
+      return thread;
+    }, null, false);
+    this.threshold = threshold;
+    // A few tasks per thread, so a thread that finishes early can take over
+    // some of another's work
+    this.chunkSize = Math.max(1024, threshold / (4 * parallelism));
+  }
+
+  /**
+   * Check whether a scan of this many rows, stopping after `limit` matches,
+   * should be split up. A limit smaller than one task's share of the rows is
+   * usually met early on, long before the tasks for the rest of the range
+   * would have anything to contribute, so such scans stay sequential.
+   */
+  boolean shouldSplit(int rowCount, int limit) {
+    return pool != null && rowCount >= threshold && limit >= chunkSize;
+  }
+
+  /**
+   * Find the matching rows in part of a sequence of rows, in parallel.
+   *
+   * @param first   the index in the sequence to start at
+   * @param end     the index in the sequence to stop before
+   * @param rowAt   gets the row at an index in the sequence
+   * @param matches checks whether a row matches
+   * @param limit   the most matches to return
+   * @return the first `limit` matching rows, in sequence order
+   */
+  int[] scan(int first, int end, IntUnaryOperator rowAt, IntPredicate matches, int limit) {
+    return pool.invoke(new ScanTask(first, end, rowAt, matches, limit));
+  }
+
+  /**
+   * Stop the pool's threads.
+   */
+  public void shutdown() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  private class ScanTask extends RecursiveTask<int[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final int first;
+    private final int end;
+    private final IntUnaryOperator rowAt;
+    private final IntPredicate matches;
+    private final int limit;
+
+    ScanTask(int first, int end, IntUnaryOperator rowAt, IntPredicate matches, int limit) {
+      this.first = first;
+      this.end = end;
+      this.rowAt = rowAt;
+      this.matches = matches;
+      this.limit = limit;
+    }
+
+    @Override
+    protected int[] compute() {
+      if (end - first <= chunkSize) {
+        int[] found = new int[Math.min(end - first, 64)];
+        int count = 0;
+        for (int i = first; i < end && count < limit; i++) {
+          int row = rowAt.applyAsInt(i);
+          if (matches.test(row)) {
+            if (count == found.length) {
+              found = Arrays.copyOf(found, Math.min(end - first, found.length * 2));
+            }
+            found[count++] = row;
+          }
+        }
+        return Arrays.copyOf(found, count);
+      }
+
+      int middle = (first + end) >>> 1;
+      ScanTask left = new ScanTask(first, middle, rowAt, matches, limit);
+      ScanTask right = new ScanTask(middle, end, rowAt, matches, limit);
+      right.fork();
+      int[] leftRows = left.compute();
+      if (leftRows.length >= limit) {
+        // The right half's matches would all be cut off anyway
+        right.cancel(false);
+        return leftRows;
+      }
+      int[] rightRows = right.join();
+
+      // The left half comes first; only as much of the right as still fits
+      // under the limit is kept
+      int rightCount = Math.min(rightRows.length, limit - leftRows.length);
+      int[] rows = Arrays.copyOf(leftRows, leftRows.length + rightCount);
+      System.arraycopy(rightRows, 0, rows, leftRows.length, rightCount);
+      return rows;
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package umm3601.todos;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+import umm3601.SnapshotFile;
+
+/**
+ * A numbered collection of posting lists: for each list, the sorted rows that
+ * belong to it.
+ * <p>
+ * All of the lists are stored back to back in one buffer of rows, with a
+ * second buffer saying where each list starts, so the whole collection is just
+ * two arrays (or two sections of a snapshot file).
+ */
+public class PostingLists {
+
+  /**
+   * The most rows all of the lists can hold between them, so that the rows
+   * fit in one snapshot section.
+   */
+  public static final int MAX_ROWS = (int) (SnapshotFile.MAX_SECTION_BYTES / Integer.BYTES);
+
+  private final IntBuffer offsets;
+  private final IntBuffer rows;
+
+  private PostingLists(IntBuffer offsets, IntBuffer rows) {
+    this.offsets = offsets;
+    this.rows = rows;
+  }
+
+  /**
+   * Build posting lists from a column of list numbers, such as dictionary
+   * codes, so that list `n` holds the rows whose value is `n`.
+   *
+   * @param listCount the number of lists
+   * @param rowCount  the number of rows in the column
+   * @param listOfRow gets the list number of a row
+   * @return the posting lists
+   */
+  public static PostingLists fromColumn(int listCount, int rowCount, IntUnaryOperator listOfRow) {
+    int[] offsets = new int[listCount + 1];
+    for (int row = 0; row < rowCount; row++) {
+      offsets[listOfRow.applyAsInt(row) + 1]++;
+    }
+    for (int list = 0; list < listCount; list++) {
+      offsets[list + 1] += offsets[list];
+    }
+
+    int[] next = Arrays.copyOf(offsets, listCount);
+    int[] rows = new int[rowCount];
+    for (int row = 0; row < rowCount; row++) {
+      rows[next[listOfRow.applyAsInt(row)]++] = row;
+    }
+    return new PostingLists(IntBuffer.wrap(offsets), IntBuffer.wrap(rows));
+  }
+
+  /**
+   * Build posting lists from lists of rows that are already sorted.
+   *
+   * @param lists the sorted rows of each list
+   * @return the posting lists
+   * @throws IllegalStateException if the lists have more rows in all than
+   *                               the offsets, or a snapshot section, can
+   *                               hold
+   */
+  public static PostingLists fromArrays(int[][] lists) {
+    long total = 0;
+    for (int[] list : lists) {
+      total += list.length;
+    }
+    if (total > MAX_ROWS) {
+      throw new IllegalStateException("Posting lists would hold " + total + " rows in all, more than the "
+        + MAX_ROWS + " a snapshot can store");
+    }
+    int[] offsets = new int[lists.length + 1];
+    for (int list = 0; list < lists.length; list++) {
+      offsets[list + 1] = offsets[list] + lists[list].length;
+    }
+    int[] rows = new int[offsets[lists.length]];
+    for (int list = 0; list < lists.length; list++) {
+      System.arraycopy(lists[list], 0, rows, offsets[list], lists[list].length);
+    }
+    return new PostingLists(IntBuffer.wrap(offsets), IntBuffer.wrap(rows));
+  }
+
+  /**
+   * Get the number of rows in a list.
+   */
+  public int size(int list) {
+    return offsets.get(list + 1) - offsets.get(list);
+  }
+
+  /**
+   * Intersect some of the lists, reading them where they are rather than
+   * copying them out.
+   *
+   * @param lists the numbers of the lists to intersect; there must be at
+   *              least one
+   * @return a sorted array of the rows that are in every one of the lists
+   */
+  public int[] intersect(int[] lists) {
+    // Intersecting the shortest lists first keeps the intermediate results
+    // small, so sort the lists by size, each packed with its number into a
+    // `long` so that a primitive sort will do
+    long[] bySize = new long[lists.length];
+    for (int i = 0; i < lists.length; i++) {
+      bySize[i] = ((long) size(lists[i]) << 32) | lists[i];
+    }
+    Arrays.sort(bySize);
+
+    int shortest = (int) bySize[0];
+    int[] result = new int[size(shortest)];
+    int start = offsets.get(shortest);
+    for (int i = 0; i < result.length; i++) {
+      result[i] = rows.get(start + i);
+    }
+    int count = result.length;
+    for (int i = 1; i < bySize.length && count > 0; i++) {
+      // The same list can come up more than once
+      if (bySize[i] != bySize[i - 1]) {
+        count = retain(result, count, (int) bySize[i]);
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Keep just the first `count` rows of `result` that are also in a list,
+   * moving them to the front.
+   *
+   * @return the number of rows kept
+   */
+  private int retain(int[] result, int count, int list) {
+    int kept = 0;
+    int i = 0;
+    int j = offsets.get(list);
+    int end = offsets.get(list + 1);
+    while (i < count && j < end) {
+      int row = rows.get(j);
+      if (result[i] < row) {
+        i++;
+      } else if (result[i] > row) {
+        j++;
+      } else {
+        result[kept++] = result[i];
+        i++;
+        j++;
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * Get the sorted rows of a list without copying them.
+   *
+   * @param list the number of the list
+   * @return a read-only view of the rows in that list
+   */
+  public IntBuffer view(int list) {
+    IntBuffer view = rows.asReadOnlyBuffer();
+    view.limit(offsets.get(list + 1)).position(offsets.get(list));
+    return view.slice();
+  }
+
+  /**
+   * Add these posting lists to a snapshot, as the sections `name.offsets` and
+   * `name.rows`.
+   */
+  public void writeTo(SnapshotFile.Builder snapshot, String name) {
+    snapshot.putInts(name + ".offsets", offsets);
+    snapshot.putInts(name + ".rows", rows);
+  }
+
+  /**
+   * Read posting lists added to a snapshot with `writeTo`.
+   */
+  public static PostingLists readFrom(SnapshotFile snapshot, String name) throws IOException {
+    return new PostingLists(snapshot.ints(name + ".offsets"), snapshot.ints(name + ".rows"));
+  }
+}
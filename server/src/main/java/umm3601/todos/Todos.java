@@ -1,5 +1,7 @@
 package umm3601.todos;
 
+import java.util.Objects;
+
 public class Todos {
 
   public String _id;
@@ -8,4 +10,27 @@ public class Todos {
   public String body;
   public String category;
 
+  // The database creates a new `Todos` each time one is returned, so two
+  // todos are equal when all their attributes are.
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof Todos)) {
+      return false;
+    }
+    Todos todo = (Todos) other;
+    return status == todo.status
+      && Objects.equals(_id, todo._id)
+      && Objects.equals(owner, todo.owner)
+      && Objects.equals(body, todo.body)
+      && Objects.equals(category, todo.category);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(_id, owner, status, body, category);
+  }
+
 }
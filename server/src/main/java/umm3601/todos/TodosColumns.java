@@ -0,0 +1,748 @@
+package umm3601.todos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import umm3601.SnapshotFile;
+
+/**
+ * A read-only, column-oriented store of todos.
+ * <p>
+ * Instead of an array of `Todos` objects, each attribute is kept in its own
+ * array, indexed by the todo's row:
+ * <ul>
+ * <li>owners and categories are replaced by small integer codes into a
+ * dictionary of the distinct values, since the same few values repeat over
+ * and over;</li>
+ * <li>statuses are packed 64 to a `long`;</li>
+ * <li>IDs and bodies are stored as UTF-8 bytes, one after the other, in a
+ * single `byte[]`, with an array of where each one starts.</li>
+ * </ul>
+ * Any attribute but the status can be missing (null) in the data. A missing
+ * owner or category gets a dictionary entry of its own, and a missing ID or
+ * body is stored as an empty slice with its bit set in a bitmap of nulls.
+ * An ID or body with an unpaired surrogate has no UTF-8 encoding, so it's
+ * stored as its UTF-16 `char`s instead, with its bit set in another bitmap,
+ * and comes back exactly as it went in.
+ * This takes a fraction of the memory of the objects, and lets filters run as
+ * simple loops over primitive arrays. `Todos` objects are only created, with
+ * `todo(row)`, for the todos that are actually returned.
+ * <p>
+ * The arrays are held as NIO buffers, so the columns can either be built in
+ * memory or read straight from a memory-mapped snapshot file.
+ */
+public class TodosColumns {
+
+  private static final Comparator<String> NULLS_FIRST = Comparator.nullsFirst(Comparator.naturalOrder());
+
+  private final int size;
+
+  private final ByteBuffer idBytes;
+  private final IntBuffer idOffsets;
+  private final LongBuffer idNulls;
+  private final LongBuffer idUtf16;
+
+  private final String[] owners;
+  private final IntBuffer ownerCodes;
+  private final Map<String, Integer> ownerCodeByName;
+  private final int[] ownerRanks;
+
+  private final String[] categories;
+  private final IntBuffer categoryCodes;
+  private final Map<String, Integer> categoryCodeByName;
+  private final int[] categoryRanks;
+
+  private final LongBuffer statusBits;
+
+  private final ByteBuffer bodyBytes;
+  private final IntBuffer bodyOffsets;
+  private final LongBuffer bodyNulls;
+  private final LongBuffer bodyUtf16;
+
+  // Open-addressing hash table from ID to row: each slot holds a row plus
+  // one, or zero if the slot is empty.
+  private final IntBuffer idTable;
+
+  private TodosColumns(ByteBuffer idBytes, IntBuffer idOffsets, LongBuffer idNulls, LongBuffer idUtf16,
+      String[] owners, IntBuffer ownerCodes, String[] categories, IntBuffer categoryCodes,
+      LongBuffer statusBits, ByteBuffer bodyBytes, IntBuffer bodyOffsets, LongBuffer bodyNulls,
+      LongBuffer bodyUtf16, IntBuffer idTable) {
+    this.size = idOffsets.limit() - 1;
+    this.idBytes = idBytes;
+    this.idOffsets = idOffsets;
+    this.idNulls = idNulls;
+    this.idUtf16 = idUtf16;
+    this.owners = owners;
+    this.ownerCodes = ownerCodes;
+    this.ownerCodeByName = codesByName(owners);
+    this.ownerRanks = ranks(owners);
+    this.categories = categories;
+    this.categoryCodes = categoryCodes;
+    this.categoryCodeByName = codesByName(categories);
+    this.categoryRanks = ranks(categories);
+    this.statusBits = statusBits;
+    this.bodyBytes = bodyBytes;
+    this.bodyOffsets = bodyOffsets;
+    this.bodyNulls = bodyNulls;
+    this.bodyUtf16 = bodyUtf16;
+    this.idTable = (idTable != null) ? idTable : buildIdTable();
+  }
+
+  private static Map<String, Integer> codesByName(String[] dictionary) {
+    Map<String, Integer> codes = new HashMap<>(dictionary.length * 2);
+    for (int code = 0; code < dictionary.length; code++) {
+      codes.put(dictionary[code], code);
+    }
+    return codes;
+  }
+
+  /**
+   * Get the position of each dictionary entry in sorted order, so that codes
+   * can be compared without comparing the strings. A missing (null) value
+   * comes first.
+   */
+  private static int[] ranks(String[] dictionary) {
+    Integer[] sortedCodes = new Integer[dictionary.length];
+    for (int code = 0; code < dictionary.length; code++) {
+      sortedCodes[code] = code;
+    }
+    Arrays.sort(sortedCodes, (code1, code2) -> NULLS_FIRST.compare(dictionary[code1], dictionary[code2]));
+    int[] ranks = new int[dictionary.length];
+    for (int rank = 0; rank < sortedCodes.length; rank++) {
+      ranks[sortedCodes[rank]] = rank;
+    }
+    return ranks;
+  }
+
+  private IntBuffer buildIdTable() {
+    int[] table = new int[Integer.highestOneBit(Math.max(size, 1) * 2) * 2];
+    for (int row = 0; row < size; row++) {
+      // A todo without an ID can't be looked up by one
+      if (isSet(idNulls, row)) {
+        continue;
+      }
+      byte[] id = idBytes(row);
+      boolean utf16 = isSet(idUtf16, row);
+      int slot = hash(id) & (table.length - 1);
+      while (table[slot] != 0 && !idEquals(table[slot] - 1, id, utf16)) {
+        slot = (slot + 1) & (table.length - 1);
+      }
+      // Keep the first todo for a duplicated ID
+      if (table[slot] == 0) {
+        table[slot] = row + 1;
+      }
+    }
+    return IntBuffer.wrap(table);
+  }
+
+  /**
+   * Add these columns to a snapshot, as sections whose names start with
+   * `name`.
+   */
+  public void writeTo(SnapshotFile.Builder snapshot, String name) {
+    snapshot.putBytes(name + ".idBytes", idBytes);
+    snapshot.putInts(name + ".idOffsets", idOffsets);
+    snapshot.putLongs(name + ".idNulls", idNulls);
+    snapshot.putLongs(name + ".idUtf16", idUtf16);
+    snapshot.putInts(name + ".idTable", idTable);
+    snapshot.putStrings(name + ".owners", owners);
+    snapshot.putInts(name + ".ownerCodes", ownerCodes);
+    snapshot.putStrings(name + ".categories", categories);
+    snapshot.putInts(name + ".categoryCodes", categoryCodes);
+    snapshot.putLongs(name + ".statusBits", statusBits);
+    snapshot.putBytes(name + ".bodyBytes", bodyBytes);
+    snapshot.putInts(name + ".bodyOffsets", bodyOffsets);
+    snapshot.putLongs(name + ".bodyNulls", bodyNulls);
+    snapshot.putLongs(name + ".bodyUtf16", bodyUtf16);
+  }
+
+  /**
+   * Read columns added to a snapshot with `writeTo`.
+   */
+  public static TodosColumns readFrom(SnapshotFile snapshot, String name) throws IOException {
+    return new TodosColumns(
+      snapshot.bytes(name + ".idBytes"),
+      snapshot.ints(name + ".idOffsets"),
+      snapshot.longs(name + ".idNulls"),
+      snapshot.longs(name + ".idUtf16"),
+      snapshot.strings(name + ".owners"),
+      snapshot.ints(name + ".ownerCodes"),
+      snapshot.strings(name + ".categories"),
+      snapshot.ints(name + ".categoryCodes"),
+      snapshot.longs(name + ".statusBits"),
+      snapshot.bytes(name + ".bodyBytes"),
+      snapshot.ints(name + ".bodyOffsets"),
+      snapshot.longs(name + ".bodyNulls"),
+      snapshot.longs(name + ".bodyUtf16"),
+      snapshot.ints(name + ".idTable"));
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the row of the todo with the given ID.
+   * <p>
+   * The ID is encoded the way it would have been stored, so it only matches an
+   * ID with exactly the same `char`s: two IDs that differ only in their
+   * unpaired surrogates are different IDs, even though they'd have the same
+   * (lossy) UTF-8 encoding.
+   *
+   * @param id the ID of the desired todo
+   * @return the row of that todo, or -1 if there is no todo with that ID
+   */
+  public int findRow(String id) {
+    boolean utf16 = !isWellFormed(id);
+    byte[] target = utf16 ? utf16Bytes(id) : id.getBytes(StandardCharsets.UTF_8);
+    int mask = idTable.limit() - 1;
+    int slot = hash(target) & mask;
+    while (idTable.get(slot) != 0) {
+      if (idEquals(idTable.get(slot) - 1, target, utf16)) {
+        return idTable.get(slot) - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  public String id(int row) {
+    return text(idBytes, idOffsets, idNulls, idUtf16, row);
+  }
+
+  /**
+   * Write a todo's ID as a JSON string, escaping its UTF-8 bytes as they are
+   * rather than decoding them.
+   */
+  public void writeId(JsonGenerator generator, int row) throws IOException {
+    writeText(generator, idBytes, idOffsets, idNulls, idUtf16, row);
+  }
+
+  public String owner(int row) {
+    return owners[ownerCodes.get(row)];
+  }
+
+  public int ownerCode(int row) {
+    return ownerCodes.get(row);
+  }
+
+  /**
+   * Get the dictionary code for an owner.
+   *
+   * @param owner the owner to look up
+   * @return the owner's code, or -1 if no todo has that owner
+   */
+  public int ownerCode(String owner) {
+    return ownerCodeByName.getOrDefault(owner, -1);
+  }
+
+  public int ownerCount() {
+    return owners.length;
+  }
+
+  /**
+   * Get the owner that has the given dictionary code.
+   */
+  public String ownerName(int code) {
+    return owners[code];
+  }
+
+  public String category(int row) {
+    return categories[categoryCodes.get(row)];
+  }
+
+  public int categoryCode(int row) {
+    return categoryCodes.get(row);
+  }
+
+  /**
+   * Get the dictionary code for a category.
+   *
+   * @param category the category to look up
+   * @return the category's code, or -1 if no todo has that category
+   */
+  public int categoryCode(String category) {
+    return categoryCodeByName.getOrDefault(category, -1);
+  }
+
+  public int categoryCount() {
+    return categories.length;
+  }
+
+  /**
+   * Get the category that has the given dictionary code.
+   */
+  public String categoryName(int code) {
+    return categories[code];
+  }
+
+  public boolean status(int row) {
+    return isSet(statusBits, row);
+  }
+
+  /**
+   * Count the todos that have the given status.
+   */
+  public int statusCount(boolean status) {
+    int complete = 0;
+    for (int i = 0; i < statusBits.limit(); i++) {
+      complete += Long.bitCount(statusBits.get(i));
+    }
+    return status ? complete : size - complete;
+  }
+
+  public String body(int row) {
+    return text(bodyBytes, bodyOffsets, bodyNulls, bodyUtf16, row);
+  }
+
+  /**
+   * Write a todo's body as a JSON string, escaping its UTF-8 bytes as they
+   * are rather than decoding them.
+   */
+  public void writeBody(JsonGenerator generator, int row) throws IOException {
+    writeText(generator, bodyBytes, bodyOffsets, bodyNulls, bodyUtf16, row);
+  }
+
+  /**
+   * Get the total length of all of the bodies, in the bytes they're stored
+   * as (UTF-8, for all but the bodies with unpaired surrogates).
+   */
+  public long bodyByteCount() {
+    return bodyOffsets.get(size) - bodyOffsets.get(0);
+  }
+
+  /**
+   * Check whether a todo's body contains the given text, giving the same
+   * answer as `body(row).contains(target)`. A todo without a body doesn't
+   * contain anything.
+   * <p>
+   * Because UTF-8 never encodes a character as part of another one, a
+   * well-formed target can be found in a body stored as UTF-8 by comparing
+   * bytes, without decoding the body. Only the rare bodies or targets with
+   * unpaired surrogates are compared as strings.
+   *
+   * @param row        the row of the todo to check
+   * @param target     the text to look for
+   * @param targetUtf8 the UTF-8 bytes of the text, or null if it isn't
+   *                   well-formed (see `isWellFormed`)
+   * @return true if the body contains the text
+   */
+  public boolean bodyContains(int row, String target, byte[] targetUtf8) {
+    if (isSet(bodyNulls, row)) {
+      return false;
+    }
+    if (targetUtf8 == null || isSet(bodyUtf16, row)) {
+      return body(row).contains(target);
+    }
+    int end = bodyOffsets.get(row + 1) - targetUtf8.length;
+    for (int start = bodyOffsets.get(row); start <= end; start++) {
+      int i = 0;
+      while (i < targetUtf8.length && bodyBytes.get(start + i) == targetUtf8[i]) {
+        i++;
+      }
+      if (i == targetUtf8.length) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check whether a string is well-formed UTF-16, with every surrogate in a
+   * pair, so that encoding it as UTF-8 doesn't lose anything.
+   */
+  public static boolean isWellFormed(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // The compare methods below compare two rows by one attribute, giving the
+  // same answer as `compareTo` on the attribute would (with a missing value
+  // first), but without creating any `Todos` or `String` objects.
+
+  public int compareIds(int row1, int row2) {
+    if (isSet(idUtf16, row1) || isSet(idUtf16, row2)) {
+      return NULLS_FIRST.compare(id(row1), id(row2));
+    }
+    return compareUtf16(idBytes, idOffsets, idNulls, row1, row2);
+  }
+
+  /**
+   * Get the position of the row's owner among all of the owners in sorted
+   * order, with a missing owner first.
+   */
+  public int ownerRank(int row) {
+    return ownerRanks[ownerCodes.get(row)];
+  }
+
+  /**
+   * Get the position of the row's category among all of the categories in
+   * sorted order, with a missing category first.
+   */
+  public int categoryRank(int row) {
+    return categoryRanks[categoryCodes.get(row)];
+  }
+
+  public int compareOwners(int row1, int row2) {
+    return Integer.compare(ownerRanks[ownerCodes.get(row1)], ownerRanks[ownerCodes.get(row2)]);
+  }
+
+  public int compareCategories(int row1, int row2) {
+    return Integer.compare(categoryRanks[categoryCodes.get(row1)], categoryRanks[categoryCodes.get(row2)]);
+  }
+
+  public int compareBodies(int row1, int row2) {
+    if (isSet(bodyUtf16, row1) || isSet(bodyUtf16, row2)) {
+      return NULLS_FIRST.compare(body(row1), body(row2));
+    }
+    return compareUtf16(bodyBytes, bodyOffsets, bodyNulls, row1, row2);
+  }
+
+  /**
+   * Compare two rows of a UTF-8 arena the way `String.compareTo` would compare
+   * the decoded strings.
+   * <p>
+   * Comparing UTF-8 bytes orders strings by code point, which is almost, but
+   * not quite, the same as `String.compareTo`'s order by UTF-16 `char`: the
+   * two disagree when a character above U+FFFF (two `char`s in UTF-16) is
+   * compared with one in U+E000 to U+FFFF. So the bytes are compared until the
+   * first difference, and then that character is compared by its UTF-16 form.
+   */
+  private static int compareUtf16(ByteBuffer arena, IntBuffer offsets, LongBuffer nulls, int row1, int row2) {
+    boolean null1 = isSet(nulls, row1);
+    boolean null2 = isSet(nulls, row2);
+    if (null1 || null2) {
+      return Boolean.compare(!null1, !null2);
+    }
+    int i = offsets.get(row1);
+    int end1 = offsets.get(row1 + 1);
+    int j = offsets.get(row2);
+    int end2 = offsets.get(row2 + 1);
+    while (i < end1 && j < end2) {
+      if (arena.get(i) != arena.get(j)) {
+        // Everything before this was the same, so both strings are at the
+        // same place within a character; back up to the start of it
+        while ((arena.get(i) & 0xC0) == 0x80) {
+          i--;
+          j--;
+        }
+        return Long.compare(utf16Key(arena, i), utf16Key(arena, j));
+      }
+      i++;
+      j++;
+    }
+    return Integer.compare(end1 - i, end2 - j);
+  }
+
+  /**
+   * Decode the character starting at `position`, and turn it into a number
+   * that orders the same way as its UTF-16 `char`s.
+   */
+  private static long utf16Key(ByteBuffer arena, int position) {
+    int lead = arena.get(position) & 0xFF;
+    int codePoint;
+    if (lead < 0x80) {
+      codePoint = lead;
+    } else if (lead < 0xE0) {
+      codePoint = ((lead & 0x1F) << 6) | (arena.get(position + 1) & 0x3F);
+    } else if (lead < 0xF0) {
+      codePoint = ((lead & 0x0F) << 12) | ((arena.get(position + 1) & 0x3F) << 6)
+        | (arena.get(position + 2) & 0x3F);
+    } else {
+      codePoint = ((lead & 0x07) << 18) | ((arena.get(position + 1) & 0x3F) << 12)
+        | ((arena.get(position + 2) & 0x3F) << 6) | (arena.get(position + 3) & 0x3F);
+    }
+    if (Character.isBmpCodePoint(codePoint)) {
+      return (long) codePoint << 16;
+    }
+    return ((long) Character.highSurrogate(codePoint) << 16) | Character.lowSurrogate(codePoint);
+  }
+
+  /**
+   * Create a `Todos` object for the todo in the given row.
+   *
+   * @param row the row of the todo
+   * @return a new `Todos` with that todo's attributes
+   */
+  public Todos todo(int row) {
+    Todos todo = new Todos();
+    todo._id = id(row);
+    todo.owner = owner(row);
+    todo.status = status(row);
+    todo.body = body(row);
+    todo.category = category(row);
+    return todo;
+  }
+
+  /**
+   * Get one row of an arena as a string, decoding it as UTF-16 if its bit is
+   * set in `utf16` and as UTF-8 otherwise, or null if its bit is set in
+   * `nulls`.
+   */
+  private static String text(ByteBuffer arena, IntBuffer offsets, LongBuffer nulls, LongBuffer utf16, int row) {
+    if (isSet(nulls, row)) {
+      return null;
+    }
+    byte[] bytes = slice(arena, offsets, row);
+    if (isSet(utf16, row)) {
+      char[] chars = new char[bytes.length / 2];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = (char) (((bytes[2 * i] & 0xFF) << 8) | (bytes[2 * i + 1] & 0xFF));
+      }
+      return new String(chars);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write one row of an arena as a JSON string, or `null` if its bit is set in
+   * `nulls`. A UTF-8 row in memory is written straight from the arena's
+   * array; one in a mapped snapshot has the row's bytes copied out first.
+   */
+  private static void writeText(JsonGenerator generator, ByteBuffer arena, IntBuffer offsets, LongBuffer nulls,
+      LongBuffer utf16, int row) throws IOException {
+    if (isSet(nulls, row)) {
+      generator.writeNull();
+      return;
+    }
+    if (isSet(utf16, row)) {
+      // Jackson escapes unpaired surrogates, as it would for a `Todos`
+      generator.writeString(text(arena, offsets, nulls, utf16, row));
+      return;
+    }
+    int start = offsets.get(row);
+    int length = offsets.get(row + 1) - start;
+    if (arena.hasArray()) {
+      generator.writeUTF8String(arena.array(), arena.arrayOffset() + start, length);
+    } else {
+      generator.writeUTF8String(slice(arena, offsets, row), 0, length);
+    }
+  }
+
+  /**
+   * Check a row's bit in a bitmap.
+   */
+  private static boolean isSet(LongBuffer bits, int row) {
+    return (bits.get(row >>> 6) & (1L << row)) != 0;
+  }
+
+  private byte[] idBytes(int row) {
+    return slice(idBytes, idOffsets, row);
+  }
+
+  /**
+   * Check whether the ID in a row is stored as the given bytes, in the given
+   * encoding (UTF-16 or UTF-8).
+   */
+  private boolean idEquals(int row, byte[] target, boolean utf16) {
+    if (isSet(idUtf16, row) != utf16) {
+      return false;
+    }
+    int start = idOffsets.get(row);
+    if (idOffsets.get(row + 1) - start != target.length) {
+      return false;
+    }
+    for (int i = 0; i < target.length; i++) {
+      if (idBytes.get(start + i) != target[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copy out the bytes of one row from an arena.
+   */
+  private static byte[] slice(ByteBuffer arena, IntBuffer offsets, int row) {
+    int start = offsets.get(row);
+    byte[] bytes = new byte[offsets.get(row + 1) - start];
+    ByteBuffer source = arena.duplicate();
+    source.position(start);
+    source.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Get a string's UTF-16 `char`s, high byte first, as they're stored in an
+   * arena.
+   */
+  private static byte[] utf16Bytes(String text) {
+    byte[] bytes = new byte[2 * text.length()];
+    for (int i = 0; i < text.length(); i++) {
+      bytes[2 * i] = (byte) (text.charAt(i) >>> 8);
+      bytes[2 * i + 1] = (byte) text.charAt(i);
+    }
+    return bytes;
+  }
+
+  private static int hash(byte[] bytes) {
+    int hash = Arrays.hashCode(bytes);
+    // Spread the bits, since the table only uses the low ones
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Builds a `TodosColumns` one todo at a time.
+   */
+  public static class Builder {
+    private int size = 0;
+
+    private final ByteArena ids = new ByteArena();
+    private int[] idOffsets = new int[16];
+    private long[] idNulls = new long[1];
+    private long[] idUtf16 = new long[1];
+
+    private final List<String> owners = new ArrayList<>();
+    private final Map<String, Integer> ownerCodeByName = new HashMap<>();
+    private int[] ownerCodes = new int[16];
+
+    private final List<String> categories = new ArrayList<>();
+    private final Map<String, Integer> categoryCodeByName = new HashMap<>();
+    private int[] categoryCodes = new int[16];
+
+    private long[] statusBits = new long[1];
+
+    private final ByteArena bodies = new ByteArena();
+    private int[] bodyOffsets = new int[16];
+    private long[] bodyNulls = new long[1];
+    private long[] bodyUtf16 = new long[1];
+
+    /**
+     * Add a todo as the next row.
+     *
+     * @param todo the todo to add
+     * @return this builder
+     */
+    public Builder add(Todos todo) {
+      if (size + 2 > idOffsets.length) {
+        int capacity = idOffsets.length * 2;
+        idOffsets = Arrays.copyOf(idOffsets, capacity);
+        ownerCodes = Arrays.copyOf(ownerCodes, capacity);
+        categoryCodes = Arrays.copyOf(categoryCodes, capacity);
+        bodyOffsets = Arrays.copyOf(bodyOffsets, capacity);
+        statusBits = Arrays.copyOf(statusBits, capacity / 64 + 1);
+        idNulls = Arrays.copyOf(idNulls, capacity / 64 + 1);
+        idUtf16 = Arrays.copyOf(idUtf16, capacity / 64 + 1);
+        bodyNulls = Arrays.copyOf(bodyNulls, capacity / 64 + 1);
+        bodyUtf16 = Arrays.copyOf(bodyUtf16, capacity / 64 + 1);
+      }
+
+      if (todo._id == null) {
+        idNulls[size >>> 6] |= 1L << size;
+      } else if (!isWellFormed(todo._id)) {
+        idUtf16[size >>> 6] |= 1L << size;
+        ids.appendUtf16(todo._id);
+      } else {
+        ids.append(todo._id);
+      }
+      idOffsets[size + 1] = ids.size();
+      ownerCodes[size] = code(todo.owner, owners, ownerCodeByName);
+      categoryCodes[size] = code(todo.category, categories, categoryCodeByName);
+      if (todo.status) {
+        statusBits[size >>> 6] |= 1L << size;
+      }
+      if (todo.body == null) {
+        bodyNulls[size >>> 6] |= 1L << size;
+      } else if (!isWellFormed(todo.body)) {
+        bodyUtf16[size >>> 6] |= 1L << size;
+        bodies.appendUtf16(todo.body);
+      } else {
+        bodies.append(todo.body);
+      }
+      bodyOffsets[size + 1] = bodies.size();
+      size++;
+      return this;
+    }
+
+    public TodosColumns build() {
+      return new TodosColumns(
+        ByteBuffer.wrap(ids.toArray()),
+        IntBuffer.wrap(Arrays.copyOf(idOffsets, size + 1)),
+        LongBuffer.wrap(Arrays.copyOf(idNulls, (size + 63) / 64)),
+        LongBuffer.wrap(Arrays.copyOf(idUtf16, (size + 63) / 64)),
+        owners.toArray(new String[0]),
+        IntBuffer.wrap(Arrays.copyOf(ownerCodes, size)),
+        categories.toArray(new String[0]),
+        IntBuffer.wrap(Arrays.copyOf(categoryCodes, size)),
+        LongBuffer.wrap(Arrays.copyOf(statusBits, (size + 63) / 64)),
+        ByteBuffer.wrap(bodies.toArray()),
+        IntBuffer.wrap(Arrays.copyOf(bodyOffsets, size + 1)),
+        LongBuffer.wrap(Arrays.copyOf(bodyNulls, (size + 63) / 64)),
+        LongBuffer.wrap(Arrays.copyOf(bodyUtf16, (size + 63) / 64)),
+        null);
+    }
+
+    private static int code(String value, List<String> dictionary, Map<String, Integer> codes) {
+      return codes.computeIfAbsent(value, k -> {
+        dictionary.add(k);
+        return dictionary.size() - 1;
+      });
+    }
+  }
+
+  /**
+   * A growable array of bytes that strings are appended to as UTF-8.
+   */
+  private static class ByteArena {
+    private byte[] bytes = new byte[1024];
+    private int size = 0;
+
+    void append(String text) {
+      byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+      ensureCapacity(encoded.length);
+      System.arraycopy(encoded, 0, bytes, size, encoded.length);
+      size += encoded.length;
+    }
+
+    /**
+     * Append a string as its UTF-16 `char`s, high byte first, which (unlike
+     * UTF-8) keeps any unpaired surrogates.
+     */
+    void appendUtf16(String text) {
+      byte[] encoded = utf16Bytes(text);
+      ensureCapacity(encoded.length);
+      System.arraycopy(encoded, 0, bytes, size, encoded.length);
+      size += encoded.length;
+    }
+
+    private void ensureCapacity(int extra) {
+      long needed = (long) size + extra;
+      if (needed > SnapshotFile.MAX_SECTION_BYTES - 8) {
+        // The offsets are `int`s, and the whole arena has to fit in one
+        // snapshot section (and one array)
+        throw new IllegalStateException("The todos' text would take up " + needed + " bytes, more than the "
+          + (SnapshotFile.MAX_SECTION_BYTES - 8) + " a column can hold");
+      }
+      if (needed > bytes.length) {
+        bytes = Arrays.copyOf(bytes,
+          (int) Math.min(SnapshotFile.MAX_SECTION_BYTES - 8, Math.max(bytes.length * 2L, needed)));
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    byte[] toArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+  }
+}
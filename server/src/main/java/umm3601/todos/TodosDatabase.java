@@ -1,16 +1,40 @@
 package umm3601.todos;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
 import java.util.Comparator;
-
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.javalin.http.BadRequestResponse;
+import umm3601.Fingerprint;
+import umm3601.PageCursor;
+import umm3601.Projection;
+import umm3601.RowBuffer;
+import umm3601.SnapshotFile;
 
 /**
  * A fake "database" of todos info
@@ -22,16 +46,323 @@ import io.javalin.http.BadRequestResponse;
  */
 public class TodosDatabase {
 
-  private Todos[] allTodos;
+  private static final Logger LOGGER = LoggerFactory.getLogger(TodosDatabase.class);
+
+  // How to split up scans of many rows; see `setParallelScan`
+  private static volatile ParallelScan parallelScan = ParallelScan.SEQUENTIAL;
+
+  /**
+   * The fields of a todo, each written straight from the columns, that a
+   * `fields` query parameter can pick from.
+   */
+  public static final Projection.Schema<TodosColumns> FIELDS = new Projection.Schema<TodosColumns>()
+    .field("_id", (json, todos, row) -> {
+      json.writeFieldName("_id");
+      todos.writeId(json, row);
+    })
+    .field("owner", (json, todos, row) -> json.writeStringField("owner", todos.owner(row)))
+    .field("status", (json, todos, row) -> json.writeBooleanField("status", todos.status(row)))
+    .field("body", (json, todos, row) -> {
+      json.writeFieldName("body");
+      todos.writeBody(json, row);
+    })
+    .field("category", (json, todos, row) -> json.writeStringField("category", todos.category(row)));
+
+  // A todo that's missing an attribute comes before the ones that have it
+  private static final Comparator<String> NULLS_FIRST = Comparator.nullsFirst(Comparator.naturalOrder());
+
+  // The orderings that todos can be sorted by. Todos with the same value for
+  // the attribute are sorted by their `_id`, so every ordering is total.
+  private static final Map<String, Comparator<Todos>> ORDERINGS = Map.of(
+    "owner", Comparator.comparing((Todos todo) -> todo.owner, NULLS_FIRST).thenComparing(todo -> todo._id, NULLS_FIRST),
+    "category", Comparator.comparing((Todos todo) -> todo.category, NULLS_FIRST)
+      .thenComparing(todo -> todo._id, NULLS_FIRST),
+    "body", Comparator.comparing((Todos todo) -> todo.body, NULLS_FIRST).thenComparing(todo -> todo._id, NULLS_FIRST),
+    "status", Comparator.comparing((Todos todo) -> todo.status).thenComparing(todo -> todo._id, NULLS_FIRST));
+
+  // The attributes that todos can be counted by in `facets`
+  private static final List<String> FACETS = List.of("owner", "category", "status");
+
+  // All of the todos, stored by attribute rather than as objects. A todo's
+  // "row" is its position in the JSON file.
+  private final TodosColumns todos;
+
+  // Posting lists for the `owner` and `category` filters: for each owner (or
+  // category) code, the sorted rows of the todos that have that value.
+  private final PostingLists rowsByOwner;
+  private final PostingLists rowsByCategory;
+
+  // Index of the todo bodies, used to narrow down the `contains` filter.
+  private final TrigramIndex bodyIndex;
+
+  // For each attribute in `ORDERINGS`, the rows in sorted order, and the
+  // inverse: the position of each row in that order.
+  private final Map<String, IntBuffer> sortedRows;
+  private final Map<String, IntBuffer> sortedPositions;
+
+  // A hash of all of the todos, which changes whenever the data does
+  private final long fingerprint;
+
+  // Statistics used to plan queries: the number of complete todos, and the
+  // average length of a body in bytes
+  private final int completeCount;
+  private final double averageBodyBytes;
 
   public TodosDatabase(String todosDataFile) throws IOException {
+    this(readTodos(
+      new InputStreamReader(TodosDatabase.class.getResourceAsStream(todosDataFile), StandardCharsets.UTF_8),
+      todosDataFile));
+  }
+
+  /**
+   * Load a database from a JSON file outside of the classpath, such as one
+   * that is being watched for changes.
+   *
+   * @param todosDataFile the JSON file of todos
+   * @return the loaded database
+   * @throws IOException if the file can't be read
+   */
+  public static TodosDatabase loadFile(Path todosDataFile) throws IOException {
+    return new TodosDatabase(readTodos(Files.newBufferedReader(todosDataFile, StandardCharsets.UTF_8),
+      todosDataFile.toString()));
+  }
+
+  /**
+   * Build a database from todos that are already in memory, such as generated
+   * data for benchmarks. The todos are only looked at once, so they can be
+   * generated on the fly rather than all being kept in a list.
+   *
+   * @param todos the todos, in row order
+   * @return the database
+   */
+  public static TodosDatabase of(Iterable<Todos> todos) {
+    Loader loader = new Loader();
+    for (Todos todo : todos) {
+      loader.add(todo);
+    }
+    return new TodosDatabase(loader);
+  }
+
+  /**
+   * Read the todos from a JSON array into a `Loader`.
+   */
+  private static Loader readTodos(Reader todosData, String source) throws IOException {
+    // Read the todos one at a time straight into the columns, rather than
+    // parsing the whole file into objects first, so loading doesn't need much
+    // more memory than the loaded data.
+    long startTime = System.nanoTime();
     Gson gson = new Gson();
-    InputStreamReader reader = new InputStreamReader(getClass().getResourceAsStream(todosDataFile));
-    allTodos = gson.fromJson(reader, Todos[].class);
+    Loader loader = new Loader();
+    try (JsonReader reader = new JsonReader(new BufferedReader(todosData))) {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        loader.add(gson.fromJson(reader, Todos.class));
+      }
+      reader.endArray();
+    }
+
+    long loadMillis = Math.max(1, (System.nanoTime() - startTime) / 1_000_000);
+    LOGGER.info("Read {} todos from {} in {} ms ({} todos/s)",
+      loader.count, source, loadMillis, loader.count * 1000L / loadMillis);
+    return loader;
+  }
+
+  private TodosDatabase(Loader loader) {
+    long startTime = System.nanoTime();
+    todos = loader.columns.build();
+    bodyIndex = loader.bodies.build();
+    fingerprint = loader.fingerprint.value();
+
+    rowsByOwner = PostingLists.fromColumn(todos.ownerCount(), todos.size(), todos::ownerCode);
+    rowsByCategory = PostingLists.fromColumn(todos.categoryCount(), todos.size(), todos::categoryCode);
+
+    // Every ordering breaks ties by ID (and then by row), so the rows are put
+    // in ID order once, and the other orderings start from that
+    int[] rowsById = IntStream.range(0, todos.size()).toArray();
+    sortRows(rowsById, todos::compareIds);
+    int[] idRanks = positions(rowsById);
+
+    sortedRows = new HashMap<>();
+    sortedPositions = new HashMap<>();
+    for (String attribute : ORDERINGS.keySet()) {
+      int[] rows;
+      if (attribute.equals("body")) {
+        // Bodies aren't in a dictionary, so they have to be compared
+        rows = rowsById.clone();
+        sortRows(rows, todos::compareBodies);
+      } else {
+        // The other attributes have a rank, which sorts along with the ID
+        // rank as a single key
+        long[] keys = new long[todos.size()];
+        for (int row = 0; row < keys.length; row++) {
+          keys[row] = ((long) attributeRank(attribute, row) << 32) | idRanks[row];
+        }
+        Arrays.sort(keys);
+        rows = new int[keys.length];
+        for (int position = 0; position < keys.length; position++) {
+          rows[position] = rowsById[(int) keys[position]];
+        }
+      }
+      sortedRows.put(attribute, IntBuffer.wrap(rows));
+      sortedPositions.put(attribute, IntBuffer.wrap(positions(rows)));
+    }
+    completeCount = todos.statusCount(true);
+    averageBodyBytes = (double) todos.bodyByteCount() / Math.max(1, todos.size());
+
+    LOGGER.info("Indexed {} todos in {} ms", todos.size(), (System.nanoTime() - startTime) / 1_000_000);
+  }
+
+  /**
+   * Collects todos for a new database as they are read.
+   */
+  private static class Loader {
+    final TodosColumns.Builder columns = new TodosColumns.Builder();
+    final TrigramIndex.Builder bodies = new TrigramIndex.Builder();
+    final Fingerprint fingerprint = new Fingerprint();
+    int count = 0;
+
+    void add(Todos todo) {
+      columns.add(todo);
+      bodies.add(todo.body);
+      fingerprint.add(todo._id).add(todo.owner).add(todo.status).add(todo.body).add(todo.category);
+      count++;
+    }
+  }
+
+  /**
+   * Get the rank of a row's value for the attribute, which orders rows the
+   * same way as the attribute's ordering in `ORDERINGS` (before the ID is
+   * compared). Bodies don't have ranks.
+   */
+  private int attributeRank(String attribute, int row) {
+    switch (attribute) {
+      case "owner":
+        return todos.ownerRank(row);
+      case "category":
+        return todos.categoryRank(row);
+      default:
+        return todos.status(row) ? 1 : 0;
+    }
+  }
+
+  /**
+   * Sort rows with a merge sort, which is stable, so rows that compare as
+   * equal stay in the order they were in. This sorts the `int`s themselves
+   * rather than boxing each row to sort it with a `Comparator`.
+   *
+   * @param rows    the rows to sort
+   * @param compare compares two rows the way a `Comparator` would
+   */
+  static void sortRows(int[] rows, IntBinaryOperator compare) {
+    int[] from = rows;
+    int[] to = new int[rows.length];
+    for (long width = 1; width < rows.length; width *= 2) {
+      for (int low = 0; low < rows.length; low = (int) Math.min(low + 2 * width, rows.length)) {
+        int middle = (int) Math.min(low + width, rows.length);
+        int high = (int) Math.min(low + 2 * width, rows.length);
+        int left = low;
+        int right = middle;
+        for (int position = low; position < high; position++) {
+          if (right >= high || (left < middle && compare.applyAsInt(from[left], from[right]) <= 0)) {
+            to[position] = from[left++];
+          } else {
+            to[position] = from[right++];
+          }
+        }
+      }
+      int[] sorted = to;
+      to = from;
+      from = sorted;
+    }
+    if (from != rows) {
+      System.arraycopy(from, 0, rows, 0, rows.length);
+    }
+  }
+
+  /**
+   * Get the inverse of a sorted order: the position of each row in it.
+   */
+  private static int[] positions(int[] rows) {
+    int[] positions = new int[rows.length];
+    for (int position = 0; position < rows.length; position++) {
+      positions[rows[position]] = position;
+    }
+    return positions;
+  }
+
+  /**
+   * Open a database from a snapshot file written by `writeSnapshot`.
+   * <p>
+   * The snapshot already has all of the indexes in it, and is memory mapped
+   * rather than read, so this is much faster than loading the JSON file.
+   *
+   * @param snapshotFile the snapshot to open
+   * @return the database stored in the snapshot
+   * @throws IOException if the snapshot can't be read
+   */
+  public static TodosDatabase openSnapshot(Path snapshotFile) throws IOException {
+    return new TodosDatabase(SnapshotFile.open(snapshotFile));
+  }
+
+  private TodosDatabase(SnapshotFile snapshot) throws IOException {
+    todos = TodosColumns.readFrom(snapshot, "todos");
+    rowsByOwner = PostingLists.readFrom(snapshot, "owner");
+    rowsByCategory = PostingLists.readFrom(snapshot, "category");
+    bodyIndex = TrigramIndex.readFrom(snapshot, "body");
+    fingerprint = snapshot.longs("fingerprint").get(0);
+    sortedRows = new HashMap<>();
+    sortedPositions = new HashMap<>();
+    for (String attribute : ORDERINGS.keySet()) {
+      sortedRows.put(attribute, snapshot.ints("orderBy." + attribute + ".rows"));
+      sortedPositions.put(attribute, snapshot.ints("orderBy." + attribute + ".positions"));
+    }
+    completeCount = todos.statusCount(true);
+    averageBodyBytes = (double) todos.bodyByteCount() / Math.max(1, todos.size());
+  }
+
+  /**
+   * Write this database, with all of its indexes, to a snapshot file that can
+   * later be opened with `openSnapshot`.
+   *
+   * @param snapshotFile where to write the snapshot
+   * @throws IOException if the snapshot can't be written
+   */
+  public void writeSnapshot(Path snapshotFile) throws IOException {
+    SnapshotFile.Builder snapshot = new SnapshotFile.Builder();
+    todos.writeTo(snapshot, "todos");
+    rowsByOwner.writeTo(snapshot, "owner");
+    rowsByCategory.writeTo(snapshot, "category");
+    bodyIndex.writeTo(snapshot, "body");
+    snapshot.putLongs("fingerprint", LongBuffer.wrap(new long[] { fingerprint }));
+    for (String attribute : ORDERINGS.keySet()) {
+      snapshot.putInts("orderBy." + attribute + ".rows", sortedRows.get(attribute));
+      snapshot.putInts("orderBy." + attribute + ".positions", sortedPositions.get(attribute));
+    }
+    snapshot.write(snapshotFile);
+  }
+
+  /**
+   * Set how every database splits up scans of many rows (when a query can't
+   * use an index to narrow them down), or `ParallelScan.SEQUENTIAL` to never
+   * split them. Scans start out sequential.
+   *
+   * @param scan the pool and threshold to split scans with
+   */
+  public static void setParallelScan(ParallelScan scan) {
+    parallelScan = scan;
   }
 
   public int size() {
-    return allTodos.length;
+    return todos.size();
+  }
+
+  /**
+   * Get a hash of all of the todos. Databases with the same todos in the same
+   * order have the same fingerprint, whether they were loaded from JSON or
+   * from a snapshot, and in any run of the server.
+   */
+  public long fingerprint() {
+    return fingerprint;
   }
 
   /**
@@ -42,67 +373,566 @@ public class TodosDatabase {
    * @return the todo with the given ID, or null if there is no todo with that ID
    */
   public Todos getTodo(String id) {
-    return Arrays.stream(allTodos).filter(x -> x._id.equals(id)).findFirst().orElse(null);
+    int row = todos.findRow(id);
+    return (row < 0) ? null : todos.todo(row);
   }
 
 
+  /**
+   * Look up many todos at once.
+   *
+   * @param ids the IDs of the desired todos
+   * @return the todo with each ID, in the same order, with null for each ID
+   *         that no todo has
+   */
+  public Todos[] getTodos(String[] ids) {
+    return todos(getRows(ids));
+  }
+
+  /**
+   * Look up the rows of many todos at once, to be turned into todos with
+   * `todos` or written as JSON with `writeJson`.
+   *
+   * @param ids the IDs of the desired todos
+   * @return the row of the todo with each ID, in the same order, with -1 for
+   *         each ID that no todo has
+   */
+  public int[] getRows(String[] ids) {
+    int[] rows = new int[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      rows[i] = (ids[i] == null) ? -1 : todos.findRow(ids[i]);
+    }
+    return rows;
+  }
+
+  /**
+   * Get the todos in some rows of this database.
+   *
+   * @param rows rows from `listRows` or `getRows` (-1 for no todo)
+   * @return the todo in each row, in the same order, with null for each -1
+   */
+  public Todos[] todos(int[] rows) {
+    Todos[] selected = new Todos[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      selected[i] = (rows[i] < 0) ? null : todos.todo(rows[i]);
+    }
+    return selected;
+  }
+
+  /**
+   * Write the todos in some rows of this database as a JSON array, one todo
+   * at a time, straight from the columns. The IDs and bodies are already
+   * UTF-8, so they're only escaped, never decoded. This gives the same JSON
+   * as `ctx.json(...)` of `todos(rows)`.
+   *
+   * @param out  where to write the JSON
+   * @param rows rows from `listRows` or `getRows` (-1 for no todo)
+   * @throws IOException if writing to the stream fails
+   */
+  public void writeJson(OutputStream out, int[] rows) throws IOException {
+    writeJson(out, rows, FIELDS.all());
+  }
+
+  /**
+   * Write just some fields of the todos in some rows of this database as a
+   * JSON array, one todo at a time, reading each field straight from the
+   * columns.
+   *
+   * @param out        where to write the JSON
+   * @param rows       rows from `listRows` or `getRows` (-1 for no todo)
+   * @param projection the fields to write
+   * @throws IOException if writing to the stream fails
+   */
+  public void writeJson(OutputStream out, int[] rows, Projection<TodosColumns> projection) throws IOException {
+    projection.writeArray(out, todos, rows);
+  }
+
   /**
    * Get an array of all the todos satisfying the queries in the params.
+   * <p>
+   * If there's a `limit`, at most that many todos are returned. If there's an
+   * `after` cursor (see `nextCursor`), only the todos that come after the
+   * cursor are returned, so a client can page through a large result without
+   * the database re-reading or copying the earlier pages.
    *
    * @param queryParams map of key-value pairs for the query
    * @return an array of all the todos matching the given criteria
    */
   public Todos[] listTodos(Map<String, List<String>> queryParams) {
-    Todos[] filteredTodos = allTodos;
+    return todos(listRows(queryParams));
+  }
 
-    // Filter todos by status if defined
-    if (queryParams.containsKey("status")) {
-      String statusParam = queryParams.get("status").get(0);
-      if( "complete".equals(statusParam)) {
-        filteredTodos = filterTodosByStatus(filteredTodos, true);
+  /**
+   * Get the rows of the todos `listTodos` would return, to be turned into
+   * todos with `todos` or written as JSON with `writeJson`.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the rows of all the todos matching the given criteria, in order
+   */
+  public int[] listRows(Map<String, List<String>> queryParams) {
+    // Get the rows that might match from the most selective index; the rest
+    // of the filters are checked on each row as it's selected.
+    TodosQueryPlan plan = plan(queryParams);
+    IntBuffer postings = plan.candidates();
+
+    int targetLimit = parseLimit(queryParams);
+    String orderBy = sortAttribute(queryParams);
+    PageCursor after = parseCursor(queryParams);
+
+    // Without an ordering the todos come out in row order, so we can start
+    // right after the cursor and stop as soon as we have enough.
+    if (orderBy.isEmpty()) {
+      int startRow = (after == null) ? 0 : rowAfter(after);
+      return selectRows(postings, startRow, plan, targetLimit);
+    }
+
+    // Otherwise, use the precomputed sort order for the attribute: turn the
+    // candidate rows into their positions in that order, and go through them
+    // starting after the cursor's place in the order.
+    IntBuffer order = sortedRows.get(orderBy);
+    int startPosition = (after == null) ? 0 : sortedPositions.get(orderBy).get(cursorRow(after)) + 1;
+    if (postings == null) {
+      return selectInOrder(order, null, startPosition, plan, targetLimit);
+    }
+    if (targetLimit < postings.limit()) {
+      // Only the first few candidates in the order are wanted, so keep the
+      // best of them in a bounded heap rather than sorting all of them
+      return selectTopInOrder(order, sortedPositions.get(orderBy), postings, startPosition, plan, targetLimit);
+    }
+    IntBuffer rowPositions = sortedPositions.get(orderBy);
+    try (RowBuffer positions = RowBuffer.acquire()) {
+      for (int i = 0; i < postings.limit(); i++) {
+        int position = rowPositions.get(postings.get(i));
+        if (position >= startPosition) {
+          positions.add(position);
+        }
       }
-      else {
-        filteredTodos = filterTodosByStatus(filteredTodos, false);
+      positions.sort();
+      return selectInOrder(order, positions, startPosition, plan, targetLimit);
+    }
+  }
+
+  /**
+   * Check the parts of a query that can be wrong, its `limit` and `after`
+   * cursor, so a bad query can be turned away before anything else is done
+   * with it.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @throws BadRequestResponse if the query isn't valid
+   */
+  public void validateQuery(Map<String, List<String>> queryParams) {
+    parseLimit(queryParams);
+    PageCursor after = parseCursor(queryParams);
+    if (after != null) {
+      cursorRow(after);
+    }
+  }
+
+  /**
+   * Get the `after` cursor from the query, or null if there isn't one.
+   */
+  private static PageCursor parseCursor(Map<String, List<String>> queryParams) {
+    if (!queryParams.containsKey("after")) {
+      return null;
+    }
+    PageCursor after = PageCursor.decode(queryParams.get("after").get(0));
+    if (!after.getOrderBy().equals(sortAttribute(queryParams))) {
+      throw new BadRequestResponse("Specified cursor is for a different orderBy");
+    }
+    return after;
+  }
+
+  /**
+   * Get the attributes to count todos by from the `groupBy` query parameter
+   * (a comma-separated list), or all of them if there isn't one.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the attributes
+   * @throws BadRequestResponse if one of them can't be counted by
+   */
+  public static List<String> parseGroupBy(Map<String, List<String>> queryParams) {
+    if (!queryParams.containsKey("groupBy")) {
+      return FACETS;
+    }
+    List<String> groupBy = List.of(queryParams.get("groupBy").get(0).split(","));
+    checkGroupBy(groupBy);
+    return groupBy;
+  }
+
+  private static void checkGroupBy(List<String> groupBy) {
+    for (String attribute : groupBy) {
+      if (!FACETS.contains(attribute)) {
+        throw new BadRequestResponse("Specified groupBy '" + attribute + "' must be one of " + FACETS);
       }
     }
+  }
 
-    // Filter todos by what their body contains if defined
-    if (queryParams.containsKey("contains")) {
-      String containsParam = queryParams.get("contains").get(0);
-      filteredTodos = filterTodosByBody(filteredTodos, containsParam);
+  /**
+   * Count the todos satisfying the queries in the params, grouped by each of
+   * the attributes in `groupBy` (any of `owner`, `category` and `status`).
+   * The same filters as `listTodos` apply; `limit`, `after` and `orderBy`
+   * don't make a difference to the counts.
+   * <p>
+   * Without any filters, the counts are the sizes of the posting lists and
+   * the number of complete todos, which were all worked out when the data
+   * was loaded. Otherwise the matching todos are counted in one pass over
+   * the dictionary codes in the columns.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param groupBy     the attributes to count the todos by
+   * @return the number of matching todos as `total`, and for each attribute
+   *         in `groupBy`, the number with each value of that attribute (values
+   *         with no matching todos, and todos missing the attribute, are left
+   *         out)
+   */
+  public Map<String, Object> facets(Map<String, List<String>> queryParams, List<String> groupBy) {
+    checkGroupBy(groupBy);
+
+    int[] ownerCounts = new int[todos.ownerCount()];
+    int[] categoryCounts = new int[todos.categoryCount()];
+    int total;
+    int complete;
+    TodosQueryPlan plan = plan(queryParams);
+    if (plan.isUnfiltered()) {
+      for (int code = 0; code < ownerCounts.length; code++) {
+        ownerCounts[code] = rowsByOwner.size(code);
+      }
+      for (int code = 0; code < categoryCounts.length; code++) {
+        categoryCounts[code] = rowsByCategory.size(code);
+      }
+      total = todos.size();
+      complete = completeCount;
+    } else {
+      IntBuffer rows = plan.candidates();
+      int count = (rows == null) ? todos.size() : rows.limit();
+      total = 0;
+      complete = 0;
+      for (int i = 0; i < count; i++) {
+        int row = (rows == null) ? i : rows.get(i);
+        if (plan.matches(row)) {
+          ownerCounts[todos.ownerCode(row)]++;
+          categoryCounts[todos.categoryCode(row)]++;
+          complete += todos.status(row) ? 1 : 0;
+          total++;
+        }
+      }
     }
 
-    // Filter todos by owner if defined
+    Map<String, Object> facets = new LinkedHashMap<>();
+    facets.put("total", total);
+    for (String attribute : groupBy) {
+      Map<String, Integer> counts = new TreeMap<>();
+      switch (attribute) {
+        case "owner":
+          for (int code = 0; code < ownerCounts.length; code++) {
+            if (ownerCounts[code] > 0 && todos.ownerName(code) != null) {
+              counts.put(todos.ownerName(code), ownerCounts[code]);
+            }
+          }
+          break;
+        case "category":
+          for (int code = 0; code < categoryCounts.length; code++) {
+            if (categoryCounts[code] > 0 && todos.categoryName(code) != null) {
+              counts.put(todos.categoryName(code), categoryCounts[code]);
+            }
+          }
+          break;
+        default:
+          if (complete > 0) {
+            counts.put("complete", complete);
+          }
+          if (total - complete > 0) {
+            counts.put("incomplete", total - complete);
+          }
+          break;
+      }
+      facets.put(attribute, counts);
+    }
+    return facets;
+  }
+
+  /**
+   * Plan how to find the todos matching the `owner`, `category`, `status` and
+   * `contains` filters in the query.
+   * <p>
+   * The owner and category filters have exact posting lists, and `contains`
+   * has the trigram index, which gives candidates that still need checking.
+   * Whichever of those is expected to leave the fewest rows picks the rows to
+   * look at, and the other filters are checked on each of them.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the plan
+   */
+  TodosQueryPlan plan(Map<String, List<String>> queryParams) {
+    List<TodosQueryPlan.Filter> filters = new ArrayList<>();
     if (queryParams.containsKey("owner")) {
-      String ownerParam = queryParams.get("owner").get(0);
-      filteredTodos = filterTodosByOwner(filteredTodos, ownerParam);
+      int ownerCode = todos.ownerCode(queryParams.get("owner").get(0));
+      filters.add(new TodosQueryPlan.Filter("owner",
+        (ownerCode < 0) ? 0 : rowsByOwner.size(ownerCode), 1,
+        row -> todos.ownerCode(row) == ownerCode,
+        () -> rowsByOwner.view(ownerCode), true));
+    }
+    if (queryParams.containsKey("category")) {
+      int categoryCode = todos.categoryCode(queryParams.get("category").get(0));
+      filters.add(new TodosQueryPlan.Filter("category",
+        (categoryCode < 0) ? 0 : rowsByCategory.size(categoryCode), 1,
+        row -> todos.categoryCode(row) == categoryCode,
+        () -> rowsByCategory.view(categoryCode), true));
+    }
+    if (queryParams.containsKey("status")) {
+      boolean targetStatus = "complete".equals(queryParams.get("status").get(0));
+      filters.add(new TodosQueryPlan.Filter("status",
+        targetStatus ? completeCount : todos.size() - completeCount, 1,
+        row -> todos.status(row) == targetStatus,
+        null, false));
     }
+    if (queryParams.containsKey("contains")) {
+      String targetBody = queryParams.get("contains").get(0);
+      // A target with unpaired surrogates has no UTF-8 encoding (they'd be
+      // encoded as '?'), so it's compared with each body as a string instead
+      byte[] targetBodyBytes = TodosColumns.isWellFormed(targetBody)
+        ? targetBody.getBytes(StandardCharsets.UTF_8)
+        : null;
+      // Without the index, assume most bodies contain a short target
+      int estimate = bodyIndex.estimate(targetBody);
+      // Searching a body takes about one step per byte
+      filters.add(new TodosQueryPlan.Filter("contains",
+        (estimate < 0) ? todos.size() : estimate, 1 + averageBodyBytes,
+        row -> todos.bodyContains(row, targetBody, targetBodyBytes),
+        (estimate < 0) ? null : () -> IntBuffer.wrap(bodyIndex.candidates(targetBody)), false));
+    }
+    return TodosQueryPlan.of(filters, todos.size());
+  }
 
+  /**
+   * Get the cursor for the page after the given one, so a client can ask for
+   * it with the `after` query parameter.
+   * <p>
+   * The last todo is found again by its ID, so a page ending in a todo without
+   * one can't be continued this way; `nextCursor(int[], ...)`, which knows
+   * the rows, doesn't have that problem.
+   *
+   * @param page        the todos returned for `queryParams`
+   * @param queryParams map of key-value pairs for the query
+   * @return the encoded cursor for the next page, or null if there isn't one
+   */
+  public String nextCursor(Todos[] page, Map<String, List<String>> queryParams) {
+    if (!isCutShort(page.length, queryParams)) {
+      return null;
+    }
+    String id = page[page.length - 1]._id;
+    return cursorAfter((id == null) ? -1 : todos.findRow(id), id, queryParams);
+  }
 
-    // Filter todos by category if defined
-    if (queryParams.containsKey("category")) {
-      String categoryParam = queryParams.get("category").get(0);
-      filteredTodos = filterTodosByCategory(filteredTodos, categoryParam);
+  /**
+   * Get the cursor for the page after the given one, like
+   * `nextCursor(Todos[], ...)`, for a page of rows from `listRows`.
+   *
+   * @param rows        the rows returned for `queryParams`
+   * @param queryParams map of key-value pairs for the query
+   * @return the encoded cursor for the next page, or null if there isn't one
+   */
+  public String nextCursor(int[] rows, Map<String, List<String>> queryParams) {
+    if (!isCutShort(rows.length, queryParams)) {
+      return null;
     }
+    int last = rows[rows.length - 1];
+    return cursorAfter(last, todos.id(last), queryParams);
+  }
+
+  /**
+   * If the page wasn't cut short by the limit, there's nothing after it.
+   */
+  private static boolean isCutShort(int pageLength, Map<String, List<String>> queryParams) {
+    return queryParams.containsKey("limit") && pageLength > 0 && pageLength >= parseLimit(queryParams);
+  }
+
+  private static String cursorAfter(int row, String id, Map<String, List<String>> queryParams) {
+    return new PageCursor(sortAttribute(queryParams), row, id).encode();
+  }
 
-    // Sort todos by a specific attribute if defined
-    if (queryParams.containsKey("orderBy")) {
-      String orderByParam = queryParams.get("orderBy").get(0);
-      filteredTodos = sortTodos(filteredTodos, orderByParam);
+  /**
+   * Get the limit from the query, or `Integer.MAX_VALUE` if there isn't one.
+   */
+  private static int parseLimit(Map<String, List<String>> queryParams) {
+    if (!queryParams.containsKey("limit")) {
+      return Integer.MAX_VALUE;
+    }
+    String limitParam = queryParams.get("limit").get(0);
+    int targetLimit;
+    try {
+      targetLimit = Integer.parseInt(limitParam);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be parsed to an integer");
+    }
+    if (targetLimit < 0) {
+      throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be negative");
+    }
+    return targetLimit;
+  }
+
+  /**
+   * Get the attribute to order the todos by, or "" if they should stay in row
+   * order (including when the requested attribute isn't one we can sort by).
+   */
+  private static String sortAttribute(Map<String, List<String>> queryParams) {
+    if (!queryParams.containsKey("orderBy")) {
+      return "";
+    }
+    String orderByParam = queryParams.get("orderBy").get(0);
+    return ORDERINGS.containsKey(orderByParam) ? orderByParam : "";
+  }
+
+  /**
+   * Get the row of the todo the cursor points to. That's the cursor's row if
+   * it still holds a todo with the cursor's ID, and otherwise (if the data has
+   * been reloaded since) the row of the todo with that ID.
+   */
+  private int cursorRow(PageCursor after) {
+    int row = after.getRow();
+    if (row >= 0 && row < todos.size() && Objects.equals(todos.id(row), after.getId())) {
+      return row;
+    }
+    row = (after.getId() == null) ? -1 : todos.findRow(after.getId());
+    if (row < 0) {
+      throw new BadRequestResponse("Specified cursor refers to a todo that doesn't exist");
+    }
+    return row;
+  }
+
+  /**
+   * Get the row just after the todo the cursor points to.
+   */
+  private int rowAfter(PageCursor after) {
+    return cursorRow(after) + 1;
+  }
+
+  /**
+   * Get the todos, in sorted order, that pass the plan's filters, stopping
+   * once there are `targetLimit` of them.
+   *
+   * @param order         the rows in sorted order
+   * @param positions     sorted positions in `order` of the candidate rows, or
+   *                      null if every row is a candidate
+   * @param startPosition the first position in `order` to look at
+   * @param plan          the plan whose filters the todos have to pass
+   * @param targetLimit   the most todos to return
+   * @return the rows of the selected todos
+   */
+  private int[] selectInOrder(IntBuffer order, RowBuffer positions, int startPosition,
+      TodosQueryPlan plan, int targetLimit) {
+    int first = (positions == null) ? startPosition : 0;
+    int count = (positions == null) ? order.limit() : positions.size();
+
+    ParallelScan scan = parallelScan;
+    if (scan.shouldSplit(count - first, targetLimit)) {
+      IntUnaryOperator rowAt = (positions == null) ? order::get : i -> order.get(positions.get(i));
+      return scan.scan(first, count, rowAt, plan::matches, targetLimit);
+    }
+
+    // The selected rows are written over the positions that have already
+    // been looked at, so no second buffer is needed
+    try (RowBuffer acquired = (positions == null) ? RowBuffer.acquire() : null) {
+      RowBuffer selected = (positions == null) ? acquired : positions;
+      int selectedCount = 0;
+      for (int i = first; i < count && selectedCount < targetLimit; i++) {
+        int row = order.get((positions == null) ? i : positions.get(i));
+        if (plan.matches(row)) {
+          if (positions == null) {
+            selected.add(row);
+          } else {
+            selected.set(selectedCount, row);
+          }
+          selectedCount++;
+        }
+      }
+      selected.truncate(selectedCount);
+      return selected.toRows();
+    }
+  }
+
+  /**
+   * Get the first `targetLimit` todos, in sorted order, of the candidate rows
+   * that pass the plan's filters.
+   * <p>
+   * The positions of matching candidates go through a heap that holds the
+   * `targetLimit` smallest seen so far, so this takes O(n log k) time for `n`
+   * candidates and a limit of `k`, and a candidate that comes later in the
+   * order than everything in a full heap isn't even checked against the
+   * filters.
+   *
+   * @param order         the rows in sorted order
+   * @param rowPositions  the position of each row in `order`
+   * @param candidates    the candidate rows
+   * @param startPosition the first position in `order` to consider
+   * @param plan          the plan whose filters the todos have to pass
+   * @param targetLimit   the most todos to return
+   * @return the rows of the selected todos
+   */
+  private int[] selectTopInOrder(IntBuffer order, IntBuffer rowPositions, IntBuffer candidates,
+      int startPosition, TodosQueryPlan plan, int targetLimit) {
+    TopPositions top = new TopPositions(targetLimit);
+    for (int i = 0; i < candidates.limit(); i++) {
+      int row = candidates.get(i);
+      int position = rowPositions.get(row);
+      if (position >= startPosition && top.accepts(position) && plan.matches(row)) {
+        top.add(position);
+      }
     }
+    int[] rows = top.sorted();
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = order.get(rows[i]);
+    }
+    return rows;
+  }
 
-    // Filter todos by limit if defined
-    if (queryParams.containsKey("limit")) {
-      String limitParam = queryParams.get("limit").get(0);
-      try {
-        int targetLimit = Integer.parseInt(limitParam);
-        filteredTodos = filterTodosByLimit(filteredTodos, targetLimit);
-      } catch (NumberFormatException e) {
-        throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be parsed to an integer");
+  /**
+   * Get the todos, in row order, from the given rows that pass the plan's
+   * filters, stopping once there are `targetLimit` of them.
+   *
+   * @param rows         sorted rows to look at, or null for all rows
+   *                     (the buffer's position is ignored)
+   * @param startRow     the first row to look at
+   * @param plan         the plan whose filters the todos have to pass
+   * @param targetLimit  the most todos to return
+   * @return the rows of the selected todos
+   */
+  private int[] selectRows(IntBuffer rows, int startRow, TodosQueryPlan plan, int targetLimit) {
+    int first = (rows == null) ? startRow : firstAtLeast(rows, startRow);
+    int count = (rows == null) ? todos.size() : rows.limit();
+
+    ParallelScan scan = parallelScan;
+    if (scan.shouldSplit(count - first, targetLimit)) {
+      IntUnaryOperator rowAt = (rows == null) ? i -> i : rows::get;
+      return scan.scan(first, count, rowAt, plan::matches, targetLimit);
+    }
+
+    try (RowBuffer selected = RowBuffer.acquire()) {
+      for (int i = first; i < count && selected.size() < targetLimit; i++) {
+        int row = (rows == null) ? i : rows.get(i);
+        if (plan.matches(row)) {
+          selected.add(row);
+        }
       }
+      return selected.toRows();
     }
+  }
 
-    return filteredTodos;
+  /**
+   * Find the index of the first of some sorted rows that is at least `row`.
+   */
+  private static int firstAtLeast(IntBuffer rows, int row) {
+    int low = 0;
+    int high = rows.limit();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (rows.get(mid) < row) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
   }
 
 /**
@@ -113,7 +943,7 @@ public class TodosDatabase {
    * @return an array of all the todos limited by the target limit
    */
   public Todos[] filterTodosByLimit(Todos[] todos, int targetLimit) {
-    return Arrays.copyOfRange(todos, 0, targetLimit);
+    return Arrays.copyOfRange(todos, 0, Math.min(targetLimit, todos.length));
   }
 
 
@@ -125,7 +955,7 @@ public class TodosDatabase {
    * @return an array of all the todos filtered by the target status.
    */
   public Todos[] filterTodosByStatus(Todos[] todos, boolean targetStatus) {
-    return Arrays.stream(todos).filter(x -> x.status == targetStatus).toArray(Todos[]::new);
+    return RowBuffer.select(todos, x -> x.status == targetStatus, Todos[]::new);
   }
 
 
@@ -137,7 +967,7 @@ public class TodosDatabase {
    * @return an array of all the todos filtered by what their body contains
    */
   public Todos[] filterTodosByBody(Todos[] todos, String targetString) {
-    return Arrays.stream(todos).filter(x -> x.body.contains(targetString) == true).toArray(Todos[]::new);
+    return RowBuffer.select(todos, x -> x.body != null && x.body.contains(targetString), Todos[]::new);
   }
 
   /**
@@ -148,7 +978,7 @@ public class TodosDatabase {
    * @return an array of all the todos filtered by their owner
    */
   public Todos[] filterTodosByOwner(Todos[] todos, String targetOwner) {
-    return Arrays.stream(todos).filter(x -> x.owner.equals(targetOwner)).toArray(Todos[]::new);
+    return RowBuffer.select(todos, x -> targetOwner.equals(x.owner), Todos[]::new);
   }
 
   /**
@@ -159,56 +989,26 @@ public class TodosDatabase {
    * @return an array of all the todos filtered by their category
    */
   public Todos[] filterTodosByCategory(Todos[] todos, String targetCategory) {
-    return Arrays.stream(todos).filter(x -> x.category.equals(targetCategory)).toArray(Todos[]::new);
+    return RowBuffer.select(todos, x -> targetCategory.equals(x.category), Todos[]::new);
   }
 
 /**
-   * Get an array of a todos sorted based on a particular attribute
+   * Get an array of a todos sorted based on a particular attribute; todos
+   * with the same value for the attribute are sorted by their `_id`. The
+   * given array isn't changed.
    *
    * @param todos     the list of todos to be sorted by their attribute
    * @param attribute the attribute we want to sort the todos by
-   * @return an array of all the todos sorted by a particular attribute
+   * @return a sorted copy of the todos, or an unsorted copy if we can't sort
+   *         by the attribute
    */
   public Todos[] sortTodos(Todos[] todos, String attribute) {
-
-    if("owner".equals(attribute))
-      Arrays.sort(todos, new Comparator<Todos>(){
-        public int compare(Todos t1, Todos t2) {
-          return t1.owner.compareTo(t2.owner);
-       }
-      } );
-
-
-    if("category".equals(attribute))
-      Arrays.sort(todos, new Comparator<Todos>(){
-        public int compare(Todos t1, Todos t2) {
-          return t1.category.compareTo(t2.category);
-       }
-      } );
-
-
-    if("body".equals(attribute))
-      Arrays.sort(todos, new Comparator<Todos>(){
-        public int compare(Todos t1, Todos t2) {
-          return t1.body.compareTo(t2.body);
-       }
-      } );
-
-    if("status".equals(attribute))
-      Arrays.sort(todos, new Comparator<Todos>(){
-        public int compare(Todos t1, Todos t2) {
-
-         Boolean statusT1 = t1.status;
-         String stringStatT1 = statusT1.toString();
-
-         Boolean statusT2 = t2.status;
-         String stringStatT2 = statusT2.toString();
-
-         return stringStatT1.compareTo(stringStatT2);
-       }
-      } );
-
-    return todos;
+    Todos[] sortedTodos = todos.clone();
+    Comparator<Todos> comparator = ORDERINGS.get(attribute);
+    if (comparator != null) {
+      Arrays.sort(sortedTodos, comparator);
+    }
+    return sortedTodos;
   }
 
 
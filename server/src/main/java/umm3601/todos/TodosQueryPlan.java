@@ -0,0 +1,162 @@
+package umm3601.todos;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/**
+ * How to find the todos that match a query's filters: which filter's index
+ * gives the rows to look at, and in what order to check the other filters on
+ * each of those rows.
+ * <p>
+ * Each filter comes with an estimate of how many rows pass it (from the sizes
+ * of the posting lists and other statistics kept by the database) and of how
+ * expensive it is to check on one row. The filter with an index and the
+ * fewest estimated rows picks the candidate rows; the rest are checked on
+ * each candidate in one pass, cheapest and most selective first, so that the
+ * expensive ones (like `contains`) only run on rows that made it past the
+ * cheap ones.
+ */
+class TodosQueryPlan {
+
+  /**
+   * One filter from a query.
+   */
+  static class Filter {
+    final String name;
+    final double estimatedRows;
+    final double cost;
+    final IntPredicate test;
+    final Supplier<IntBuffer> index;
+    final boolean indexIsExact;
+
+    /**
+     * @param name          describes the filter, for `toString`
+     * @param estimatedRows about how many rows pass the filter
+     * @param cost          about how expensive it is to check the filter on
+     *                      one row, where checking the status costs 1
+     * @param test          checks whether a row passes the filter
+     * @param index         gets the sorted rows that might pass the filter,
+     *                      or null if the filter has no index
+     * @param indexIsExact  whether every row the index gives passes the
+     *                      filter, so it doesn't need checking again
+     */
+    Filter(String name, double estimatedRows, double cost, IntPredicate test,
+        Supplier<IntBuffer> index, boolean indexIsExact) {
+      this.name = name;
+      this.estimatedRows = estimatedRows;
+      this.cost = cost;
+      this.test = test;
+      this.index = index;
+      this.indexIsExact = indexIsExact;
+    }
+  }
+
+  // The filter whose index gives the candidate rows, or null to look at every row
+  private final Filter driver;
+  // The filters to check on each candidate row, in the order to check them
+  private final Filter[] checks;
+  private final IntPredicate[] tests;
+  private final boolean empty;
+
+  private TodosQueryPlan(Filter driver, List<Filter> checks, boolean empty) {
+    this.driver = driver;
+    this.checks = checks.toArray(new Filter[0]);
+    this.tests = new IntPredicate[this.checks.length];
+    for (int i = 0; i < tests.length; i++) {
+      tests[i] = this.checks[i].test;
+    }
+    this.empty = empty;
+  }
+
+  /**
+   * Plan how to apply some filters.
+   *
+   * @param filters  the query's filters
+   * @param rowCount the number of rows in the database
+   * @return the plan
+   */
+  static TodosQueryPlan of(List<Filter> filters, int rowCount) {
+    Filter driver = null;
+    boolean empty = false;
+    for (Filter filter : filters) {
+      if (filter.estimatedRows == 0) {
+        empty = true;
+      }
+      if (filter.index != null && filter.estimatedRows < rowCount
+          && (driver == null || filter.estimatedRows < driver.estimatedRows)) {
+        driver = filter;
+      }
+    }
+
+    List<Filter> checks = new ArrayList<>();
+    for (Filter filter : filters) {
+      if (filter != driver || !filter.indexIsExact) {
+        checks.add(filter);
+      }
+    }
+    // Checking a filter only saves work on the rows it rejects, so rank the
+    // filters by their cost per rejected row
+    checks.sort(Comparator.comparingDouble(filter -> {
+      double passing = Math.min(1, filter.estimatedRows / Math.max(1, rowCount));
+      return filter.cost / Math.max(1e-6, 1 - passing);
+    }));
+    return new TodosQueryPlan(driver, checks, empty);
+  }
+
+  /**
+   * Check whether the plan already knows that nothing matches.
+   */
+  boolean isEmpty() {
+    return empty;
+  }
+
+  /**
+   * Check whether the plan has no filters at all, so every row matches.
+   */
+  boolean isUnfiltered() {
+    return driver == null && checks.length == 0;
+  }
+
+  /**
+   * Get the sorted candidate rows, or null if every row is a candidate.
+   */
+  IntBuffer candidates() {
+    if (empty) {
+      return IntBuffer.allocate(0);
+    }
+    return (driver == null) ? null : driver.index.get();
+  }
+
+  /**
+   * Check whether a candidate row passes all of the remaining filters.
+   */
+  boolean matches(int row) {
+    for (IntPredicate test : tests) {
+      if (!test.test(row)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Describe the plan, like `index(owner) then check(status, contains)`.
+   */
+  @Override
+  public String toString() {
+    StringBuilder description = new StringBuilder();
+    description.append((driver == null) ? "scan" : "index(" + driver.name + ")");
+    if (checks.length > 0) {
+      description.append(" then check(");
+      for (int i = 0; i < checks.length; i++) {
+        description.append((i == 0) ? "" : ", ").append(checks[i].name);
+      }
+      description.append(')');
+    }
+    return description.toString();
+  }
+}
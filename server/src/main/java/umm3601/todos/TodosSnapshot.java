@@ -0,0 +1,33 @@
+package umm3601.todos;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import umm3601.Server;
+
+/**
+ * Command-line tool that loads a todos JSON file (the bundled one, unless
+ * another is given) and writes it, with all of its indexes, to a snapshot
+ * file the server can open quickly.
+ * <p>
+ * Run it with `./gradlew todosSnapshot` (adding `-Dtodos.data=...` to
+ * snapshot another file), then start the server with the `todos.snapshot`
+ * system property set to the snapshot's path.
+ */
+public class TodosSnapshot {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: TodosSnapshot <snapshot file> [todos JSON file]");
+      System.exit(1);
+    }
+
+    Path snapshotFile = Paths.get(args[0]);
+    TodosDatabase database = (args.length == 2)
+      ? TodosDatabase.loadFile(Paths.get(args[1]))
+      : new TodosDatabase(Server.TODOS_DATA_FILE);
+    database.writeSnapshot(snapshotFile);
+    System.out.println("Wrote " + database.size() + " todos to " + snapshotFile);
+  }
+}
@@ -0,0 +1,81 @@
+package umm3601.todos;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the smallest few of a stream of distinct positions in a sort order,
+ * using a max-heap bounded at the number wanted.
+ * <p>
+ * Finding the first `k` of `n` todos in sorted order this way takes
+ * O(n log k) time and O(k) memory, instead of sorting all `n`. Since the
+ * precomputed sort orders already break ties on `_id`, positions are all
+ * distinct and the result is stable.
+ */
+final class TopPositions {
+
+  // A max-heap: the largest position kept is at index 0
+  private final int[] heap;
+  private int size = 0;
+
+  /**
+   * @param capacity the number of positions to keep
+   */
+  TopPositions(int capacity) {
+    heap = new int[capacity];
+  }
+
+  /**
+   * Check whether a position would be kept if it were added now. A position
+   * that wouldn't be can be skipped without checking whether it matches.
+   */
+  boolean accepts(int position) {
+    return size < heap.length || (size > 0 && position < heap[0]);
+  }
+
+  /**
+   * Add a position, dropping the largest one kept if there are now too many.
+   * Only call this with positions that the heap `accepts`.
+   */
+  void add(int position) {
+    if (size < heap.length) {
+      int child = size++;
+      while (child > 0) {
+        int parent = (child - 1) >>> 1;
+        if (heap[parent] >= position) {
+          break;
+        }
+        heap[child] = heap[parent];
+        child = parent;
+      }
+      heap[child] = position;
+      return;
+    }
+
+    // Replace the largest position and sift the new one down
+    int parent = 0;
+    while (true) {
+      int child = 2 * parent + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && heap[child + 1] > heap[child]) {
+        child++;
+      }
+      if (heap[child] <= position) {
+        break;
+      }
+      heap[parent] = heap[child];
+      parent = child;
+    }
+    heap[parent] = position;
+  }
+
+  /**
+   * Get the positions kept, smallest first.
+   */
+  int[] sorted() {
+    int[] positions = Arrays.copyOf(heap, size);
+    Arrays.sort(positions);
+    return positions;
+  }
+}
@@ -0,0 +1,198 @@
+package umm3601.todos;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import umm3601.SnapshotFile;
+
+/**
+ * An index of the three-character substrings ("trigrams") of a list of
+ * strings, used to speed up substring searches.
+ * <p>
+ * Any string of length three or more that is contained in a text must contain
+ * all of its own trigrams, so intersecting the rows of those trigrams gives a
+ * small list of candidates that can be checked with `String.contains`. The
+ * index works on Java `char`s, exactly like `String.contains` does, so the
+ * candidates never miss a real match.
+ */
+public class TrigramIndex {
+
+  // The distinct trigrams in sorted order, and the rows of the texts that
+  // contain each one (list `i` goes with `trigrams.get(i)`)
+  private final LongBuffer trigrams;
+  private final PostingLists rows;
+
+  private TrigramIndex(LongBuffer trigrams, PostingLists rows) {
+    this.trigrams = trigrams;
+    this.rows = rows;
+  }
+
+  /**
+   * Build a trigram index over the given texts; a text's row is its position
+   * in the array.
+   *
+   * @param texts the texts to index
+   * @return the index
+   */
+  public static TrigramIndex of(String... texts) {
+    Builder builder = new Builder();
+    for (String text : texts) {
+      builder.add(text);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Get the rows whose text might contain the target string. Every row that
+   * really contains it is included, but some of the rows may not, so callers
+   * still need to check each one.
+   *
+   * @param target the string we want to look for
+   * @return the sorted candidate rows, or null if the target is too short for
+   *         the index to help and every row is a candidate
+   */
+  public int[] candidates(String target) {
+    if (target.length() < 3) {
+      return null;
+    }
+
+    // Find the posting list of each trigram in the target; if any of them
+    // doesn't appear anywhere, then neither does the target.
+    int[] lists = new int[target.length() - 2];
+    for (int i = 0; i + 3 <= target.length(); i++) {
+      int list = find(trigram(target, i));
+      if (list < 0) {
+        return new int[0];
+      }
+      lists[i] = list;
+    }
+    return rows.intersect(lists);
+  }
+
+  /**
+   * Estimate how many rows contain the target string, without intersecting
+   * any posting lists: no more rows can contain it than contain its rarest
+   * trigram.
+   *
+   * @param target the string we want to look for
+   * @return the number of rows with the target's rarest trigram, or -1 if the
+   *         target is too short for the index to help
+   */
+  public int estimate(String target) {
+    if (target.length() < 3) {
+      return -1;
+    }
+    int fewest = Integer.MAX_VALUE;
+    for (int i = 0; i + 3 <= target.length(); i++) {
+      int list = find(trigram(target, i));
+      if (list < 0) {
+        return 0;
+      }
+      fewest = Math.min(fewest, rows.size(list));
+    }
+    return fewest;
+  }
+
+  /**
+   * Find the posting list number of a trigram, or -1 if no text contains it.
+   */
+  private int find(long trigram) {
+    int low = 0;
+    int high = trigrams.limit() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long value = trigrams.get(mid);
+      if (value < trigram) {
+        low = mid + 1;
+      } else if (value > trigram) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Add this index to a snapshot, as sections whose names start with `name`.
+   */
+  public void writeTo(SnapshotFile.Builder snapshot, String name) {
+    snapshot.putLongs(name + ".trigrams", trigrams);
+    rows.writeTo(snapshot, name);
+  }
+
+  /**
+   * Read an index added to a snapshot with `writeTo`.
+   */
+  public static TrigramIndex readFrom(SnapshotFile snapshot, String name) throws IOException {
+    return new TrigramIndex(snapshot.longs(name + ".trigrams"), PostingLists.readFrom(snapshot, name));
+  }
+
+  /**
+   * Pack the three characters starting at `start` into a single key.
+   */
+  private static long trigram(String text, int start) {
+    return ((long) text.charAt(start) << 32)
+      | ((long) text.charAt(start + 1) << 16)
+      | text.charAt(start + 2);
+  }
+
+  /**
+   * Builds a `TrigramIndex` one text at a time, so the texts themselves don't
+   * have to be kept around.
+   */
+  public static class Builder {
+    private final Map<Long, Posting> postings = new HashMap<>();
+    private int row = 0;
+
+    /**
+     * Add a text as the next row.
+     *
+     * @param text the text to add, or null for a row with no text
+     * @return this builder
+     */
+    public Builder add(String text) {
+      for (int i = 0; text != null && i + 3 <= text.length(); i++) {
+        postings.computeIfAbsent(trigram(text, i), k -> new Posting()).add(row);
+      }
+      row++;
+      return this;
+    }
+
+    public TrigramIndex build() {
+      long[] sortedTrigrams = postings.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+      int[][] lists = new int[sortedTrigrams.length][];
+      for (int i = 0; i < sortedTrigrams.length; i++) {
+        lists[i] = postings.get(sortedTrigrams[i]).toArray();
+      }
+      return new TrigramIndex(LongBuffer.wrap(sortedTrigrams), PostingLists.fromArrays(lists));
+    }
+  }
+
+  /**
+   * A growable, sorted list of distinct rows, used while building the index.
+   */
+  private static class Posting {
+    private int[] rows = new int[4];
+    private int size = 0;
+
+    void add(int row) {
+      // Rows are added in order, so a repeated trigram in the same text
+      // always shows up as a repeat of the last row.
+      if (size > 0 && rows[size - 1] == row) {
+        return;
+      }
+      if (size == rows.length) {
+        rows = Arrays.copyOf(rows, size * 2);
+      }
+      rows[size++] = row;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(rows, size);
+    }
+  }
+}
@@ -1,14 +1,28 @@
 package umm3601.user;
 
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
 import io.javalin.http.Context;
 import io.javalin.http.NotFoundResponse;
 
+import umm3601.BatchRequest;
+import umm3601.ConditionalRequests;
+import umm3601.PageCursor;
+import umm3601.Projection;
+import umm3601.ResultCache;
+import umm3601.StreamingJson;
+
 /**
  * Controller that manages requests for info about users.
  */
 public class UserController {
 
-  private UserDatabase database;
+  private final Supplier<UserDatabase> database;
+
+  // Encoded results of recent queries, or null to not cache them
+  private final ResultCache cache;
 
   /**
    * Construct a controller for users.
@@ -20,7 +34,30 @@ public class UserController {
    * @param database the `Database` containing user data
    */
   public UserController(UserDatabase database) {
+    this(() -> database);
+  }
+
+  /**
+   * Construct a controller whose database can be replaced while the server is
+   * running, such as a `ReloadableData` that reloads the data file when it
+   * changes. Each request gets the database once, so it only ever sees one
+   * version of the data.
+   *
+   * @param database gets the current `Database`
+   */
+  public UserController(Supplier<UserDatabase> database) {
+    this(database, null);
+  }
+
+  /**
+   * Construct a controller that caches the results of queries.
+   *
+   * @param database gets the current `Database`
+   * @param cache    where to cache query results, or null to not cache them
+   */
+  public UserController(Supplier<UserDatabase> database, ResultCache cache) {
     this.database = database;
+    this.cache = cache;
   }
 
   /**
@@ -29,6 +66,7 @@ public class UserController {
    * @param ctx a Javalin HTTP context
    */
   public void getUser(Context ctx) {
+    UserDatabase database = this.database.get();
     String id = ctx.pathParam("id", String.class).get();
     User user = database.getUser(id);
     if (user != null) {
@@ -39,14 +77,75 @@ public class UserController {
     }
   }
 
+  /**
+   * Look up the users whose IDs are given, as a JSON array, in the request
+   * body. The response has the users in the same order, with `null` in place
+   * of each ID that no user has.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUsersBatch(Context ctx) {
+    String[] ids = BatchRequest.ids(ctx);
+    UserDatabase database = this.database.get();
+    int[] rows = database.getRows(ids);
+    StreamingJson.json(ctx, rows.length, out -> database.writeJson(out, rows), 0);
+  }
+
   /**
    * Get a JSON response with a list of all the users in the "database".
+   * <p>
+   * If the list was cut short by a `limit`, the cursor for the next page is
+   * sent in the `X-Next-Cursor` header.
+   * <p>
+   * The response has an ETag, and a request whose `If-None-Match` has that ETag
+   * gets an empty 304 response.
+   * <p>
+   * With a `fields` query parameter like `fields=_id,name`, only those fields
+   * of each user are sent.
    *
    * @param ctx a Javalin HTTP context
    */
   public void getUsers(Context ctx) {
-    User[] users = database.listUsers(ctx.queryParamMap());
-    ctx.json(users);
+    UserDatabase database = this.database.get();
+    Map<String, List<String>> queryParams = ctx.queryParamMap();
+    Projection<User[]> projection = UserDatabase.FIELDS.fromQuery(queryParams);
+    database.validateQuery(queryParams);
+
+    // A client that already has this version of the result doesn't need it
+    // again, so don't even run the query
+    String cacheKey = ResultCache.key(queryParams);
+    String etag = ConditionalRequests.etag(database.fingerprint(), cacheKey);
+    if (ConditionalRequests.notModified(ctx, etag)) {
+      return;
+    }
+
+    // A repeated query can be answered straight from the cache
+    if (cache != null) {
+      ResultCache.Entry cached = cache.get(database, cacheKey);
+      if (cached != null) {
+        if (cached.getNextCursor() != null) {
+          ctx.header(PageCursor.NEXT_CURSOR_HEADER, cached.getNextCursor());
+        }
+        ConditionalRequests.tag(ctx, etag);
+        StreamingJson.send(ctx, cached);
+        return;
+      }
+    }
+
+    int[] rows = database.listRows(queryParams);
+    String nextCursor = database.nextCursor(rows, queryParams);
+    if (nextCursor != null) {
+      ctx.header(PageCursor.NEXT_CURSOR_HEADER, nextCursor);
+    }
+    ConditionalRequests.tag(ctx, etag);
+    int captureLimit = (cache == null) ? 0 : cache.maxEntryBytes();
+    StreamingJson.ArrayWriter writer = (projection == null)
+      ? out -> database.writeJson(out, rows)
+      : out -> database.writeJson(out, rows, projection);
+    byte[] json = StreamingJson.json(ctx, rows.length, writer, captureLimit);
+    if (cache != null && json != null) {
+      cache.put(database, cacheKey, new ResultCache.Entry(json, nextCursor, rows.length));
+    }
   }
 
 }
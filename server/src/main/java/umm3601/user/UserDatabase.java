@@ -1,14 +1,33 @@
 package umm3601.user;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.javalin.http.BadRequestResponse;
+import umm3601.Fingerprint;
+import umm3601.PageCursor;
+import umm3601.Projection;
+import umm3601.RowBuffer;
 
 /**
  * A fake "database" of user info
@@ -20,18 +39,151 @@ import io.javalin.http.BadRequestResponse;
  */
 public class UserDatabase {
 
-  private User[] allUsers;
+  private static final Logger LOGGER = LoggerFactory.getLogger(UserDatabase.class);
+
+  /**
+   * The fields of a user that a `fields` query parameter can pick from.
+   */
+  public static final Projection.Schema<User[]> FIELDS = new Projection.Schema<User[]>()
+    .field("_id", (json, users, row) -> json.writeStringField("_id", users[row]._id))
+    .field("name", (json, users, row) -> json.writeStringField("name", users[row].name))
+    .field("age", (json, users, row) -> json.writeNumberField("age", users[row].age))
+    .field("company", (json, users, row) -> json.writeStringField("company", users[row].company))
+    .field("email", (json, users, row) -> json.writeStringField("email", users[row].email));
+
+  private final User[] allUsers;
+
+  // Index from `_id` to the user's position in `allUsers`, built once when the
+  // data is loaded so that `getUser` doesn't have to scan every user.
+  private final Map<String, Integer> rowById;
+
+  // Every user's age in ascending order, next to that user's row (rows with
+  // the same age stay in row order), so the users in an age range are one
+  // binary search away.
+  private final int[] sortedAges;
+  private final int[] rowsBySortedAge;
+
+  // The rows of each company's users, in row order
+  private final Map<String, int[]> rowsByCompany;
+  private static final int[] NO_ROWS = new int[0];
+
+  // A hash of all of the users, which changes whenever the data does
+  private final long fingerprint;
+
 
   public UserDatabase(String userDataFile) throws IOException {
+    this(readUsers(
+      new InputStreamReader(UserDatabase.class.getResourceAsStream(userDataFile), StandardCharsets.UTF_8),
+      userDataFile));
+  }
+
+  /**
+   * Load a database from a JSON file outside of the classpath, such as one
+   * that is being watched for changes.
+   *
+   * @param userDataFile the JSON file of users
+   * @return the loaded database
+   * @throws IOException if the file can't be read
+   */
+  public static UserDatabase loadFile(Path userDataFile) throws IOException {
+    return new UserDatabase(readUsers(Files.newBufferedReader(userDataFile, StandardCharsets.UTF_8),
+      userDataFile.toString()));
+  }
+
+  /**
+   * Build a database from users that are already in memory, such as generated
+   * data for benchmarks.
+   *
+   * @param users the users, in row order
+   * @return the database
+   */
+  public static UserDatabase of(User[] users) {
+    return new UserDatabase(users.clone());
+  }
+
+  private UserDatabase(User[] users) {
+    allUsers = users;
+    rowById = new HashMap<>(allUsers.length * 2);
+    Fingerprint hash = new Fingerprint();
+    for (int row = 0; row < allUsers.length; row++) {
+      User user = allUsers[row];
+      // Keep the first user for a duplicated ID, which is what the old linear
+      // search would have found.
+      rowById.putIfAbsent(user._id, row);
+      hash.add(user._id).add(user.name).add(user.age).add(user.company).add(user.email);
+    }
+    fingerprint = hash.value();
+
+    // Sort by age, then row, by packing both into one long
+    long[] ageRows = new long[allUsers.length];
+    for (int row = 0; row < allUsers.length; row++) {
+      ageRows[row] = ((long) allUsers[row].age << 32) | row;
+    }
+    Arrays.sort(ageRows);
+    sortedAges = new int[allUsers.length];
+    rowsBySortedAge = new int[allUsers.length];
+    for (int i = 0; i < ageRows.length; i++) {
+      sortedAges[i] = (int) (ageRows[i] >> 32);
+      rowsBySortedAge[i] = (int) ageRows[i];
+    }
+
+    Map<String, Integer> companySizes = new HashMap<>();
+    for (User user : allUsers) {
+      if (user.company != null) {
+        companySizes.merge(user.company, 1, Integer::sum);
+      }
+    }
+    rowsByCompany = new HashMap<>(companySizes.size() * 2);
+    Map<String, Integer> filled = new HashMap<>(companySizes.size() * 2);
+    for (int row = 0; row < allUsers.length; row++) {
+      String company = allUsers[row].company;
+      if (company != null) {
+        int[] rows = rowsByCompany.computeIfAbsent(company, c -> new int[companySizes.get(c)]);
+        rows[filled.merge(company, 1, Integer::sum) - 1] = row;
+      }
+    }
+  }
+
+  /**
+   * Read the users from a JSON array.
+   */
+  private static User[] readUsers(Reader userData, String source) throws IOException {
+    // Read the users one at a time rather than parsing the whole file into a
+    // tree first, and share one copy of each company name between its users.
+    long startTime = System.nanoTime();
     Gson gson = new Gson();
-    InputStreamReader reader = new InputStreamReader(getClass().getResourceAsStream(userDataFile));
-    allUsers = gson.fromJson(reader, User[].class);
+    List<User> users = new ArrayList<>();
+    Map<String, String> companies = new HashMap<>();
+    try (JsonReader reader = new JsonReader(new BufferedReader(userData))) {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        User user = gson.fromJson(reader, User.class);
+        if (user.company != null) {
+          user.company = companies.computeIfAbsent(user.company, company -> company);
+        }
+        users.add(user);
+      }
+      reader.endArray();
+    }
+
+    long loadMillis = Math.max(1, (System.nanoTime() - startTime) / 1_000_000);
+    LOGGER.info("Loaded {} users from {} in {} ms ({} users/s)",
+      users.size(), source, loadMillis, users.size() * 1000L / loadMillis);
+    return users.toArray(new User[0]);
   }
 
   public int size() {
     return allUsers.length;
   }
 
+  /**
+   * Get a hash of all of the users. Databases with the same users in the same
+   * order have the same fingerprint, in any run of the server.
+   */
+  public long fingerprint() {
+    return fingerprint;
+  }
+
   /**
    * Get the single user specified by the given ID. Return `null` if there is no
    * user with that ID.
@@ -40,36 +192,427 @@ public class UserDatabase {
    * @return the user with the given ID, or null if there is no user with that ID
    */
   public User getUser(String id) {
-    return Arrays.stream(allUsers).filter(x -> x._id.equals(id)).findFirst().orElse(null);
+    Integer row = rowById.get(id);
+    return (row == null) ? null : allUsers[row];
+  }
+
+  /**
+   * Look up many users at once.
+   *
+   * @param ids the IDs of the desired users
+   * @return the user with each ID, in the same order, with null for each ID
+   *         that no user has
+   */
+  public User[] getUsers(String[] ids) {
+    return users(getRows(ids));
+  }
+
+  /**
+   * Look up the rows of many users at once, to be turned into users with
+   * `users` or written as JSON with `writeJson`.
+   *
+   * @param ids the IDs of the desired users
+   * @return the row of the user with each ID, in the same order, with -1 for
+   *         each ID that no user has
+   */
+  public int[] getRows(String[] ids) {
+    int[] rows = new int[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      Integer row = (ids[i] == null) ? null : rowById.get(ids[i]);
+      rows[i] = (row == null) ? -1 : row;
+    }
+    return rows;
+  }
+
+  /**
+   * Get the users in some rows of this database.
+   *
+   * @param rows rows from `listRows` or `getRows` (-1 for no user)
+   * @return the user in each row, in the same order, with null for each -1
+   */
+  public User[] users(int[] rows) {
+    User[] selected = new User[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      selected[i] = (rows[i] < 0) ? null : allUsers[rows[i]];
+    }
+    return selected;
+  }
+
+  /**
+   * Write the users in some rows of this database as a JSON array, one user
+   * at a time. This gives the same JSON as `ctx.json(...)` of `users(rows)`.
+   *
+   * @param out  where to write the JSON
+   * @param rows rows from `listRows` or `getRows` (-1 for no user)
+   * @throws IOException if writing to the stream fails
+   */
+  public void writeJson(OutputStream out, int[] rows) throws IOException {
+    writeJson(out, rows, FIELDS.all());
+  }
+
+  /**
+   * Write just some fields of the users in some rows of this database as a
+   * JSON array, one user at a time.
+   *
+   * @param out        where to write the JSON
+   * @param rows       rows from `listRows` or `getRows` (-1 for no user)
+   * @param projection the fields to write, read from the array of users
+   * @throws IOException if writing to the stream fails
+   */
+  public void writeJson(OutputStream out, int[] rows, Projection<User[]> projection) throws IOException {
+    projection.writeArray(out, allUsers, rows);
   }
 
   /**
    * Get an array of all the users satisfying the queries in the params.
+   * <p>
+   * Users can be filtered by an exact `age`, by a range of ages with `minAge`
+   * and/or `maxAge` (both inclusive), and by `company`, either one company
+   * or any of several with `company=in:A,B,C`. If there's a `limit`, at most
+   * that many users are returned. If there's an `after` cursor (see
+   * `nextCursor`), only the users that come after the cursor are returned.
    *
    * @param queryParams map of key-value pairs for the query
    * @return an array of all the users matching the given criteria
    */
   public User[] listUsers(Map<String, List<String>> queryParams) {
-    User[] filteredUsers = allUsers;
+    return users(listRows(queryParams));
+  }
 
-    // Filter age if defined
+  /**
+   * Get the rows of the users `listUsers` would return, to be turned into
+   * users with `users` or written as JSON with `writeJson`.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the rows of all the users matching the given criteria, in order
+   */
+  public int[] listRows(Map<String, List<String>> queryParams) {
+    // Filter age if defined; an exact age is just a range of one
+    int minAge = Integer.MIN_VALUE;
+    int maxAge = Integer.MAX_VALUE;
     if (queryParams.containsKey("age")) {
-      String ageParam = queryParams.get("age").get(0);
-      try {
-        int targetAge = Integer.parseInt(ageParam);
-        filteredUsers = filterUsersByAge(filteredUsers, targetAge);
-      } catch (NumberFormatException e) {
-        throw new BadRequestResponse("Specified age '" + ageParam + "' can't be parsed to an integer");
-      }
+      int targetAge = parseAge(queryParams, "age");
+      minAge = targetAge;
+      maxAge = targetAge;
+    }
+    if (queryParams.containsKey("minAge")) {
+      minAge = Math.max(minAge, parseAge(queryParams, "minAge"));
+    }
+    if (queryParams.containsKey("maxAge")) {
+      maxAge = Math.min(maxAge, parseAge(queryParams, "maxAge"));
     }
+    boolean filterAge = minAge != Integer.MIN_VALUE || maxAge != Integer.MAX_VALUE;
     // Filter company if defined
+    Set<String> targetCompanies = null;
     if (queryParams.containsKey("company")) {
-      String targetCompany = queryParams.get("company").get(0);
-      filteredUsers = filterUsersByCompany(filteredUsers, targetCompany);
+      String companyParam = queryParams.get("company").get(0);
+      targetCompanies = new HashSet<>(companyParam.startsWith("in:")
+        ? Arrays.asList(companyParam.substring("in:".length()).split(","))
+        : Arrays.asList(companyParam));
     }
     // Process other query parameters here...
 
-    return filteredUsers;
+    int targetLimit = parseLimit(queryParams);
+    int startRow = startRow(queryParams);
+
+    // Users always come out in row order, so we can start right after the
+    // cursor and stop as soon as we have enough.
+    try (RowBuffer selected = RowBuffer.acquire()) {
+      if (!filterAge && targetCompanies == null) {
+        for (int row = startRow; row < allUsers.length && selected.size() < targetLimit; row++) {
+          selected.add(row);
+        }
+        return selected.toRows();
+      }
+
+      // Otherwise the smaller of the age range and the companies' posting lists
+      // gives the candidate rows, and the other filter is checked on each of
+      // them, so only rows that pass at least one filter are ever looked at.
+      // Both are made of runs of rows in row order (one run per company, or
+      // per age), which are merged starting at the cursor, so a page only
+      // looks at the candidates up to its last row.
+      int ageFrom = 0;
+      int ageTo = allUsers.length;
+      if (filterAge && minAge > maxAge) {
+        ageTo = 0;
+      } else if (filterAge) {
+        ageFrom = firstAgeAtLeast(minAge);
+        ageTo = (maxAge == Integer.MAX_VALUE) ? allUsers.length : firstAgeAtLeast(maxAge + 1);
+      }
+      int companyRows = 0;
+      if (targetCompanies != null) {
+        for (String company : targetCompanies) {
+          companyRows += rowsByCompany.getOrDefault(company, NO_ROWS).length;
+        }
+      }
+
+      boolean checkAge = false;
+      boolean checkCompany = false;
+      RowRuns candidates = new RowRuns();
+      if (targetCompanies != null && (!filterAge || companyRows <= ageTo - ageFrom)) {
+        for (String company : targetCompanies) {
+          int[] rows = rowsByCompany.getOrDefault(company, NO_ROWS);
+          candidates.add(rows, 0, rows.length, startRow);
+        }
+        checkAge = filterAge;
+      } else {
+        int runStart = ageFrom;
+        while (runStart < ageTo) {
+          int age = sortedAges[runStart];
+          int runEnd = (age == Integer.MAX_VALUE) ? ageTo : Math.min(ageTo, firstAgeAtLeast(age + 1));
+          candidates.add(rowsBySortedAge, runStart, runEnd, startRow);
+          runStart = runEnd;
+        }
+        checkCompany = targetCompanies != null;
+      }
+
+      // Keep the candidates that pass the other filter
+      while (selected.size() < targetLimit) {
+        int row = candidates.next();
+        if (row < 0) {
+          break;
+        }
+        User user = allUsers[row];
+        if ((!checkAge || (user.age >= minAge && user.age <= maxAge))
+            && (!checkCompany || targetCompanies.contains(user.company))) {
+          selected.add(row);
+        }
+      }
+      return selected.toRows();
+    }
+  }
+
+  /**
+   * Check the parts of a query that can be wrong, its ages, `limit` and
+   * `after` cursor, so a bad query can be turned away before anything else is
+   * done with it.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @throws BadRequestResponse if the query isn't valid
+   */
+  public void validateQuery(Map<String, List<String>> queryParams) {
+    for (String param : new String[] { "age", "minAge", "maxAge" }) {
+      if (queryParams.containsKey(param)) {
+        parseAge(queryParams, param);
+      }
+    }
+    parseLimit(queryParams);
+    startRow(queryParams);
+  }
+
+  /**
+   * Get the first row after the query's `after` cursor, or 0 if there isn't
+   * one. The cursor's row is used if it still holds a user with the cursor's
+   * ID, and otherwise (if the data has been reloaded since) the row of the
+   * user with that ID.
+   */
+  private int startRow(Map<String, List<String>> queryParams) {
+    if (!queryParams.containsKey("after")) {
+      return 0;
+    }
+    PageCursor after = PageCursor.decode(queryParams.get("after").get(0));
+    // Users are only ever listed in row order
+    if (!after.getOrderBy().isEmpty()) {
+      throw new BadRequestResponse("Specified cursor is for a different orderBy");
+    }
+    int row = after.getRow();
+    if (row >= 0 && row < allUsers.length && Objects.equals(allUsers[row]._id, after.getId())) {
+      return row + 1;
+    }
+    Integer idRow = (after.getId() == null) ? null : rowById.get(after.getId());
+    if (idRow == null) {
+      throw new BadRequestResponse("Specified cursor refers to a user that doesn't exist");
+    }
+    return idRow + 1;
+  }
+
+  /**
+   * Find where the ages of at least `age` start in `sortedAges`.
+   */
+  private int firstAgeAtLeast(int age) {
+    int low = 0;
+    int high = sortedAges.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (sortedAges[middle] < age) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Merges runs of rows, each in ascending order, into one ascending
+   * sequence. A heap holds the next row of each run, packed into a `long`
+   * with the run's index, so taking the next row is O(log k) for `k` runs
+   * and nothing is copied or sorted.
+   */
+  private static class RowRuns {
+    private int[][] runRows = new int[4][];
+    private int[] positions = new int[4];
+    private int[] ends = new int[4];
+    private int runCount = 0;
+
+    private long[] heap = new long[4];
+    private int heapSize = 0;
+
+    /**
+     * Add the run `rows[from]` to `rows[to - 1]`, starting at its first row
+     * that is at least `startRow`.
+     */
+    void add(int[] rows, int from, int to, int startRow) {
+      int low = from;
+      int high = to;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (rows[middle] < startRow) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      if (low == to) {
+        return;
+      }
+      if (runCount == runRows.length) {
+        runRows = Arrays.copyOf(runRows, runCount * 2);
+        positions = Arrays.copyOf(positions, runCount * 2);
+        ends = Arrays.copyOf(ends, runCount * 2);
+        heap = Arrays.copyOf(heap, runCount * 2);
+      }
+      runRows[runCount] = rows;
+      positions[runCount] = low;
+      ends[runCount] = to;
+      heap[heapSize] = ((long) rows[low] << 32) | runCount;
+      siftUp(heapSize++);
+      runCount++;
+    }
+
+    /**
+     * Get the next row, or -1 once every run has been used up.
+     */
+    int next() {
+      if (heapSize == 0) {
+        return -1;
+      }
+      int row = (int) (heap[0] >>> 32);
+      int run = (int) heap[0];
+      int position = ++positions[run];
+      if (position < ends[run]) {
+        heap[0] = ((long) runRows[run][position] << 32) | run;
+      } else {
+        heap[0] = heap[--heapSize];
+      }
+      siftDown(0);
+      return row;
+    }
+
+    private void siftUp(int i) {
+      while (i > 0 && heap[(i - 1) / 2] > heap[i]) {
+        swap(i, (i - 1) / 2);
+        i = (i - 1) / 2;
+      }
+    }
+
+    private void siftDown(int i) {
+      while (true) {
+        int smallest = i;
+        for (int child = 2 * i + 1; child <= 2 * i + 2 && child < heapSize; child++) {
+          if (heap[child] < heap[smallest]) {
+            smallest = child;
+          }
+        }
+        if (smallest == i) {
+          return;
+        }
+        swap(i, smallest);
+        i = smallest;
+      }
+    }
+
+    private void swap(int i, int j) {
+      long swapped = heap[i];
+      heap[i] = heap[j];
+      heap[j] = swapped;
+    }
+  }
+
+  /**
+   * Get an age from the query.
+   */
+  private static int parseAge(Map<String, List<String>> queryParams, String param) {
+    String ageParam = queryParams.get(param).get(0);
+    try {
+      return Integer.parseInt(ageParam);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Specified " + param + " '" + ageParam + "' can't be parsed to an integer");
+    }
+  }
+
+  /**
+   * Get the cursor for the page after the given one, so a client can ask for
+   * it with the `after` query parameter.
+   * <p>
+   * The last user is found again by its ID, so a page ending in a user without
+   * one can't be continued this way; `nextCursor(int[], ...)`, which knows
+   * the rows, doesn't have that problem.
+   *
+   * @param page        the users returned for `queryParams`
+   * @param queryParams map of key-value pairs for the query
+   * @return the encoded cursor for the next page, or null if there isn't one
+   */
+  public String nextCursor(User[] page, Map<String, List<String>> queryParams) {
+    if (!isCutShort(page.length, queryParams)) {
+      return null;
+    }
+    String id = page[page.length - 1]._id;
+    Integer row = (id == null) ? null : rowById.get(id);
+    return cursorAfter((row == null) ? -1 : row);
+  }
+
+  /**
+   * Get the cursor for the page after the given one, like
+   * `nextCursor(User[], ...)`, for a page of rows from `listRows`.
+   *
+   * @param rows        the rows returned for `queryParams`
+   * @param queryParams map of key-value pairs for the query
+   * @return the encoded cursor for the next page, or null if there isn't one
+   */
+  public String nextCursor(int[] rows, Map<String, List<String>> queryParams) {
+    return isCutShort(rows.length, queryParams) ? cursorAfter(rows[rows.length - 1]) : null;
+  }
+
+  /**
+   * If the page wasn't cut short by the limit, there's nothing after it.
+   */
+  private static boolean isCutShort(int pageLength, Map<String, List<String>> queryParams) {
+    return queryParams.containsKey("limit") && pageLength > 0 && pageLength >= parseLimit(queryParams);
+  }
+
+  private String cursorAfter(int row) {
+    return new PageCursor("", row, (row < 0) ? null : allUsers[row]._id).encode();
+  }
+
+  /**
+   * Get the limit from the query, or `Integer.MAX_VALUE` if there isn't one.
+   */
+  private static int parseLimit(Map<String, List<String>> queryParams) {
+    if (!queryParams.containsKey("limit")) {
+      return Integer.MAX_VALUE;
+    }
+    String limitParam = queryParams.get("limit").get(0);
+    int targetLimit;
+    try {
+      targetLimit = Integer.parseInt(limitParam);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be parsed to an integer");
+    }
+    if (targetLimit < 0) {
+      throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be negative");
+    }
+    return targetLimit;
   }
 
   /**
@@ -81,7 +624,7 @@ public class UserDatabase {
    *         age
    */
   public User[] filterUsersByAge(User[] users, int targetAge) {
-    return Arrays.stream(users).filter(x -> x.age == targetAge).toArray(User[]::new);
+    return RowBuffer.select(users, x -> x.age == targetAge, User[]::new);
   }
 
   /**
@@ -93,7 +636,7 @@ public class UserDatabase {
    *         company
    */
   public User[] filterUsersByCompany(User[] users, String targetCompany) {
-    return Arrays.stream(users).filter(x -> x.company.equals(targetCompany)).toArray(User[]::new);
+    return RowBuffer.select(users, x -> targetCompany.equals(x.company), User[]::new);
   }
 
 }
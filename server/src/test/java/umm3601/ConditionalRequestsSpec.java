@@ -0,0 +1,128 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.Javalin;
+
+/**
+ * Tests that list responses have ETags that get 304s when they're sent back,
+ * and that cached results are sent gzipped to clients that accept it.
+ */
+public class ConditionalRequestsSpec {
+
+  private static Javalin server;
+  private static HttpClient client = HttpClient.newHttpClient();
+
+  @BeforeAll
+  public static void startServer() {
+    server = Server.startServer(0);
+  }
+
+  @AfterAll
+  public static void stopServer() {
+    server.stop();
+  }
+
+  private static HttpRequest.Builder request(String path) {
+    return HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + path));
+  }
+
+  private static HttpResponse<byte[]> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+    return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+  }
+
+  @Test
+  public void matchingEtagGetsNotModified() throws IOException, InterruptedException {
+    for (String path : new String[] { "/api/todos?owner=Fry", "/api/users?company=OHMNET" }) {
+      HttpResponse<byte[]> first = send(request(path));
+      assertEquals(200, first.statusCode());
+      String etag = first.headers().firstValue("ETag").orElseThrow();
+
+      HttpResponse<byte[]> second = send(request(path).header("If-None-Match", etag));
+      assertEquals(304, second.statusCode());
+      assertEquals(0, second.body().length);
+      assertEquals(etag, second.headers().firstValue("ETag").orElseThrow());
+
+      HttpResponse<byte[]> stale = send(request(path).header("If-None-Match", "\"something-else\""));
+      assertEquals(200, stale.statusCode());
+    }
+  }
+
+  @Test
+  public void badRequestsGetNoEtagOrNotModified() throws IOException, InterruptedException {
+    String[] paths = {
+      "/api/users?limit=abc", "/api/todos?limit=-1", "/api/todos?after=banana",
+      "/api/todos?fields=_id,priority", "/api/todos/_facets?groupBy=body"
+    };
+    for (String path : paths) {
+      HttpResponse<byte[]> response = send(request(path).header("If-None-Match", "*"));
+      assertEquals(400, response.statusCode(), path);
+      assertFalse(response.headers().firstValue("ETag").isPresent(), path);
+    }
+  }
+
+  @Test
+  public void everyTaggedResponseVariesByEncoding() throws IOException, InterruptedException {
+    // Not cached yet, and cached
+    for (int i = 0; i < 2; i++) {
+      HttpResponse<byte[]> response = send(request("/api/users?company=in:OHMNET,VINCH"));
+      assertEquals("Accept-Encoding", response.headers().firstValue("Vary").orElse(""));
+    }
+  }
+
+  @Test
+  public void etagDependsOnQueryButNotParameterOrder() throws IOException, InterruptedException {
+    String ownerStatus = send(request("/api/todos?owner=Fry&status=complete")).headers().firstValue("ETag").get();
+    String statusOwner = send(request("/api/todos?status=complete&owner=Fry")).headers().firstValue("ETag").get();
+    String owner = send(request("/api/todos?owner=Fry")).headers().firstValue("ETag").get();
+    assertEquals(ownerStatus, statusOwner);
+    assertNotEquals(ownerStatus, owner);
+  }
+
+  @Test
+  public void cachedResultIsSentGzipped() throws IOException, InterruptedException {
+    String path = "/api/todos?category=homework";
+    byte[] plain = send(request(path)).body();
+
+    // The first request cached the result, so this one is sent the gzipped copy
+    HttpResponse<byte[]> gzipped = send(request(path).header("Accept-Encoding", "gzip"));
+    assertEquals(200, gzipped.statusCode());
+    assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElse(""));
+    byte[] unzipped = new GZIPInputStream(new ByteArrayInputStream(gzipped.body())).readAllBytes();
+    assertEquals(new String(plain, StandardCharsets.UTF_8), new String(unzipped, StandardCharsets.UTF_8));
+    assertTrue(gzipped.body().length < plain.length);
+
+    HttpResponse<byte[]> refused = send(request(path).header("Accept-Encoding", "identity"));
+    assertFalse(refused.headers().firstValue("Content-Encoding").isPresent());
+    assertEquals(plain.length, refused.body().length);
+  }
+
+  @Test
+  public void ifNoneMatchListsAndWildcards() {
+    String etag = ConditionalRequests.etag(1, "key");
+    String strongEtag = etag.substring("W/".length());
+    assertTrue(etag.startsWith("W/\""));
+    assertTrue(ConditionalRequests.matches(etag, etag));
+    assertTrue(ConditionalRequests.matches("\"a\", " + strongEtag, etag));
+    assertTrue(ConditionalRequests.matches("*", etag));
+    assertFalse(ConditionalRequests.matches("\"a\", \"b\"", etag));
+    assertNotEquals(etag, ConditionalRequests.etag(2, "key"));
+    assertNotEquals(etag, ConditionalRequests.etag(1, "other"));
+  }
+}
@@ -0,0 +1,62 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.user.User;
+
+/**
+ * Tests that projections write just the requested fields
+ */
+public class ProjectionSpec {
+
+  private final Projection.Schema<User[]> schema = new Projection.Schema<User[]>()
+    .field("_id", (json, users, row) -> json.writeStringField("_id", users[row]._id))
+    .field("name", (json, users, row) -> json.writeStringField("name", users[row].name))
+    .field("age", (json, users, row) -> json.writeNumberField("age", users[row].age));
+
+  private static String write(User[] users, int[] rows, Projection<User[]> projection) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    projection.writeArray(out, users, rows);
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void writesOnlyTheRequestedFieldsInSchemaOrder() throws IOException {
+    User user = new User();
+    user._id = "588935f5556f992bf8f37c01";
+    user.name = "Bolton Monroe";
+    user.age = 25;
+
+    Projection<User[]> projection = schema.fromQuery(Map.of("fields", List.of("age,_id")));
+    assertEquals("[{\"_id\":\"588935f5556f992bf8f37c01\",\"age\":25},null]",
+      write(new User[] { user }, new int[] { 0, -1 }, projection));
+  }
+
+  @Test
+  public void sameFieldsShareAProjection() {
+    assertSame(schema.fromQuery(Map.of("fields", List.of("name,age"))),
+      schema.fromQuery(Map.of("fields", List.of("age,name"))));
+  }
+
+  @Test
+  public void noFieldsMeansEveryField() {
+    assertNull(schema.fromQuery(Map.of()));
+  }
+
+  @Test
+  public void unknownFieldIsABadRequest() {
+    assertThrows(BadRequestResponse.class, () -> schema.fromQuery(Map.of("fields", List.of("_id,password"))));
+  }
+}
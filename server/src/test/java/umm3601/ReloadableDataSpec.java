@@ -0,0 +1,120 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import umm3601.todos.TodosDatabase;
+
+/**
+ * Tests that data files are reloaded as whole new versions, and that a bad
+ * file doesn't replace good data.
+ */
+public class ReloadableDataSpec {
+
+  private static final String ONE_TODO = "[{\"_id\": \"a1\", \"owner\": \"Fry\", \"status\": true,"
+    + " \"body\": \"Buy milk\", \"category\": \"groceries\"}]";
+
+  private static final String TWO_TODOS = "[{\"_id\": \"a1\", \"owner\": \"Fry\", \"status\": true,"
+    + " \"body\": \"Buy milk\", \"category\": \"groceries\"},"
+    + " {\"_id\": \"b2\", \"owner\": \"Blanche\", \"status\": false,"
+    + " \"body\": \"Read a book\", \"category\": \"homework\"}]";
+
+  @TempDir
+  Path tempDir;
+
+  private static void write(Path file, String contents) throws IOException {
+    // Write somewhere else and move it into place, like an editor would, so
+    // the watcher never sees a half written file
+    Path temp = Files.createTempFile(file.getParent(), "write", ".tmp");
+    Files.write(temp, contents.getBytes(StandardCharsets.UTF_8));
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Test
+  public void reloadSwapsInNewVersion() throws IOException {
+    Path file = tempDir.resolve("todos.json");
+    write(file, ONE_TODO);
+    ReloadableData<TodosDatabase> data = new ReloadableData<>(file, TodosDatabase::loadFile);
+    TodosDatabase first = data.get();
+    assertEquals(1, data.version());
+    assertEquals(1, first.size());
+
+    write(file, TWO_TODOS);
+    assertTrue(data.reload());
+    assertEquals(2, data.version());
+    assertEquals(2, data.get().size());
+    assertNotNull(data.get().getTodo("b2"));
+
+    // Anyone still holding the old version sees exactly the old data
+    assertEquals(1, first.size());
+    assertNull(first.getTodo("b2"));
+  }
+
+  @Test
+  public void failedReloadKeepsOldVersion() throws IOException {
+    Path file = tempDir.resolve("todos.json");
+    write(file, ONE_TODO);
+    ReloadableData<TodosDatabase> data = new ReloadableData<>(file, TodosDatabase::loadFile);
+    TodosDatabase first = data.get();
+
+    write(file, "[{\"_id\": \"a1\", \"owner\": ");
+    assertFalse(data.reload());
+    assertEquals(1, data.version());
+    assertEquals(first, data.get());
+  }
+
+  @Test
+  public void watchReloadsChangedFile() throws IOException, InterruptedException {
+    Path file = tempDir.resolve("todos.json");
+    write(file, ONE_TODO);
+    ReloadableData<TodosDatabase> data = new ReloadableData<>(file, TodosDatabase::loadFile);
+    Closeable watching = data.watch();
+    try {
+      write(file, TWO_TODOS);
+      // Some platforms poll for changes rather than being told about them, so
+      // give the watcher plenty of time
+      for (int i = 0; i < 200 && data.version() == 1; i++) {
+        Thread.sleep(100);
+      }
+      assertEquals(2, data.version());
+      assertEquals(2, data.get().size());
+    } finally {
+      watching.close();
+    }
+  }
+
+  @Test
+  public void closedWatchStopsItsThread() throws IOException, InterruptedException {
+    Path file = tempDir.resolve("closed.json");
+    write(file, ONE_TODO);
+    ReloadableData<TodosDatabase> data = new ReloadableData<>(file, TodosDatabase::loadFile);
+    Closeable watching = data.watch();
+    assertTrue(isRunning("reload-closed.json"));
+
+    watching.close();
+    assertFalse(isRunning("reload-closed.json"), "The watcher thread should have stopped");
+
+    // Changes aren't picked up any more
+    write(file, TWO_TODOS);
+    Thread.sleep(1000);
+    assertEquals(1, data.version());
+  }
+
+  private static boolean isRunning(String threadName) {
+    return Thread.getAllStackTraces().keySet().stream()
+      .anyMatch(thread -> thread.getName().equals(threadName) && thread.isAlive());
+  }
+}
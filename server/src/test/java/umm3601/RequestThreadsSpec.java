@@ -0,0 +1,139 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.Javalin;
+
+/**
+ * Tests that each way of running requests serves them, and that an
+ * overloaded server turns requests away with a 503 but still serves its
+ * metrics.
+ */
+public class RequestThreadsSpec {
+
+  private static HttpClient client = HttpClient.newHttpClient();
+
+  private Javalin server;
+
+  @AfterEach
+  public void stopServer() {
+    if (server != null) {
+      server.stop();
+    }
+    System.clearProperty(RequestThreads.MODE_PROPERTY);
+    System.clearProperty(RequestThreads.MAX_WAITING_PROPERTY);
+    System.clearProperty(RequestThreads.MAX_CONCURRENT_PROPERTY);
+    System.clearProperty(RequestThreads.MAX_THREADS_PROPERTY);
+  }
+
+  private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+    return client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + path)).build(),
+      HttpResponse.BodyHandlers.ofString());
+  }
+
+  @Test
+  public void everyModeServesRequests() throws IOException, InterruptedException {
+    for (String mode : new String[] { "default", "bounded", "virtual" }) {
+      System.setProperty(RequestThreads.MODE_PROPERTY, mode);
+      server = Server.startServer(0);
+      assertEquals(200, get("/api/todos?owner=Fry").statusCode(), mode);
+      assertEquals(200, get("/api/users?age=25").statusCode(), mode);
+      server.stop();
+      server = null;
+    }
+  }
+
+  @Test
+  public void virtualFallsBackToBoundedWithoutVirtualThreads() {
+    System.setProperty(RequestThreads.MODE_PROPERTY, "virtual");
+    RequestThreads threads = RequestThreads.fromProperties();
+    RequestThreads.Mode expected = (Runtime.version().feature() >= 21)
+      ? RequestThreads.Mode.VIRTUAL
+      : RequestThreads.Mode.BOUNDED;
+    assertEquals(expected, threads.mode());
+  }
+
+  @Test
+  public void boundedLimitLeavesOutJettysThreads() {
+    System.setProperty(RequestThreads.MODE_PROPERTY, "bounded");
+    System.setProperty(RequestThreads.MAX_THREADS_PROPERTY, "40");
+    int limit = RequestThreads.fromProperties().loadShedder().maxConcurrentRequests();
+    assertTrue(limit >= 1 && limit < 40, Integer.toString(limit));
+    // Jetty's threads are at least an acceptor, a selector, and a reserved
+    // thread
+    assertTrue(limit <= 40 - 3, Integer.toString(limit));
+
+    System.setProperty(RequestThreads.MAX_CONCURRENT_PROPERTY, "7");
+    assertEquals(7, RequestThreads.fromProperties().loadShedder().maxConcurrentRequests());
+  }
+
+  @Test
+  public void boundedServerShedsRequestsPastItsLimit() throws Exception {
+    System.setProperty(RequestThreads.MODE_PROPERTY, "bounded");
+    System.setProperty(RequestThreads.MAX_CONCURRENT_PROPERTY, "1");
+    server = Server.startServer(0);
+
+    // Hold the only slot with a request that waits to be let go
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    server.get("/test/slow", ctx -> {
+      started.countDown();
+      release.await();
+      ctx.result("done");
+    });
+    CompletableFuture<HttpResponse<String>> slow = client.sendAsync(
+      HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/test/slow")).build(),
+      HttpResponse.BodyHandlers.ofString());
+    started.await();
+
+    try {
+      HttpResponse<String> shed = get("/api/todos?owner=Fry");
+      assertEquals(503, shed.statusCode());
+      assertEquals("1", shed.headers().firstValue("Retry-After").orElse(""));
+      String metrics = get(Server.METRICS_PATH).body();
+      assertTrue(metrics.contains("\nhttp_requests_shed_total 1\n"), metrics);
+      assertTrue(metrics.contains("\nhttp_requests_in_flight 1\n"), metrics);
+    } finally {
+      release.countDown();
+    }
+    assertEquals(200, slow.get().statusCode());
+
+    // With the slot free again, requests are served
+    assertEquals(200, get("/api/todos?owner=Fry").statusCode());
+  }
+
+  @Test
+  public void overloadedServerShedsRequests() throws IOException, InterruptedException {
+    // With no room for waiting requests at all, every request counts as one
+    // too many
+    System.setProperty(RequestThreads.MODE_PROPERTY, "bounded");
+    System.setProperty(RequestThreads.MAX_WAITING_PROPERTY, "-1");
+    server = Server.startServer(0);
+
+    HttpResponse<String> shed = get("/api/todos");
+    assertEquals(503, shed.statusCode());
+    assertEquals("1", shed.headers().firstValue("Retry-After").orElse(""));
+
+    HttpResponse<String> metrics = get(Server.METRICS_PATH);
+    assertEquals(200, metrics.statusCode());
+    // The request was turned away before it reached a route, so only its
+    // status says what happened
+    assertTrue(metrics.body().contains("status=\"503\"} 1"), metrics.body());
+    // The load shedder counts it too, and the metrics request itself isn't
+    // counted as in flight
+    assertTrue(metrics.body().contains("\nhttp_requests_shed_total 1\n"), metrics.body());
+    assertTrue(metrics.body().contains("\nhttp_requests_in_flight 0\n"), metrics.body());
+  }
+}
@@ -0,0 +1,93 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the result cache is bounded, evicts the least recently used
+ * results, and never mixes up results from different databases.
+ */
+public class ResultCacheSpec {
+
+  private static final Object DATABASE = new Object();
+
+  private static ResultCache.Entry entry(int bytes) {
+    return new ResultCache.Entry(new byte[bytes], null, 0);
+  }
+
+  @Test
+  public void keyIgnoresParameterOrder() {
+    Map<String, List<String>> query1 = new LinkedHashMap<>();
+    query1.put("owner", List.of("Fry"));
+    query1.put("status", List.of("complete"));
+    Map<String, List<String>> query2 = new LinkedHashMap<>();
+    query2.put("status", List.of("complete"));
+    query2.put("owner", List.of("Fry"));
+    assertEquals(ResultCache.key(query1), ResultCache.key(query2));
+
+    Map<String, List<String>> query3 = new HashMap<>();
+    query3.put("owner", List.of("Frystatus"));
+    query3.put("complete", List.of(""));
+    assertNotEquals(ResultCache.key(query1), ResultCache.key(query3));
+  }
+
+  @Test
+  public void hitsAndMisses() {
+    ResultCache cache = new ResultCache(10_000);
+    assertNull(cache.get(DATABASE, "a"));
+    ResultCache.Entry entry = entry(100);
+    cache.put(DATABASE, "a", entry);
+    assertSame(entry, cache.get(DATABASE, "a"));
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    ResultCache cache = new ResultCache(1000);
+    cache.put(DATABASE, "a", entry(300));
+    cache.put(DATABASE, "b", entry(300));
+    // Use `a`, so `b` is now the least recently used
+    assertNotNull(cache.get(DATABASE, "a"));
+    cache.put(DATABASE, "c", entry(300));
+
+    assertNotNull(cache.get(DATABASE, "a"));
+    assertNull(cache.get(DATABASE, "b"));
+    assertNotNull(cache.get(DATABASE, "c"));
+    assertEquals(1, cache.evictions());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void tooBigEntryIsNotCached() {
+    ResultCache cache = new ResultCache(1000);
+    cache.put(DATABASE, "a", entry(2000));
+    assertNull(cache.get(DATABASE, "a"));
+    assertEquals(0, cache.bytes());
+  }
+
+  @Test
+  public void newDatabaseEmptiesCache() {
+    ResultCache cache = new ResultCache(10_000);
+    cache.put(DATABASE, "a", entry(100));
+    Object reloaded = new Object();
+    assertNull(cache.get(reloaded, "a"));
+    assertEquals(0, cache.size());
+
+    // A slow request for the old database can still store its result, but it
+    // is never handed out for the new one
+    cache.put(reloaded, "a", entry(100));
+    cache.put(DATABASE, "b", entry(100));
+    assertNull(cache.get(reloaded, "b"));
+  }
+}
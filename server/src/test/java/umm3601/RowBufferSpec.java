@@ -0,0 +1,94 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the row buffer grows as needed, is reused and emptied once it's
+ * given back, and that `select` keeps elements in order.
+ */
+public class RowBufferSpec {
+
+  @Test
+  public void growsAndIsReused() {
+    RowBuffer buffer = RowBuffer.acquire();
+    for (int row = 0; row < 5000; row++) {
+      buffer.add(row * 2);
+    }
+    assertEquals(5000, buffer.size());
+    assertEquals(9998, buffer.get(4999));
+
+    // A buffer that's still in use isn't handed out again
+    RowBuffer other = RowBuffer.acquire();
+    assertNotSame(buffer, other);
+    other.close();
+    buffer.close();
+
+    // Once given back, it's reused, emptied
+    assertTrue(acquiredAgain(buffer), "The buffer should have been reused");
+    assertEquals(0, buffer.size());
+  }
+
+  /**
+   * Acquire buffers until the given one comes out of the pool (it may not be
+   * first in line), then give them all back.
+   */
+  private static boolean acquiredAgain(RowBuffer buffer) {
+    List<RowBuffer> acquired = new ArrayList<>();
+    boolean found = false;
+    for (int i = 0; i < 1024 && !found; i++) {
+      RowBuffer next = RowBuffer.acquire();
+      acquired.add(next);
+      found = next == buffer;
+    }
+    acquired.forEach(RowBuffer::close);
+    return found;
+  }
+
+  @Test
+  public void reusedAcrossThreads() throws InterruptedException {
+    RowBuffer buffer = RowBuffer.acquire();
+    buffer.add(42);
+    buffer.close();
+
+    // Each virtual request thread is new, so the pool mustn't be per thread
+    boolean[] reused = new boolean[1];
+    Thread thread = new Thread(() -> reused[0] = acquiredAgain(buffer));
+    thread.start();
+    thread.join();
+    assertTrue(reused[0], "The buffer should have been reused on another thread");
+  }
+
+  @Test
+  public void filtersInPlaceAndSorts() {
+    RowBuffer buffer = RowBuffer.acquire();
+    for (int row : new int[] { 7, 3, 9, 1, 4 }) {
+      buffer.add(row);
+    }
+    buffer.sort();
+    // Keep the odd rows, writing over the ones already looked at
+    int kept = 0;
+    for (int i = 0; i < buffer.size(); i++) {
+      if (buffer.get(i) % 2 == 1) {
+        buffer.set(kept++, buffer.get(i));
+      }
+    }
+    buffer.truncate(kept);
+    assertArrayEquals(new Integer[] { 1, 3, 7, 9 }, buffer.toArray(Integer[]::new, row -> row));
+  }
+
+  @Test
+  public void selectKeepsOrder() {
+    String[] words = { "apple", "kiwi", "avocado", "banana", "apricot" };
+    assertArrayEquals(new String[] { "apple", "avocado", "apricot" },
+      RowBuffer.select(words, word -> word.startsWith("a"), String[]::new));
+    assertEquals(0, RowBuffer.select(words, word -> false, String[]::new).length);
+  }
+}
@@ -0,0 +1,73 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that sections come back out of a snapshot as they went in, and that
+ * a section too big to map is turned down when it's written or opened
+ * rather than overflowing.
+ */
+public class SnapshotFileSpec {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void sectionsRoundTrip() throws IOException {
+    Path file = tempDir.resolve("test.snapshot");
+    new SnapshotFile.Builder()
+      .putInts("a", IntBuffer.wrap(new int[] { 1, -2, 3 }))
+      .putStrings("b", new String[] { "x", null, "yz" })
+      .write(file);
+
+    SnapshotFile snapshot = SnapshotFile.open(file);
+    int[] ints = new int[3];
+    snapshot.ints("a").get(ints);
+    assertArrayEquals(new int[] { 1, -2, 3 }, ints);
+    assertArrayEquals(new String[] { "x", null, "yz" }, snapshot.strings("b"));
+  }
+
+  @Test
+  public void sectionsOverTheLimitAreRefused() {
+    assertEquals(SnapshotFile.MAX_SECTION_BYTES - 3,
+      SnapshotFile.Builder.sectionBytes("fits", SnapshotFile.MAX_SECTION_BYTES - 3, 1));
+
+    // 600 million `int`s would wrap around to a small positive `int` size
+    IllegalArgumentException tooBig = assertThrows(IllegalArgumentException.class,
+      () -> SnapshotFile.Builder.sectionBytes("todos.trigrams.rows", 600_000_000L, Integer.BYTES));
+    assertTrue(tooBig.getMessage().contains("'todos.trigrams.rows' would be 2400000000 bytes"),
+      tooBig.getMessage());
+  }
+
+  @Test
+  public void openingASectionOverTheLimitFails() throws IOException {
+    Path file = tempDir.resolve("test.snapshot");
+    new SnapshotFile.Builder().putInts("a", IntBuffer.wrap(new int[] { 1 })).write(file);
+
+    // Claim that the section is bigger than a buffer can map. Its length
+    // comes after the magic bytes, version, section count, the length of its
+    // name, the name and its offset.
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      ByteBuffer length = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+        .putLong(0, 3_000_000_000L);
+      channel.write(length, 8 + 4 + 4 + 2 + 1 + 8);
+    }
+
+    IOException tooBig = assertThrows(IOException.class, () -> SnapshotFile.open(file));
+    assertTrue(tooBig.getMessage().contains("section of 3000000000 bytes"), tooBig.getMessage());
+  }
+}
@@ -0,0 +1,201 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.Context;
+import io.javalin.plugin.json.JavalinJackson;
+import umm3601.todos.Todos;
+import umm3601.todos.TodosDatabase;
+import umm3601.user.User;
+import umm3601.user.UserDatabase;
+
+/**
+ * Tests that JSON written from the databases is the same as what
+ * `ctx.json(...)` would send, and how it's sent
+ */
+public class StreamingJsonSpec {
+
+  @Test
+  public void todosWrittenFromColumnsMatchCtxJson() throws IOException {
+    TodosDatabase database = new TodosDatabase(Server.TODOS_DATA_FILE);
+    int[] rows = database.listRows(new HashMap<>());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    database.writeJson(out, rows);
+    assertEquals(JavalinJackson.INSTANCE.toJson(database.todos(rows)), out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void writtenUsersMatchCtxJson() throws IOException {
+    UserDatabase database = new UserDatabase(Server.USER_DATA_FILE);
+    int[] rows = database.listRows(new HashMap<>());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    database.writeJson(out, rows);
+    assertEquals(JavalinJackson.INSTANCE.toJson(database.users(rows)), out.toString(StandardCharsets.UTF_8));
+
+    // Missing users are null
+    rows = database.getRows(new String[] { "588935f5556f992bf8f37c01", "nobody", null });
+    out = new ByteArrayOutputStream();
+    database.writeJson(out, rows);
+    assertEquals(JavalinJackson.INSTANCE.toJson(database.users(rows)), out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void writtenTodosWithTheSameIdKeepTheirOwnJson() throws IOException {
+    Todos first = new Todos();
+    first._id = "dup";
+    first.owner = "Blanche";
+    first.body = "first";
+    first.category = "homework";
+    Todos second = new Todos();
+    second._id = "dup";
+    second.owner = "Blanche";
+    second.body = "second";
+    second.category = "homework";
+    TodosDatabase database = TodosDatabase.of(List.of(first, second));
+    int[] rows = database.listRows(new HashMap<>());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    database.writeJson(out, rows);
+    assertEquals(JavalinJackson.INSTANCE.toJson(new Todos[] { first, second }), out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void writtenUsersWithTheSameIdKeepTheirOwnJson() throws IOException {
+    User first = new User();
+    first._id = "dup";
+    first.name = "first";
+    User second = new User();
+    second._id = "dup";
+    second.name = "second";
+    UserDatabase database = UserDatabase.of(new User[] { first, second });
+    int[] rows = database.listRows(new HashMap<>());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    database.writeJson(out, rows);
+    assertEquals(JavalinJackson.INSTANCE.toJson(new User[] { first, second }), out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void writtenEmptyArray() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new TodosDatabase(Server.TODOS_DATA_FILE).writeJson(out, new int[0]);
+    assertEquals("[]", out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void smallResultIsHandedToJavalin() throws IOException {
+    TodosDatabase database = new TodosDatabase(Server.TODOS_DATA_FILE);
+    int[] rows = database.listRows(Map.of("limit", List.of("10")));
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    Context ctx = new Context(mock(HttpServletRequest.class), response, new HashMap<>());
+
+    byte[] captured = StreamingJson.json(ctx, rows.length, out -> database.writeJson(out, rows), Integer.MAX_VALUE);
+    assertEquals(JavalinJackson.INSTANCE.toJson(database.todos(rows)), new String(captured, StandardCharsets.UTF_8));
+    assertArrayEquals(captured, ctx.resultStream().readAllBytes());
+    verify(response, never()).getOutputStream();
+  }
+
+  @Test
+  public void capturedStreamMatchesWhatWasSent() throws IOException {
+    TodosDatabase database = new TodosDatabase(Server.TODOS_DATA_FILE);
+    int[] page = database.listRows(new HashMap<>());
+    int[] rows = new int[StreamingJson.STREAMING_THRESHOLD];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = page[i % page.length];
+    }
+    StreamingJson.ArrayWriter writer = out -> database.writeJson(out, rows);
+
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        sent.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {
+      }
+    });
+
+    Context ctx = new Context(mock(HttpServletRequest.class), response, new HashMap<>());
+
+    byte[] captured = StreamingJson.json(ctx, rows.length, writer, Integer.MAX_VALUE);
+    assertArrayEquals(sent.toByteArray(), captured);
+    assertEquals(JavalinJackson.INSTANCE.toJson(database.todos(rows)), new String(captured, StandardCharsets.UTF_8));
+
+    // Too big to keep
+    assertNull(StreamingJson.json(ctx, rows.length, writer, 100));
+  }
+
+  @Test
+  public void streamIsGzippedForClientsThatAcceptIt() throws IOException {
+    TodosDatabase database = new TodosDatabase(Server.TODOS_DATA_FILE);
+    int[] page = database.listRows(new HashMap<>());
+    int[] rows = new int[StreamingJson.STREAMING_THRESHOLD];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = page[i % page.length];
+    }
+    StreamingJson.ArrayWriter writer = out -> database.writeJson(out, rows);
+
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        sent.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {
+      }
+    });
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+
+    Context ctx = new Context(request, response, new HashMap<>());
+    byte[] captured = StreamingJson.json(ctx, rows.length, writer, Integer.MAX_VALUE);
+
+    // What was sent is gzipped, but what was kept (for the cache) isn't
+    verify(response).setHeader("Content-Encoding", "gzip");
+    byte[] unzipped = new GZIPInputStream(new ByteArrayInputStream(sent.toByteArray())).readAllBytes();
+    assertEquals(JavalinJackson.INSTANCE.toJson(database.todos(rows)), new String(unzipped, StandardCharsets.UTF_8));
+    assertArrayEquals(unzipped, captured);
+    assertTrue(sent.size() < captured.length / 4);
+  }
+}
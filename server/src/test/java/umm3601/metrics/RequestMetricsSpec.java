@@ -0,0 +1,102 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.Javalin;
+import umm3601.Server;
+
+/**
+ * Tests that requests to a running server show up in `/api/metrics`.
+ */
+public class RequestMetricsSpec {
+
+  private static Javalin server;
+  private static HttpClient client = HttpClient.newHttpClient();
+
+  @BeforeAll
+  public static void startServer() {
+    server = Server.startServer(0);
+  }
+
+  @AfterAll
+  public static void stopServer() {
+    server.stop();
+  }
+
+  private static HttpResponse<String> get(String path) throws IOException, InterruptedException {
+    return client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + path)).build(),
+      HttpResponse.BodyHandlers.ofString());
+  }
+
+  @Test
+  public void histogramBucketsAreCumulative() {
+    Histogram histogram = new Histogram(1, 10, 100);
+    histogram.record(0.5);
+    histogram.record(5);
+    histogram.record(7);
+    histogram.record(1000);
+    StringBuilder out = new StringBuilder();
+    histogram.writeTo(out, "size", "route=\"/x\"");
+    assertEquals(String.join("\n",
+      "size_bucket{route=\"/x\",le=\"1\"} 1",
+      "size_bucket{route=\"/x\",le=\"10\"} 3",
+      "size_bucket{route=\"/x\",le=\"100\"} 3",
+      "size_bucket{route=\"/x\",le=\"+Inf\"} 4",
+      "size_sum{route=\"/x\"} 1012.5",
+      "size_count{route=\"/x\"} 4",
+      ""), out.toString());
+  }
+
+  @Test
+  public void requestsAreGroupedByRouteAndParameterNames() throws IOException, InterruptedException {
+    get("/api/todos?status=complete&owner=Fry");
+    get("/api/todos?owner=Blanche&status=incomplete");
+    get("/api/todos?contains=sit");
+
+    HttpResponse<String> response = get("/api/metrics");
+    assertEquals(200, response.statusCode());
+    assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+    String metrics = response.body();
+    String ownerStatus = "method=\"GET\",route=\"/api/todos\",params=\"owner,status\",status=\"200\"";
+    String contains = "method=\"GET\",route=\"/api/todos\",params=\"contains\",status=\"200\"";
+    assertTrue(metrics.contains("http_requests_total{" + ownerStatus + "} 2\n"), metrics);
+    assertTrue(metrics.contains("http_requests_total{" + contains + "} 1\n"), metrics);
+    assertTrue(metrics.contains("http_request_duration_seconds_count{" + ownerStatus + "} 2\n"), metrics);
+    assertTrue(metrics.contains("http_response_results_count{" + contains + "} 1\n"), metrics);
+    assertTrue(metrics.contains("http_response_bytes_count{" + contains + "} 1\n"), metrics);
+  }
+
+  @Test
+  public void unknownTodoIsCountedWithItsStatus() throws IOException, InterruptedException {
+    get("/api/todos/no-such-todo");
+    String metrics = get("/api/metrics").body();
+    assertTrue(metrics.contains(
+      "http_requests_total{method=\"GET\",route=\"/api/todos/:id\",params=\"\",status=\"404\"} 1\n"), metrics);
+  }
+
+  @Test
+  public void repeatedQueryIsServedFromCache() throws IOException, InterruptedException {
+    HttpResponse<String> first = get("/api/users?company=OHMNET&age=27");
+    HttpResponse<String> second = get("/api/users?age=27&company=OHMNET");
+    assertEquals(first.body(), second.body());
+    assertEquals("application/json", second.headers().firstValue("Content-Type").orElse(""));
+
+    String metrics = get("/api/metrics").body();
+    Matcher hits = Pattern.compile("result_cache_hits_total\\{cache=\"users\"\\} (\\d+)").matcher(metrics);
+    assertTrue(hits.find(), metrics);
+    assertTrue(Long.parseLong(hits.group(1)) >= 1, metrics);
+  }
+}
@@ -0,0 +1,119 @@
+package umm3601.todos;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that splitting a scan across threads gives exactly the same todos, in
+ * the same order, as scanning on one thread.
+ */
+public class ParallelScanSpec {
+
+  private static final String[] OWNERS = { "Blanche", "Fry", "Barry", "Workman", "Dawn" };
+  private static final String[] WORDS = { "lorem", "ipsum", "dolor", "sit", "amet", "ea", "in" };
+
+  private static TodosDatabase database(int count) {
+    List<Todos> todos = new ArrayList<>();
+    for (int row = 0; row < count; row++) {
+      Todos todo = new Todos();
+      todo._id = String.format("%024x", row * 7919L);
+      todo.owner = OWNERS[row % OWNERS.length];
+      todo.status = row % 3 == 0;
+      todo.body = WORDS[row % WORDS.length] + " " + WORDS[(row / 7) % WORDS.length];
+      todo.category = (row % 11 == 0) ? "homework" : "groceries";
+      todos.add(todo);
+    }
+    return TodosDatabase.of(todos);
+  }
+
+  private static Map<String, List<String>> query(String... keysAndValues) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      queryParams.put(keysAndValues[i], Arrays.asList(new String[] { keysAndValues[i + 1] }));
+    }
+    return queryParams;
+  }
+
+  @Test
+  public void parallelResultsMatchSequential() {
+    TodosDatabase db = database(20_000);
+    String[][] queries = {
+      {},
+      { "contains", "ea" },
+      { "status", "complete", "contains", "in" },
+      { "status", "incomplete", "limit", "25" },
+      { "contains", "si", "orderBy", "owner" },
+      { "status", "complete", "orderBy", "body", "limit", "1000" },
+      { "category", "groceries", "orderBy", "category" },
+      { "owner", "Fry", "contains", "or" }
+    };
+    Map<String, Todos[]> expected = new HashMap<>();
+    for (String[] query : queries) {
+      expected.put(Arrays.toString(query), db.listTodos(query(query)));
+    }
+
+    ParallelScan scan = new ParallelScan(4, 1000);
+    TodosDatabase.setParallelScan(scan);
+    try {
+      for (String[] query : queries) {
+        assertArrayEquals(expected.get(Arrays.toString(query)), db.listTodos(query(query)),
+          "Different todos for " + Arrays.toString(query));
+      }
+    } finally {
+      TodosDatabase.setParallelScan(ParallelScan.SEQUENTIAL);
+      scan.shutdown();
+    }
+  }
+
+  @Test
+  public void scanKeepsOrderAndLimit() {
+    ParallelScan scan = new ParallelScan(3, 1000);
+    try {
+      // Walk the rows backwards, keeping multiples of 3
+      int[] all = scan.scan(0, 50_000, i -> 49_999 - i, row -> row % 3 == 0, Integer.MAX_VALUE);
+      assertArrayEquals(IntStream.iterate(49_998, row -> row - 3).limit(16_667).toArray(), all);
+
+      int[] firstTen = scan.scan(100, 50_000, i -> i, row -> row % 3 == 0, 10);
+      assertArrayEquals(IntStream.iterate(102, row -> row + 3).limit(10).toArray(), firstTen);
+      assertEquals(0, scan.scan(0, 50_000, i -> i, row -> false, 5).length);
+    } finally {
+      scan.shutdown();
+    }
+  }
+
+  @Test
+  public void smallScansStaySequential() {
+    ParallelScan scan = new ParallelScan(2, 5000);
+    try {
+      assertFalse(scan.shouldSplit(4999, Integer.MAX_VALUE));
+      assertTrue(scan.shouldSplit(5000, Integer.MAX_VALUE));
+      assertFalse(ParallelScan.SEQUENTIAL.shouldSplit(Integer.MAX_VALUE, Integer.MAX_VALUE));
+    } finally {
+      scan.shutdown();
+    }
+  }
+
+  @Test
+  public void scansWithASmallLimitStaySequential() {
+    // Each task gets 1024 rows at the least
+    ParallelScan scan = new ParallelScan(2, 5000);
+    try {
+      assertFalse(scan.shouldSplit(1000000, 20));
+      assertFalse(scan.shouldSplit(1000000, 1023));
+      assertTrue(scan.shouldSplit(1000000, 1024));
+    } finally {
+      scan.shutdown();
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package umm3601.todos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.plugin.json.JavalinJackson;
+
+/**
+ * Tests that the columns give back exactly the todos that were put in
+ */
+public class TodosColumnsSpec {
+
+  private static Todos todo(String id, String owner, boolean status, String body, String category) {
+    Todos todo = new Todos();
+    todo._id = id;
+    todo.owner = owner;
+    todo.status = status;
+    todo.body = body;
+    todo.category = category;
+    return todo;
+  }
+
+  private static final Todos[] TODOS = {
+    todo("a1", "Fry", true, "Buy milk", "groceries"),
+    todo("b2", "Blanche", false, "Crème brûlée recipe", "homework"),
+    todo("c3", "Fry", false, "", "groceries"),
+    todo("a1", "Dawn", true, "Duplicate ID", "video games")
+  };
+
+  private static TodosColumns build() {
+    TodosColumns.Builder builder = new TodosColumns.Builder();
+    for (Todos todo : TODOS) {
+      builder.add(todo);
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void rowsRoundTrip() {
+    TodosColumns columns = build();
+    assertEquals(TODOS.length, columns.size());
+    for (int row = 0; row < TODOS.length; row++) {
+      assertEquals(TODOS[row], columns.todo(row));
+    }
+  }
+
+  @Test
+  public void dictionaryCodes() {
+    TodosColumns columns = build();
+    assertEquals(3, columns.ownerCount());
+    assertEquals(3, columns.categoryCount());
+    assertEquals(columns.ownerCode(0), columns.ownerCode(2));
+    assertEquals(columns.ownerCode(0), columns.ownerCode("Fry"));
+    assertEquals(-1, columns.ownerCode("Nobody"));
+    assertEquals(-1, columns.categoryCode("Nothing"));
+  }
+
+  @Test
+  public void findRowKeepsFirstDuplicate() {
+    TodosColumns columns = build();
+    assertEquals(0, columns.findRow("a1"));
+    assertEquals(1, columns.findRow("b2"));
+    assertEquals(2, columns.findRow("c3"));
+    assertEquals(-1, columns.findRow("d4"));
+  }
+
+  @Test
+  public void bodyContainsMatchesStringContains() {
+    TodosColumns columns = build();
+    String[] targets = { "", "milk", "Buy milk", "brûl", "û", "e r", "milky", "z" };
+    for (int row = 0; row < TODOS.length; row++) {
+      for (String target : targets) {
+        assertEquals(TODOS[row].body.contains(target),
+          columns.bodyContains(row, target, target.getBytes(StandardCharsets.UTF_8)),
+          "Wrong answer for '" + target + "' in row " + row);
+      }
+    }
+  }
+
+  @Test
+  public void compareBodiesMatchesStringCompareTo() {
+    // Includes a character outside the Basic Multilingual Plane, which sorts
+    // differently in UTF-8 than in Java's UTF-16 strings
+    String[] bodies = { "", "a", "ab", "b", "é", "\uFFFD", "\uD83D\uDE00", "z\uD83D\uDE00", "z\uFFFD" };
+    TodosColumns.Builder builder = new TodosColumns.Builder();
+    for (int row = 0; row < bodies.length; row++) {
+      builder.add(todo("id" + row, "Fry", false, bodies[row], "groceries"));
+    }
+    TodosColumns columns = builder.build();
+    for (int row1 = 0; row1 < bodies.length; row1++) {
+      for (int row2 = 0; row2 < bodies.length; row2++) {
+        assertEquals(Integer.signum(bodies[row1].compareTo(bodies[row2])),
+          Integer.signum(columns.compareBodies(row1, row2)),
+          "Wrong order for rows " + row1 + " and " + row2);
+      }
+    }
+  }
+
+  @Test
+  public void missingAttributesRoundTrip() {
+    Todos[] todos = {
+      todo("a1", "Fry", true, "Buy milk", "groceries"),
+      todo(null, null, false, null, null),
+      todo("c3", null, true, "", "homework"),
+      todo(null, "Fry", false, "Eat", null)
+    };
+    TodosColumns.Builder builder = new TodosColumns.Builder();
+    for (Todos todo : todos) {
+      builder.add(todo);
+    }
+    TodosColumns columns = builder.build();
+    for (int row = 0; row < todos.length; row++) {
+      assertEquals(todos[row], columns.todo(row));
+    }
+
+    // Missing values come first, and a missing body contains nothing
+    assertTrue(columns.compareOwners(1, 0) < 0);
+    assertEquals(0, columns.compareOwners(1, 2));
+    assertTrue(columns.compareCategories(3, 2) < 0);
+    assertTrue(columns.compareBodies(1, 2) < 0);
+    assertTrue(columns.compareIds(3, 0) < 0);
+    assertEquals(0, columns.compareIds(1, 3));
+    assertFalse(columns.bodyContains(1, "", new byte[0]));
+    assertTrue(columns.bodyContains(2, "", new byte[0]));
+    assertEquals(2, columns.findRow("c3"));
+  }
+
+  @Test
+  public void writtenIdsAndBodiesMatchJackson() throws IOException {
+    String[] texts = { "", "plain", "\"quoted\" \\ back", "line\nbreak\ttab\u0001", "Crème brûlée \uD83D\uDE00", null };
+    TodosColumns.Builder builder = new TodosColumns.Builder();
+    for (String text : texts) {
+      builder.add(todo(text, "Fry", false, text, "groceries"));
+    }
+    TodosColumns columns = builder.build();
+
+    ObjectMapper mapper = JavalinJackson.getObjectMapper();
+    for (int row = 0; row < texts.length; row++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+        generator.writeStartArray();
+        columns.writeId(generator, row);
+        columns.writeBody(generator, row);
+        generator.writeEndArray();
+      }
+      assertEquals(mapper.writeValueAsString(new String[] { texts[row], texts[row] }),
+        out.toString(StandardCharsets.UTF_8), "Different JSON for row " + row);
+    }
+  }
+
+  @Test
+  public void bodiesWithUnpairedSurrogatesRoundTrip() throws IOException {
+    // Bodies that have no UTF-8 encoding, mixed in with ones that do
+    String[] bodies = { "what? who?", "what\ud800 who?", "\udc00", "pair \uD83D\uDE00 half \uD83D", "\uD83D\uDE00", "" };
+    TodosColumns.Builder builder = new TodosColumns.Builder();
+    for (int row = 0; row < bodies.length; row++) {
+      builder.add(todo("id" + row, "Fry", false, bodies[row], "groceries"));
+    }
+    TodosColumns columns = builder.build();
+
+    String[] targets = { "", "?", "what", "\ud800", "what\ud800", "\udc00", "\uD83D", "\uDE00", "\uD83D\uDE00", "half \uD83D" };
+    for (int row = 0; row < bodies.length; row++) {
+      assertEquals(bodies[row], columns.body(row), "Different body in row " + row);
+      for (String target : targets) {
+        byte[] targetUtf8 = TodosColumns.isWellFormed(target) ? target.getBytes(StandardCharsets.UTF_8) : null;
+        assertEquals(bodies[row].contains(target), columns.bodyContains(row, target, targetUtf8),
+          "Wrong answer for '" + target + "' in row " + row);
+      }
+      for (int row2 = 0; row2 < bodies.length; row2++) {
+        assertEquals(Integer.signum(bodies[row].compareTo(bodies[row2])),
+          Integer.signum(columns.compareBodies(row, row2)),
+          "Wrong order for rows " + row + " and " + row2);
+      }
+    }
+
+    ObjectMapper mapper = JavalinJackson.getObjectMapper();
+    for (int row = 0; row < bodies.length; row++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+        columns.writeBody(generator, row);
+      }
+      // Unpaired surrogates are escaped, so the JSON reads back exactly
+      assertEquals(bodies[row], mapper.readValue(out.toByteArray(), String.class), "Different JSON for row " + row);
+    }
+  }
+
+  @Test
+  public void idsWithUnpairedSurrogatesRoundTrip() throws IOException {
+    // The last three would all be "id?" in UTF-8, and must stay different IDs
+    String[] ids = { "id", "id?", "id\ud800", "id\udc00", "\uD83D\uDE00\uD83D" };
+    TodosColumns.Builder builder = new TodosColumns.Builder();
+    for (String id : ids) {
+      builder.add(todo(id, "Fry", false, "Buy milk", "groceries"));
+    }
+    TodosColumns columns = builder.build();
+
+    ObjectMapper mapper = JavalinJackson.getObjectMapper();
+    for (int row = 0; row < ids.length; row++) {
+      assertEquals(ids[row], columns.id(row), "Different ID in row " + row);
+      assertEquals(row, columns.findRow(ids[row]), "Wrong row for ID in row " + row);
+      for (int row2 = 0; row2 < ids.length; row2++) {
+        assertEquals(Integer.signum(ids[row].compareTo(ids[row2])),
+          Integer.signum(columns.compareIds(row, row2)),
+          "Wrong order for rows " + row + " and " + row2);
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+        columns.writeId(generator, row);
+      }
+      assertEquals(ids[row], mapper.readValue(out.toByteArray(), String.class), "Different JSON for row " + row);
+    }
+    assertEquals(-1, columns.findRow("id\ud801"));
+  }
+}
@@ -1,11 +1,16 @@
 package umm3601.todos;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -20,8 +25,11 @@ import io.javalin.core.validation.Validator;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.NotFoundResponse;
+import io.javalin.plugin.json.JavalinJackson;
 
 
+import umm3601.BatchRequest;
+import umm3601.PageCursor;
 import umm3601.Server;
 
 /**
@@ -49,10 +57,8 @@ public class TodosControllerSpec {
     // Call the method on the mock controller
     TodosController.getTodos(ctx);
 
-    // Confirm that `json` was called with all the todos.
-    ArgumentCaptor<Todos[]> argument = ArgumentCaptor.forClass(Todos[].class);
-    verify(ctx).json(argument.capture());
-    assertEquals(db.size(), argument.getValue().length);
+    // Confirm that all the todos were sent.
+    assertEquals(db.size(), sentTodos().length);
     //test
   }
 
@@ -66,10 +72,8 @@ public class TodosControllerSpec {
     when(ctx.queryParamMap()).thenReturn(queryParams);
     TodosController.getTodos(ctx);
 
-    // Confirm that there were only 10 todos passed to `json`
-    ArgumentCaptor<Todos[]> argument = ArgumentCaptor.forClass(Todos[].class);
-    verify(ctx).json(argument.capture());
-    assertEquals(10, argument.getValue().length);
+    // Confirm that only 10 todos were sent
+    assertEquals(10, sentTodos().length);
   }
 
 
@@ -103,10 +107,8 @@ public class TodosControllerSpec {
     when(ctx.queryParamMap()).thenReturn(queryParams);
     TodosController.getTodos(ctx);
 
-    // Confirm that all the todos passed to `json` have a completed status.
-    ArgumentCaptor<Todos[]> argument = ArgumentCaptor.forClass(Todos[].class);
-    verify(ctx).json(argument.capture());
-    for (Todos todos : argument.getValue()) {
+    // Confirm that all the todos sent have a completed status.
+    for (Todos todos : sentTodos()) {
       assertEquals(true, todos.status);
     }
   }
@@ -119,10 +121,8 @@ public class TodosControllerSpec {
     when(ctx.queryParamMap()).thenReturn(queryParams);
     TodosController.getTodos(ctx);
 
-    // Confirm that all the todos passed to `json` have a incomplete status.
-    ArgumentCaptor<Todos[]> argument = ArgumentCaptor.forClass(Todos[].class);
-    verify(ctx).json(argument.capture());
-    for (Todos todos : argument.getValue()) {
+    // Confirm that all the todos sent have a incomplete status.
+    for (Todos todos : sentTodos()) {
       assertEquals(false, todos.status);
     }
   }
@@ -136,10 +136,8 @@ public class TodosControllerSpec {
     when(ctx.queryParamMap()).thenReturn(queryParams);
     TodosController.getTodos(ctx);
 
-    // Confirm that all the todos passed to `json` have a body that contains "cillum"
-    ArgumentCaptor<Todos[]> argument = ArgumentCaptor.forClass(Todos[].class);
-    verify(ctx).json(argument.capture());
-    for (Todos todos : argument.getValue()) {
+    // Confirm that all the todos sent have a body that contains "cillum"
+    for (Todos todos : sentTodos()) {
       assertEquals(true, todos.body.contains("cillum"));
     }
   }
@@ -152,10 +150,8 @@ public class TodosControllerSpec {
     when(ctx.queryParamMap()).thenReturn(queryParams);
     TodosController.getTodos(ctx);
 
-    // Confirm that all the todos passed to `json` have the owner "Fry"
-    ArgumentCaptor<Todos[]> argument = ArgumentCaptor.forClass(Todos[].class);
-    verify(ctx).json(argument.capture());
-    for (Todos todos : argument.getValue()) {
+    // Confirm that all the todos sent have the owner "Fry"
+    for (Todos todos : sentTodos()) {
       assertEquals(true, todos.owner.equals("Fry"));
     }
   }
@@ -168,10 +164,8 @@ public class TodosControllerSpec {
     when(ctx.queryParamMap()).thenReturn(queryParams);
     TodosController.getTodos(ctx);
 
-    // Confirm that all the todos passed to `json` have the category "groceries"
-    ArgumentCaptor<Todos[]> argument = ArgumentCaptor.forClass(Todos[].class);
-    verify(ctx).json(argument.capture());
-    for (Todos todos : argument.getValue()) {
+    // Confirm that all the todos sent have the category "groceries"
+    for (Todos todos : sentTodos()) {
       assertEquals(true, todos.category.equals("groceries"));
     }
   }
@@ -257,6 +251,208 @@ public class TodosControllerSpec {
   }
 
 
+  @Test
+  public void GET_to_filter_owner_category_status_matches_full_scan() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] { "Blanche" }));
+    queryParams.put("category", Arrays.asList(new String[] { "homework" }));
+    queryParams.put("status", Arrays.asList(new String[] { "incomplete" }));
+
+    Todos[] indexedTodos = db.listTodos(queryParams);
+
+    // Confirm that the indexes find the same todos, in the same order, as
+    // filtering every todo one attribute at a time
+    Todos[] scannedTodos = db.listTodos(new HashMap<>());
+    scannedTodos = db.filterTodosByOwner(scannedTodos, "Blanche");
+    scannedTodos = db.filterTodosByCategory(scannedTodos, "homework");
+    scannedTodos = db.filterTodosByStatus(scannedTodos, false);
+    assertEquals(true, scannedTodos.length > 0);
+    Assertions.assertArrayEquals(scannedTodos, indexedTodos);
+  }
+
+  @Test
+  public void GET_to_request_todos_with_unknown_owner() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] { "Nobody" }));
+    queryParams.put("status", Arrays.asList(new String[] { "complete" }));
+
+    // Confirm that an owner with no todos gives an empty result
+    assertEquals(0, db.listTodos(queryParams).length);
+  }
+
+
+  @Test
+  public void GET_to_sort_todos_leaves_data_unchanged() throws IOException {
+    Todos[] unsortedTodos = db.listTodos(new HashMap<>());
+    Todos[] sortedTodos = db.sortTodos(unsortedTodos, "owner");
+
+    // Confirm that sorting didn't reorder the todos we passed in, or the
+    // database's own todos
+    Assertions.assertNotSame(unsortedTodos, sortedTodos);
+    Assertions.assertArrayEquals(db.listTodos(new HashMap<>()), unsortedTodos);
+  }
+
+  @Test
+  public void GET_to_sort_filtered_todos_matches_sortTodos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("category", Arrays.asList(new String[] { "groceries" }));
+    Todos[] filteredTodos = db.listTodos(queryParams);
+
+    // Confirm that the precomputed orders agree with sorting the filtered todos
+    for (String attribute : new String[] { "owner", "category", "body", "status" }) {
+      queryParams.put("orderBy", Arrays.asList(new String[] { attribute }));
+      Assertions.assertArrayEquals(db.sortTodos(filteredTodos, attribute), db.listTodos(queryParams));
+    }
+  }
+
+  @Test
+  public void GET_to_request_top_sorted_todos_matches_sortTodos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("status", Arrays.asList(new String[] { "incomplete" }));
+    queryParams.put("category", Arrays.asList(new String[] { "groceries" }));
+    Todos[] filteredTodos = db.listTodos(queryParams);
+
+    // Confirm that picking the first few from a bounded heap agrees with
+    // sorting every filtered todo and cutting the result short
+    queryParams.put("limit", Arrays.asList(new String[] { "7" }));
+    for (String attribute : new String[] { "owner", "category", "body", "status" }) {
+      queryParams.put("orderBy", Arrays.asList(new String[] { attribute }));
+      Todos[] sortedTodos = db.sortTodos(filteredTodos, attribute);
+      Todos[] firstPage = db.listTodos(queryParams);
+      Assertions.assertArrayEquals(Arrays.copyOf(sortedTodos, 7), firstPage);
+
+      // ...and for the page after it
+      queryParams.put("after", Arrays.asList(new String[] { db.nextCursor(firstPage, queryParams) }));
+      Assertions.assertArrayEquals(Arrays.copyOfRange(sortedTodos, 7, 14), db.listTodos(queryParams));
+      queryParams.remove("after");
+    }
+  }
+
+  @Test
+  public void GET_to_request_limit_larger_than_todos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] { "100000" }));
+
+    // Confirm that we just get all the todos
+    assertEquals(db.size(), db.listTodos(queryParams).length);
+  }
+
+  @Test
+  public void GET_to_request_todos_with_negative_limit() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] { "-1" }));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      TodosController.getTodos(ctx);
+    });
+  }
+
+  @Test
+  public void GET_to_request_todos_with_illegal_cursor() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("after", Arrays.asList(new String[] { "banana" }));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      TodosController.getTodos(ctx);
+    });
+  }
+
+  @Test
+  public void GET_to_request_limited_todos_sends_next_cursor() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] { "10" }));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    TodosController.getTodos(ctx);
+
+    // Confirm that the cursor for the next page was sent
+    verify(ctx).header(eq(PageCursor.NEXT_CURSOR_HEADER), anyString());
+  }
+
+  @Test
+  public void GET_to_page_through_all_todos() throws IOException {
+    assertEquals(Arrays.asList(db.listTodos(new HashMap<>())), pageThroughTodos(new HashMap<>(), 7));
+  }
+
+  @Test
+  public void GET_to_page_through_sorted_filtered_todos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] { "owner" }));
+    queryParams.put("status", Arrays.asList(new String[] { "complete" }));
+
+    List<Todos> expected = Arrays.asList(db.listTodos(queryParams));
+    assertEquals(expected, pageThroughTodos(queryParams, 10));
+  }
+
+  @Test
+  public void GET_to_page_through_todos_by_long_bodies() throws IOException {
+    // Bodies far longer than a header or URL can hold, some with unpaired
+    // surrogates, and IDs with unpaired surrogates
+    List<Todos> todos = new ArrayList<>();
+    for (String text : new String[] { "b", "a\ud800", "a\udc00", "a?", "c" }) {
+      Todos todo = new Todos();
+      todo._id = "id " + text;
+      todo.owner = "Fry";
+      todo.body = text.repeat(50_000);
+      todo.category = "homework";
+      todos.add(todo);
+    }
+    TodosDatabase longDb = TodosDatabase.of(todos);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] { "body" }));
+    List<Todos> expected = Arrays.asList(longDb.listTodos(queryParams));
+
+    queryParams.put("limit", Arrays.asList(new String[] { "1" }));
+    List<Todos> allPages = new ArrayList<>();
+    while (true) {
+      int[] page = longDb.listRows(queryParams);
+      allPages.addAll(Arrays.asList(longDb.todos(page)));
+      String nextCursor = longDb.nextCursor(page, queryParams);
+      if (nextCursor == null) {
+        break;
+      }
+      // The cursor doesn't hold the body, so it stays small
+      Assertions.assertTrue(nextCursor.length() < 100, nextCursor);
+      queryParams.put("after", Arrays.asList(new String[] { nextCursor }));
+    }
+    assertEquals(expected, allPages);
+  }
+
+  @Test
+  public void GET_to_request_todos_with_cursor_for_other_order() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] { "owner" }));
+    queryParams.put("limit", Arrays.asList(new String[] { "3" }));
+    String nextCursor = db.nextCursor(db.listRows(queryParams), queryParams);
+
+    queryParams.put("orderBy", Arrays.asList(new String[] { "body" }));
+    queryParams.put("after", Arrays.asList(new String[] { nextCursor }));
+    Assertions.assertThrows(BadRequestResponse.class, () -> db.listRows(queryParams));
+  }
+
+  /**
+   * Get every todo matching the query by following the next-page cursors,
+   * `pageSize` todos at a time.
+   */
+  private List<Todos> pageThroughTodos(Map<String, List<String>> queryParams, int pageSize) {
+    Map<String, List<String>> pageParams = new HashMap<>(queryParams);
+    pageParams.put("limit", Arrays.asList(new String[] { Integer.toString(pageSize) }));
+
+    List<Todos> allPages = new ArrayList<>();
+    while (true) {
+      Todos[] page = db.listTodos(pageParams);
+      allPages.addAll(Arrays.asList(page));
+      String nextCursor = db.nextCursor(page, pageParams);
+      if (nextCursor == null) {
+        return allPages;
+      }
+      pageParams.put("after", Arrays.asList(new String[] { nextCursor }));
+    }
+  }
+
+
   @Test
   public void GET_to_request_todo_with_existent_id() throws IOException {
     when(ctx.pathParam("id", String.class)).thenReturn(new Validator<String>("58895985a22c04e761776d54", "", "id"));
@@ -272,5 +468,157 @@ public class TodosControllerSpec {
     });
   }
 
+  @Test
+  public void GET_to_request_facets_counts_every_todo() throws IOException {
+    Map<String, Object> facets = db.facets(new HashMap<>(), Arrays.asList("owner", "category", "status"));
+
+    assertEquals(db.size(), facets.get("total"));
+    for (String attribute : new String[] { "owner", "category", "status" }) {
+      @SuppressWarnings("unchecked")
+      Map<String, Integer> counts = (Map<String, Integer>) facets.get(attribute);
+      assertEquals(db.size(), counts.values().stream().mapToInt(Integer::intValue).sum());
+    }
+  }
+
+  @Test
+  public void GET_to_request_filtered_facets_matches_listTodos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] { "Blanche" }));
+    queryParams.put("contains", Arrays.asList(new String[] { "in" }));
+    Todos[] filteredTodos = db.listTodos(queryParams);
+
+    Map<String, Object> facets = db.facets(queryParams, Arrays.asList("category", "status"));
+    assertEquals(filteredTodos.length, facets.get("total"));
+    assertEquals(false, facets.containsKey("owner"));
+
+    // Confirm that each count agrees with filtering the todos again
+    @SuppressWarnings("unchecked")
+    Map<String, Integer> categoryCounts = (Map<String, Integer>) facets.get("category");
+    for (Map.Entry<String, Integer> count : categoryCounts.entrySet()) {
+      assertEquals(db.filterTodosByCategory(filteredTodos, count.getKey()).length, count.getValue());
+    }
+    @SuppressWarnings("unchecked")
+    Map<String, Integer> statusCounts = (Map<String, Integer>) facets.get("status");
+    assertEquals(db.filterTodosByStatus(filteredTodos, true).length, statusCounts.getOrDefault("complete", 0));
+  }
+
+  @Test
+  public void GET_to_request_facets_with_illegal_groupBy() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("groupBy", Arrays.asList(new String[] { "owner,body" }));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      TodosController.getTodoFacets(ctx);
+    });
+  }
+
+  @Test
+  public void GET_to_request_facets_sends_counts() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("groupBy", Arrays.asList(new String[] { "status" }));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    TodosController.getTodoFacets(ctx);
+
+    verify(ctx).json(db.facets(queryParams, Arrays.asList("status")));
+  }
+
+  @Test
+  public void GET_to_request_all_fields_matches_ctx_json() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("fields", Arrays.asList(new String[] { "category,_id,body,status,owner" }));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    TodosController.getTodos(ctx);
+
+    // Confirm that projecting every field gives the same JSON as Jackson
+    ArgumentCaptor<InputStream> argument = ArgumentCaptor.forClass(InputStream.class);
+    verify(ctx).result(argument.capture());
+    assertEquals(JavalinJackson.INSTANCE.toJson(db.listTodos(new HashMap<>())),
+      new String(argument.getValue().readAllBytes(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void GET_to_request_some_fields() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("fields", Arrays.asList(new String[] { "_id,owner" }));
+    queryParams.put("limit", Arrays.asList(new String[] { "1" }));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    TodosController.getTodos(ctx);
+
+    ArgumentCaptor<InputStream> argument = ArgumentCaptor.forClass(InputStream.class);
+    verify(ctx).result(argument.capture());
+    assertEquals("[{\"_id\":\"58895985a22c04e761776d54\",\"owner\":\"Blanche\"}]",
+      new String(argument.getValue().readAllBytes(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void GET_to_request_unknown_field() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("fields", Arrays.asList(new String[] { "_id,priority" }));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      TodosController.getTodos(ctx);
+    });
+  }
+
+  @Test
+  public void POST_to_batch_returns_todos_in_order_with_nulls_for_misses() throws IOException {
+    when(ctx.body()).thenReturn("[\"58895985c1849992336c219b\", \"nonexistent\", \"58895985a22c04e761776d54\"]");
+    TodosController.getTodosBatch(ctx);
+
+    Todos[] found = sentTodos();
+    assertEquals(3, found.length);
+    assertEquals("58895985c1849992336c219b", found[0]._id);
+    assertEquals(null, found[1]);
+    assertEquals("58895985a22c04e761776d54", found[2]._id);
+  }
+
+  @Test
+  public void GET_to_request_todos_sharing_an_id() throws IOException {
+    Todos first = new Todos();
+    first._id = "dup";
+    first.body = "first";
+    Todos second = new Todos();
+    second._id = "dup";
+    second.body = "second";
+    new TodosController(TodosDatabase.of(List.of(first, second))).getTodos(ctx);
+
+    // Confirm that each todo was sent with its own body
+    Todos[] sent = sentTodos();
+    assertEquals(2, sent.length);
+    assertEquals("first", sent[0].body);
+    assertEquals("second", sent[1].body);
+  }
+
+  @Test
+  public void POST_to_batch_with_illegal_body() {
+    when(ctx.body()).thenReturn("{\"ids\": 12}");
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      TodosController.getTodosBatch(ctx);
+    });
+  }
+
+  @Test
+  public void POST_to_batch_with_too_many_ids() {
+    String[] ids = new String[BatchRequest.MAX_IDS + 1];
+    Arrays.fill(ids, "\"58895985a22c04e761776d54\"");
+    when(ctx.body()).thenReturn("[" + String.join(",", ids) + "]");
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      TodosController.getTodosBatch(ctx);
+    });
+  }
 
+  /**
+   * Get the todos that were sent as the JSON result of the request.
+   */
+  private Todos[] sentTodos() throws IOException {
+    ArgumentCaptor<InputStream> argument = ArgumentCaptor.forClass(InputStream.class);
+    verify(ctx).result(argument.capture());
+    String json = new String(argument.getValue().readAllBytes(), StandardCharsets.UTF_8);
+    return JavalinJackson.INSTANCE.fromJson(json, Todos[].class);
+  }
 }
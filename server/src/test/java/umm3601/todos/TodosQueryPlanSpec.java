@@ -0,0 +1,178 @@
+package umm3601.todos;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.Server;
+
+/**
+ * Tests that the query planner starts from the most selective index, checks
+ * the cheap filters before the expensive ones, and that whatever it picks,
+ * the results are the same as applying every filter one after another.
+ */
+public class TodosQueryPlanSpec {
+
+  private static Map<String, List<String>> query(String... keysAndValues) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      queryParams.put(keysAndValues[i], Arrays.asList(new String[] { keysAndValues[i + 1] }));
+    }
+    return queryParams;
+  }
+
+  private static Todos todo(int row, String owner, boolean status, String body) {
+    Todos todo = new Todos();
+    todo._id = String.format("%024d", row);
+    todo.owner = owner;
+    todo.status = status;
+    todo.body = body;
+    todo.category = (row % 2 == 0) ? "even" : "odd";
+    return todo;
+  }
+
+  // 100 todos: two owned by "Rare", one that mentions zebras, and only a
+  // few complete ones
+  private static TodosDatabase skewedDatabase() {
+    List<Todos> todos = new ArrayList<>();
+    for (int row = 0; row < 100; row++) {
+      String owner = (row == 10 || row == 20) ? "Rare" : "Common";
+      String body = (row == 30) ? "a zebra ipsum dolor sit amet" : "lorem ipsum dolor sit amet";
+      todos.add(todo(row, owner, row % 25 == 0, body));
+    }
+    return TodosDatabase.of(todos);
+  }
+
+  @Test
+  public void smallestIndexDrivesThePlan() {
+    TodosDatabase db = skewedDatabase();
+    assertEquals("index(owner) then check(contains)", db.plan(query("owner", "Rare", "contains", "lorem")).toString());
+    assertEquals("index(contains) then check(contains, owner)",
+      db.plan(query("owner", "Common", "contains", "zebra")).toString());
+    assertEquals("index(category) then check(status)",
+      db.plan(query("category", "odd", "status", "incomplete")).toString());
+    assertEquals("scan", db.plan(query()).toString());
+  }
+
+  @Test
+  public void cheapSelectiveChecksGoFirst() {
+    TodosDatabase db = skewedDatabase();
+    // Few todos are complete, so checking the status rules out most rows
+    // before any body is searched
+    assertEquals("scan then check(status, contains)",
+      db.plan(query("status", "complete", "contains", "ip")).toString());
+  }
+
+  @Test
+  public void unknownValuesNeedNoWork() {
+    TodosDatabase db = skewedDatabase();
+    assertTrue(db.plan(query("owner", "Nobody", "contains", "lorem")).isEmpty());
+    assertTrue(db.plan(query("contains", "giraffe")).isEmpty());
+    assertEquals(0, db.listTodos(query("category", "none", "status", "complete")).length);
+  }
+
+  @Test
+  public void plannedResultsMatchFilteringInTurn() throws IOException {
+    TodosDatabase db = new TodosDatabase(Server.TODOS_DATA_FILE);
+    Todos[] allTodos = db.listTodos(query());
+    String[][] queries = {
+      { "owner", "Fry", "status", "complete" },
+      { "owner", "Blanche", "contains", "sit" },
+      { "category", "homework", "contains", "ea" },
+      { "category", "groceries", "status", "incomplete", "contains", "Ut" },
+      { "owner", "Workman", "category", "software design", "status", "complete", "contains", "in" },
+      { "status", "complete", "contains", "dolore" }
+    };
+    for (String[] keysAndValues : queries) {
+      Map<String, List<String>> queryParams = query(keysAndValues);
+      Todos[] expected = allTodos;
+      if (queryParams.containsKey("owner")) {
+        expected = db.filterTodosByOwner(expected, queryParams.get("owner").get(0));
+      }
+      if (queryParams.containsKey("category")) {
+        expected = db.filterTodosByCategory(expected, queryParams.get("category").get(0));
+      }
+      if (queryParams.containsKey("status")) {
+        expected = db.filterTodosByStatus(expected, queryParams.get("status").get(0).equals("complete"));
+      }
+      if (queryParams.containsKey("contains")) {
+        expected = db.filterTodosByBody(expected, queryParams.get("contains").get(0));
+      }
+      assertArrayEquals(expected, db.listTodos(queryParams), "Different todos for " + queryParams);
+    }
+  }
+
+  @Test
+  public void containsTargetsWithoutUtf8MatchLikeStrings() {
+    List<Todos> todos = new ArrayList<>();
+    todos.add(todo(0, "Common", false, "what? who?"));
+    todos.add(todo(1, "Common", false, "what now"));
+    todos.add(todo(2, "Common", false, "what\ud800 who?"));
+    todos.add(todo(3, "Common", false, "smile \ud83d\ude00"));
+    TodosDatabase db = TodosDatabase.of(todos);
+    Todos[] allTodos = todos.toArray(new Todos[0]);
+
+    // An unpaired surrogate would be encoded as '?', so mustn't match it,
+    // but does match itself and half of a pair
+    String[] targets = { "\ud800", "what\ud800", "what\udc00", "?\ud83d who", "\ud83d", "? who", "who?", "\ud800 who" };
+    for (String target : targets) {
+      assertArrayEquals(db.filterTodosByBody(allTodos, target), db.listTodos(query("contains", target)),
+        "Different todos for " + target);
+    }
+    assertEquals(0, db.listTodos(query("contains", "what\udc00")).length);
+    assertEquals(1, db.listTodos(query("contains", "? who")).length);
+    assertEquals(2, db.listTodos(query("contains", "who?")).length);
+    assertEquals(todos.get(2), db.getTodo(todos.get(2)._id));
+  }
+
+  @Test
+  public void sortedRowsMatchSortTodos() {
+    // Few distinct values, so there are lots of ties, including ties on ID
+    // that only the row breaks
+    Random random = new Random(3601);
+    String[] values = { null, "a", "b", "\uD83D\uDE00", "\uFFFD", "id\ud800" };
+    List<Todos> todos = new ArrayList<>();
+    for (int row = 0; row < 500; row++) {
+      Todos todo = new Todos();
+      todo._id = values[random.nextInt(values.length)];
+      todo.owner = values[random.nextInt(values.length)];
+      todo.status = random.nextBoolean();
+      todo.body = values[random.nextInt(values.length)] + random.nextInt(3);
+      todo.category = values[random.nextInt(values.length)];
+      todos.add(todo);
+    }
+    TodosDatabase db = TodosDatabase.of(todos);
+    Todos[] all = db.todos(IntStream.range(0, todos.size()).toArray());
+
+    for (String orderBy : new String[] { "owner", "category", "body", "status" }) {
+      assertArrayEquals(db.sortTodos(all, orderBy), db.todos(db.listRows(query("orderBy", orderBy, "limit", "500"))),
+        orderBy);
+    }
+  }
+
+  @Test
+  public void sortRowsIsStable() {
+    Random random = new Random(3601);
+    for (int size : new int[] { 0, 1, 2, 3, 17, 1000 }) {
+      int[] keys = random.ints(size, 0, 10).toArray();
+      int[] rows = IntStream.range(0, size).toArray();
+      TodosDatabase.sortRows(rows, (row1, row2) -> Integer.compare(keys[row1], keys[row2]));
+      int[] expected = IntStream.range(0, size).boxed()
+        .sorted((row1, row2) -> Integer.compare(keys[row1], keys[row2]))
+        .mapToInt(Integer::intValue)
+        .toArray();
+      assertArrayEquals(expected, rows, "size " + size);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package umm3601.todos;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.javalin.plugin.json.JavalinJackson;
+import umm3601.Projection;
+import umm3601.Server;
+
+/**
+ * Tests that a database opened from a snapshot answers queries exactly like
+ * the one that wrote it
+ */
+public class TodosSnapshotSpec {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void snapshotAnswersQueriesLikeJson() throws IOException {
+    TodosDatabase jsonDb = new TodosDatabase(Server.TODOS_DATA_FILE);
+    Path snapshotFile = tempDir.resolve("todos.snapshot");
+    jsonDb.writeSnapshot(snapshotFile);
+    TodosDatabase snapshotDb = TodosDatabase.openSnapshot(snapshotFile);
+
+    assertEquals(jsonDb.size(), snapshotDb.size());
+    assertEquals(jsonDb.fingerprint(), snapshotDb.fingerprint());
+    assertEquals(jsonDb.getTodo("58895985a22c04e761776d54"), snapshotDb.getTodo("58895985a22c04e761776d54"));
+    assertNull(snapshotDb.getTodo("nonexistent"));
+
+    String[][] queries = {
+      {},
+      { "owner", "Fry" },
+      { "category", "homework", "status", "complete" },
+      { "contains", "cillum" },
+      { "contains", "ea", "orderBy", "body" },
+      { "owner", "Blanche", "orderBy", "category", "limit", "5" },
+      { "orderBy", "status" }
+    };
+    for (String[] query : queries) {
+      Map<String, List<String>> queryParams = new HashMap<>();
+      for (int i = 0; i < query.length; i += 2) {
+        queryParams.put(query[i], Arrays.asList(new String[] { query[i + 1] }));
+      }
+      assertArrayEquals(jsonDb.listTodos(queryParams), snapshotDb.listTodos(queryParams),
+        "Different todos for " + queryParams);
+    }
+  }
+
+  @Test
+  public void rewritingASnapshotLeavesOpenOnesAlone() throws IOException {
+    Path snapshotFile = tempDir.resolve("todos.snapshot");
+    TodosDatabase jsonDb = new TodosDatabase(Server.TODOS_DATA_FILE);
+    jsonDb.writeSnapshot(snapshotFile);
+    TodosDatabase openDb = TodosDatabase.openSnapshot(snapshotFile);
+
+    // Replace the snapshot with a much smaller one while the first is mapped
+    Todos todo = jsonDb.getTodo("58895985a22c04e761776d54");
+    TodosDatabase.of(List.of(todo)).writeSnapshot(snapshotFile);
+
+    assertArrayEquals(jsonDb.listTodos(new HashMap<>()), openDb.listTodos(new HashMap<>()));
+    assertEquals(1, TodosDatabase.openSnapshot(snapshotFile).size());
+    try (Stream<Path> files = Files.list(tempDir)) {
+      assertEquals(List.of(snapshotFile), files.collect(Collectors.toList()),
+        "The temporary file should have been moved into place");
+    }
+  }
+
+  @Test
+  public void snapshotToolReadsAGivenDataFile() throws IOException {
+    Path dataFile = tempDir.resolve("todos.json");
+    try (InputStream todos = Server.class.getResourceAsStream(Server.TODOS_DATA_FILE)) {
+      Files.copy(todos, dataFile);
+    }
+    Path snapshotFile = tempDir.resolve("todos.snapshot");
+    TodosSnapshot.main(new String[] { snapshotFile.toString(), dataFile.toString() });
+
+    assertEquals(TodosDatabase.loadFile(dataFile).fingerprint(),
+      TodosDatabase.openSnapshot(snapshotFile).fingerprint());
+  }
+
+  @Test
+  public void todosMissingAttributesLoadAndSnapshot() throws IOException {
+    Path dataFile = tempDir.resolve("todos.json");
+    Files.writeString(dataFile, "["
+      + "{\"_id\": \"a1\", \"owner\": \"Fry\", \"status\": true, \"body\": \"Buy milk\", \"category\": \"groceries\"},"
+      + "{\"_id\": \"b2\", \"status\": false},"
+      + "{\"owner\": \"Fry\", \"body\": \"No ID\", \"category\": \"homework\"},"
+      + "{\"_id\": \"d4\", \"owner\": \"Blanche\", \"body\": \"Read\"}"
+      + "]");
+    TodosDatabase jsonDb = TodosDatabase.loadFile(dataFile);
+    Path snapshotFile = tempDir.resolve("todos.snapshot");
+    jsonDb.writeSnapshot(snapshotFile);
+    TodosDatabase snapshotDb = TodosDatabase.openSnapshot(snapshotFile);
+
+    Todos[] all = jsonDb.listTodos(new HashMap<>());
+    assertEquals(4, all.length);
+    assertNull(all[1].owner);
+    assertNull(all[1].body);
+    assertNull(all[2]._id);
+    assertArrayEquals(all, snapshotDb.listTodos(new HashMap<>()));
+
+    for (String orderBy : new String[] { "owner", "category", "body", "status" }) {
+      Map<String, List<String>> queryParams = new HashMap<>();
+      queryParams.put("orderBy", List.of(orderBy));
+      Todos[] sorted = jsonDb.sortTodos(all, orderBy);
+      assertArrayEquals(sorted, jsonDb.listTodos(queryParams), "Different order by " + orderBy);
+      assertArrayEquals(sorted, snapshotDb.listTodos(queryParams), "Different order by " + orderBy);
+
+      // Page through one todo at a time, past the missing values (including
+      // the todo without an ID, whose row the cursor keeps)
+      queryParams.put("limit", List.of("1"));
+      List<Todos> paged = new ArrayList<>();
+      while (true) {
+        int[] page = snapshotDb.listRows(queryParams);
+        paged.addAll(Arrays.asList(snapshotDb.todos(page)));
+        String nextCursor = snapshotDb.nextCursor(page, queryParams);
+        if (nextCursor == null) {
+          break;
+        }
+        queryParams.put("after", List.of(nextCursor));
+      }
+      assertEquals(Arrays.asList(sorted), paged, "Different pages by " + orderBy);
+    }
+
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", List.of("Fry"));
+    queryParams.put("contains", List.of("ID"));
+    assertArrayEquals(new Todos[] { all[2] }, snapshotDb.listTodos(queryParams));
+  }
+
+  @Test
+  public void bodiesWithUnpairedSurrogatesSnapshot() throws IOException {
+    List<Todos> todos = new ArrayList<>();
+    for (String body : new String[] { "what? who?", "what\ud800 who?", "\udc00" }) {
+      Todos todo = new Todos();
+      todo._id = "id" + todos.size();
+      todo.owner = "Fry";
+      todo.body = body;
+      todo.category = "homework";
+      todos.add(todo);
+    }
+    Path snapshotFile = tempDir.resolve("todos.snapshot");
+    TodosDatabase.of(todos).writeSnapshot(snapshotFile);
+    TodosDatabase snapshotDb = TodosDatabase.openSnapshot(snapshotFile);
+
+    assertArrayEquals(todos.toArray(new Todos[0]), snapshotDb.listTodos(new HashMap<>()));
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("contains", List.of("\ud800"));
+    assertArrayEquals(new Todos[] { todos.get(1) }, snapshotDb.listTodos(queryParams));
+  }
+
+  @Test
+  public void idsWithUnpairedSurrogatesSnapshot() throws IOException {
+    // All three would be "id?" in UTF-8
+    List<Todos> todos = new ArrayList<>();
+    for (String id : new String[] { "id?", "id\ud800", "id\udc00" }) {
+      Todos todo = new Todos();
+      todo._id = id;
+      todo.owner = "Fry";
+      todo.body = "Body of " + id;
+      todo.category = "homework";
+      todos.add(todo);
+    }
+    Path snapshotFile = tempDir.resolve("todos.snapshot");
+    TodosDatabase.of(todos).writeSnapshot(snapshotFile);
+    TodosDatabase snapshotDb = TodosDatabase.openSnapshot(snapshotFile);
+
+    assertArrayEquals(todos.toArray(new Todos[0]), snapshotDb.listTodos(new HashMap<>()));
+    for (Todos todo : todos) {
+      assertEquals(todo, snapshotDb.getTodo(todo._id));
+    }
+  }
+
+  @Test
+  public void projectionsOfASnapshotMatchJson() throws IOException {
+    Path snapshotFile = tempDir.resolve("todos.snapshot");
+    new TodosDatabase(Server.TODOS_DATA_FILE).writeSnapshot(snapshotFile);
+    TodosDatabase snapshotDb = TodosDatabase.openSnapshot(snapshotFile);
+
+    // The IDs and bodies are copied out of the mapped file as they're written
+    Projection<TodosColumns> everyField = new Projection.Schema<TodosColumns>()
+      .field("_id", (json, todos, row) -> {
+        json.writeFieldName("_id");
+        todos.writeId(json, row);
+      })
+      .field("owner", (json, todos, row) -> json.writeStringField("owner", todos.owner(row)))
+      .field("status", (json, todos, row) -> json.writeBooleanField("status", todos.status(row)))
+      .field("body", (json, todos, row) -> {
+        json.writeFieldName("body");
+        todos.writeBody(json, row);
+      })
+      .field("category", (json, todos, row) -> json.writeStringField("category", todos.category(row)))
+      .fromQuery(Map.of("fields", List.of("_id,owner,status,body,category")));
+    int[] rows = snapshotDb.listRows(new HashMap<>());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    snapshotDb.writeJson(out, rows, everyField);
+    assertEquals(JavalinJackson.INSTANCE.toJson(snapshotDb.todos(rows)), out.toString(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,61 @@
+package umm3601.todos;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the bounded heap keeps the same positions as sorting them all
+ * and taking the first few.
+ */
+public class TopPositionsSpec {
+
+  @Test
+  public void keepsTheSmallestPositions() {
+    Random random = new Random(3601);
+    for (int capacity : new int[] { 1, 5, 64, 1000 }) {
+      int[] positions = IntStream.range(0, 500).map(i -> i * 3).toArray();
+      // Shuffle, so the positions arrive in no particular order
+      for (int i = positions.length - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        int swap = positions[i];
+        positions[i] = positions[j];
+        positions[j] = swap;
+      }
+
+      TopPositions top = new TopPositions(capacity);
+      for (int position : positions) {
+        if (top.accepts(position)) {
+          top.add(position);
+        }
+      }
+      int[] expected = Arrays.copyOf(IntStream.range(0, 500).map(i -> i * 3).toArray(), Math.min(capacity, 500));
+      assertArrayEquals(expected, top.sorted());
+    }
+  }
+
+  @Test
+  public void rejectsPositionsAfterAFullHeap() {
+    TopPositions top = new TopPositions(2);
+    assertTrue(top.accepts(10));
+    top.add(10);
+    top.add(4);
+    assertFalse(top.accepts(12));
+    assertTrue(top.accepts(7));
+    top.add(7);
+    assertArrayEquals(new int[] { 4, 7 }, top.sorted());
+  }
+
+  @Test
+  public void zeroCapacityKeepsNothing() {
+    TopPositions top = new TopPositions(0);
+    assertFalse(top.accepts(0));
+    assertArrayEquals(new int[0], top.sorted());
+  }
+}
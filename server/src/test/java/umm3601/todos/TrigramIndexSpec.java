@@ -0,0 +1,85 @@
+package umm3601.todos;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.Server;
+
+/**
+ * Tests that the trigram index gives the same answers as `String.contains`
+ */
+public class TrigramIndexSpec {
+
+  private static final String[] TEXTS = {
+    "Lorem ipsum dolor sit amet",
+    "ipsum ipsum ipsum",
+    "",
+    "ab",
+    "Crème brûlée",
+    "sit amet, consectetur"
+  };
+
+  @Test
+  public void candidatesIncludeEveryMatch() {
+    TrigramIndex index = TrigramIndex.of(TEXTS);
+
+    String[] targets = { "ipsum", "sit amet", "um ip", "rûl", "brûlée", "Lorem ipsum dolor sit amet", "zzz", "ame" };
+    for (String target : targets) {
+      int[] candidates = index.candidates(target);
+      int[] matches = IntStream.range(0, TEXTS.length)
+        .filter(row -> TEXTS[row].contains(target))
+        .toArray();
+      // Every real match must be a candidate
+      for (int row : matches) {
+        assertTrue(Arrays.binarySearch(candidates, row) >= 0,
+          "Missing candidate " + row + " for '" + target + "'");
+      }
+    }
+  }
+
+  @Test
+  public void candidatesHaveEveryTrigram() {
+    TrigramIndex index = TrigramIndex.of(TEXTS);
+
+    // Includes targets that repeat a trigram
+    String[] targets = { "ipsum", "ipsum ipsum", "sum sit", "amet", "ûlé", "zzz" };
+    for (String target : targets) {
+      int[] expected = IntStream.range(0, TEXTS.length)
+        .filter(row -> IntStream.rangeClosed(0, target.length() - 3)
+          .allMatch(i -> TEXTS[row].contains(target.substring(i, i + 3))))
+        .toArray();
+      assertArrayEquals(expected, index.candidates(target), "Wrong candidates for '" + target + "'");
+    }
+  }
+
+  @Test
+  public void shortTargetsAreNotIndexed() {
+    TrigramIndex index = TrigramIndex.of(TEXTS);
+    assertNull(index.candidates(""));
+    assertNull(index.candidates("ab"));
+  }
+
+  @Test
+  public void listTodosContainsMatchesFullScan() throws IOException {
+    TodosDatabase db = new TodosDatabase(Server.TODOS_DATA_FILE);
+    Todos[] allTodos = db.listTodos(new HashMap<>());
+
+    String[] targets = { "cillum", "Cillum", "a", "", "ea", "nulla pariatur", "qui ", "not in any body" };
+    for (String target : targets) {
+      Map<String, List<String>> queryParams = new HashMap<>();
+      queryParams.put("contains", Arrays.asList(new String[] { target }));
+      assertArrayEquals(db.filterTodosByBody(allTodos, target), db.listTodos(queryParams),
+        "Wrong todos for contains '" + target + "'");
+    }
+  }
+}
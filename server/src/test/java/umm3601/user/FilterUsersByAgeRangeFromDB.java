@@ -0,0 +1,75 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * Tests umm3601.user.Database listUsers with _minAge_ and _maxAge_ query
+ * parameters
+ */
+public class FilterUsersByAgeRangeFromDB {
+
+  @Test
+  public void filterUsersByAgeRange() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("minAge", Arrays.asList(new String[] { "27" }));
+    queryParams.put("maxAge", Arrays.asList(new String[] { "35" }));
+    User[] users = db.listUsers(queryParams);
+    assertEquals(5, users.length, "Incorrect number of users aged 27 to 35");
+    for (User user : users) {
+      assertEquals(true, user.age >= 27 && user.age <= 35, "Incorrect age " + user.age);
+    }
+    // Users still come out in the order of the data
+    assertEquals("MOMENTIA", users[0].company, "Incorrect first user");
+    assertEquals("KINETICUT", users[4].company, "Incorrect last user");
+  }
+
+  @Test
+  public void filterUsersByOpenEndedAgeRange() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("minAge", Arrays.asList(new String[] { "35" }));
+    assertEquals(3, db.listUsers(queryParams).length, "Incorrect number of users aged at least 35");
+
+    queryParams.clear();
+    queryParams.put("maxAge", Arrays.asList(new String[] { "25" }));
+    assertEquals(3, db.listUsers(queryParams).length, "Incorrect number of users aged at most 25");
+
+    queryParams.put("minAge", Arrays.asList(new String[] { "30" }));
+    assertEquals(0, db.listUsers(queryParams).length, "An empty range should match nobody");
+  }
+
+  @Test
+  public void filterUsersByAgeRangeAndCompany() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("minAge", Arrays.asList(new String[] { "24" }));
+    queryParams.put("company", Arrays.asList(new String[] { "OHMNET" }));
+    User[] users = db.listUsers(queryParams);
+    assertEquals(1, users.length, "Incorrect number of OHMNET users aged at least 24");
+    assertEquals(25, users[0].age, "Incorrect age");
+  }
+
+  @Test
+  public void filterUsersByIllegalAgeRange() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("maxAge", Arrays.asList(new String[] { "old" }));
+    assertThrows(BadRequestResponse.class, () -> db.listUsers(queryParams));
+  }
+}
@@ -0,0 +1,78 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests umm3601.user.Database listUsers with a _company=in:..._ query
+ * parameter
+ */
+public class FilterUsersByCompaniesFromDB {
+
+  @Test
+  public void filterUsersByAnyOfSeveralCompanies() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("company", Arrays.asList(new String[] { "in:VINCH,OHMNET,NOWHERE" }));
+    User[] users = db.listUsers(queryParams);
+    assertEquals(3, users.length, "Incorrect number of users with company VINCH or OHMNET");
+    assertEquals("OHMNET", users[0].company, "Incorrect first user");
+    assertEquals("OHMNET", users[1].company, "Incorrect second user");
+    assertEquals("VINCH", users[2].company, "Incorrect third user");
+  }
+
+  @Test
+  public void filterUsersByCompaniesAndAge() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("company", Arrays.asList(new String[] { "in:VINCH,OHMNET,ESCENTA" }));
+    queryParams.put("age", Arrays.asList(new String[] { "27" }));
+    User[] users = db.listUsers(queryParams);
+    assertEquals(2, users.length, "Incorrect number of VINCH, OHMNET or ESCENTA users aged 27");
+  }
+
+  @Test
+  public void pageThroughUsersByCompanies() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("company", Arrays.asList(new String[] { "in:VINCH,OHMNET" }));
+    queryParams.put("limit", Arrays.asList(new String[] { "2" }));
+    User[] firstPage = db.listUsers(queryParams);
+    assertEquals(2, firstPage.length, "Incorrect size of the first page");
+
+    queryParams.put("after", Arrays.asList(new String[] { db.nextCursor(firstPage, queryParams) }));
+    User[] secondPage = db.listUsers(queryParams);
+    assertEquals(1, secondPage.length, "Incorrect size of the second page");
+    assertEquals("VINCH", secondPage[0].company, "Incorrect user on the second page");
+  }
+
+  @Test
+  public void filterUsersWithoutACompany() {
+    User employed = new User();
+    employed._id = "employed";
+    employed.company = "OHMNET";
+    User unemployed = new User();
+    unemployed._id = "unemployed";
+    UserDatabase db = UserDatabase.of(new User[] { employed, unemployed });
+
+    // A user with no company doesn't have any company
+    User[] users = db.filterUsersByCompany(new User[] { employed, unemployed }, "OHMNET");
+    assertEquals(1, users.length, "Incorrect number of users with company OHMNET");
+    assertSame(employed, users[0], "Incorrect user with company OHMNET");
+
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("company", Arrays.asList(new String[] { "in:OHMNET,VINCH" }));
+    assertEquals(1, db.listUsers(queryParams).length, "Incorrect number of users with company OHMNET or VINCH");
+  }
+}
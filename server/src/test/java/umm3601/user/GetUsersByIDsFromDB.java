@@ -0,0 +1,33 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests umm3601.user.Database getUsers (batch lookup) functionality
+ */
+public class GetUsersByIDsFromDB {
+
+  @Test
+  public void getUsersInTheGivenOrder() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    User[] users = db.getUsers(new String[] { "588935f5556f992bf8f37c01", "588935f52787254123f71fed" });
+    assertEquals(2, users.length, "Incorrect number of users");
+    assertEquals("Bolton Monroe", users[0].name, "Incorrect name");
+    assertEquals("Stokes Clayton", users[1].name, "Incorrect name");
+  }
+
+  @Test
+  public void missingIdsAreNull() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    User[] users = db.getUsers(new String[] { "nonexistent", null, "588935f52787254123f71fed" });
+    assertEquals(3, users.length, "Incorrect number of users");
+    assertNull(users[0], "A missing id should give null");
+    assertNull(users[1], "A null id should give null");
+    assertEquals("Stokes Clayton", users[2].name, "Incorrect name");
+  }
+}
@@ -0,0 +1,117 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.PageCursor;
+
+/**
+ * Tests umm3601.user.Database listUsers with _limit_ and _after_ query
+ * parameters
+ */
+public class PageThroughUsersFromDB {
+
+  @Test
+  public void listUsersWithLimit() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("limit", Arrays.asList(new String[] { "4" }));
+    User[] firstUsers = db.listUsers(queryParams);
+    assertEquals(4, firstUsers.length, "Incorrect number of users with limit 4");
+
+    queryParams.put("limit", Arrays.asList(new String[] { "1000" }));
+    User[] allUsers = db.listUsers(queryParams);
+    assertEquals(db.size(), allUsers.length, "Incorrect number of users with limit 1000");
+    assertNull(db.nextCursor(allUsers, queryParams), "There shouldn't be a next page");
+  }
+
+  @Test
+  public void pageThroughUsersWithCompanyFilter() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("company", Arrays.asList(new String[] { "OHMNET" }));
+    List<User> expected = Arrays.asList(db.listUsers(queryParams));
+
+    queryParams.put("limit", Arrays.asList(new String[] { "1" }));
+    List<User> allPages = new ArrayList<>();
+    String nextCursor;
+    do {
+      User[] page = db.listUsers(queryParams);
+      allPages.addAll(Arrays.asList(page));
+      nextCursor = db.nextCursor(page, queryParams);
+      queryParams.put("after", Arrays.asList(new String[] { nextCursor }));
+    } while (nextCursor != null);
+
+    assertEquals(expected, allPages, "Paging didn't give the same users");
+  }
+
+  @Test
+  public void pageThroughUsersWithRangeAndCompanies() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    List<Map<String, List<String>>> queries = new ArrayList<>();
+    Map<String, List<String>> ageRange = new HashMap<>();
+    ageRange.put("minAge", Arrays.asList(new String[] { "20" }));
+    ageRange.put("maxAge", Arrays.asList(new String[] { "40" }));
+    queries.add(ageRange);
+    Map<String, List<String>> companies = new HashMap<>();
+    companies.put("company", Arrays.asList(new String[] { "in:OHMNET,MOMENTIA,VINCH,ESCENTA,IKNOWLEDGE" }));
+    queries.add(companies);
+    // Driven by the companies, then by the (smaller) single age
+    Map<String, List<String>> both = new HashMap<>(ageRange);
+    both.putAll(companies);
+    queries.add(both);
+    Map<String, List<String>> oneAge = new HashMap<>(companies);
+    oneAge.put("age", Arrays.asList(new String[] { "27" }));
+    queries.add(oneAge);
+
+    for (Map<String, List<String>> queryParams : queries) {
+      List<User> expected = Arrays.asList(db.listUsers(queryParams));
+      queryParams.put("limit", Arrays.asList(new String[] { "2" }));
+      List<User> allPages = new ArrayList<>();
+      String nextCursor;
+      do {
+        int[] page = db.listRows(queryParams);
+        allPages.addAll(Arrays.asList(db.users(page)));
+        nextCursor = db.nextCursor(page, queryParams);
+        queryParams.put("after", Arrays.asList(new String[] { nextCursor }));
+      } while (nextCursor != null);
+      assertEquals(expected, allPages, "Paging didn't give the same users for " + queryParams.keySet());
+    }
+  }
+
+  @Test
+  public void listUsersWithCursorForAnOrdering() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    User first = db.listUsers(new HashMap<>())[0];
+    Map<String, List<String>> queryParams = new HashMap<>();
+    // A cursor for a list ordered by owner, as todos can be
+    queryParams.put("after", Arrays.asList(new String[] { new PageCursor("owner", 0, first._id).encode() }));
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      db.listUsers(queryParams);
+    });
+  }
+
+  @Test
+  public void listUsersWithIllegalLimit() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] { "-5" }));
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      db.listUsers(queryParams);
+    });
+  }
+}
@@ -6,6 +6,8 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -20,6 +22,7 @@ import io.javalin.core.validation.Validator;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.NotFoundResponse;
+import io.javalin.plugin.json.JavalinJackson;
 
 import umm3601.Server;
 
@@ -48,10 +51,8 @@ public class UserControllerSpec {
     // Call the method on the mock controller
     userController.getUsers(ctx);
 
-    // Confirm that `json` was called with all the users.
-    ArgumentCaptor<User[]> argument = ArgumentCaptor.forClass(User[].class);
-    verify(ctx).json(argument.capture());
-    assertEquals(db.size(), argument.getValue().length);
+    // Confirm that all the users were sent.
+    assertEquals(db.size(), sentUsers().length);
   }
 
   @Test
@@ -62,10 +63,8 @@ public class UserControllerSpec {
     when(ctx.queryParamMap()).thenReturn(queryParams);
     userController.getUsers(ctx);
 
-    // Confirm that all the users passed to `json` have age 25.
-    ArgumentCaptor<User[]> argument = ArgumentCaptor.forClass(User[].class);
-    verify(ctx).json(argument.capture());
-    for (User user : argument.getValue()) {
+    // Confirm that all the users sent have age 25.
+    for (User user : sentUsers()) {
       assertEquals(25, user.age);
     }
   }
@@ -99,10 +98,8 @@ public class UserControllerSpec {
     when(ctx.queryParamMap()).thenReturn(queryParams);
     userController.getUsers(ctx);
 
-    // Confirm that all the users passed to `json` work for OHMNET.
-    ArgumentCaptor<User[]> argument = ArgumentCaptor.forClass(User[].class);
-    verify(ctx).json(argument.capture());
-    for (User user : argument.getValue()) {
+    // Confirm that all the users sent work for OHMNET.
+    for (User user : sentUsers()) {
       assertEquals("OHMNET", user.company);
     }
   }
@@ -118,11 +115,9 @@ public class UserControllerSpec {
     when(ctx.queryParamMap()).thenReturn(queryParams);
     userController.getUsers(ctx);
 
-    // Confirm that all the users passed to `json` work for OHMNET
+    // Confirm that all the users sent work for OHMNET
     // and have age 25.
-    ArgumentCaptor<User[]> argument = ArgumentCaptor.forClass(User[].class);
-    verify(ctx).json(argument.capture());
-    for (User user : argument.getValue()) {
+    for (User user : sentUsers()) {
       assertEquals(25, user.age);
       assertEquals("OHMNET", user.company);
     }
@@ -142,4 +137,48 @@ public class UserControllerSpec {
       userController.getUser(ctx);
     });
   }
+
+  @Test
+  public void GET_to_request_some_user_fields() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("fields", Arrays.asList(new String[] { "name,age" }));
+    queryParams.put("company", Arrays.asList(new String[] { "OHMNET" }));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    userController.getUsers(ctx);
+
+    ArgumentCaptor<InputStream> argument = ArgumentCaptor.forClass(InputStream.class);
+    verify(ctx).result(argument.capture());
+    assertEquals("[{\"name\":\"Connie Stewart\",\"age\":25},{\"name\":\"Roseann Roberson\",\"age\":23}]",
+      new String(argument.getValue().readAllBytes(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void POST_to_batch_returns_users_in_order_with_nulls_for_misses() throws IOException {
+    when(ctx.body()).thenReturn("[\"588935f5556f992bf8f37c01\", \"nonexistent\"]");
+    userController.getUsersBatch(ctx);
+
+    User[] found = sentUsers();
+    assertEquals(2, found.length);
+    assertEquals("Bolton Monroe", found[0].name);
+    assertEquals(null, found[1]);
+  }
+
+  @Test
+  public void POST_to_batch_with_illegal_body() {
+    when(ctx.body()).thenReturn("not json");
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsersBatch(ctx);
+    });
+  }
+
+  /**
+   * Get the users that were sent as the JSON result of the request.
+   */
+  private User[] sentUsers() throws IOException {
+    ArgumentCaptor<InputStream> argument = ArgumentCaptor.forClass(InputStream.class);
+    verify(ctx).result(argument.capture());
+    String json = new String(argument.getValue().readAllBytes(), StandardCharsets.UTF_8);
+    return JavalinJackson.INSTANCE.fromJson(json, User[].class);
+  }
 }